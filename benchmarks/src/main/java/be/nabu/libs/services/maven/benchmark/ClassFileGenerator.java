@@ -0,0 +1,118 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Generates minimal but valid class files: a public class with a default constructor and optionally a single runtime visible annotation
+ */
+public class ClassFileGenerator {
+	
+	public static byte[] generate(String internalName, String annotationDescriptor) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			output.writeInt(0xCAFEBABE);
+			output.writeShort(0);
+			// java 8
+			output.writeShort(52);
+			output.writeShort(annotationDescriptor == null ? 10 : 12);
+			// 1: our name
+			utf8(output, internalName);
+			// 2: our class
+			output.writeByte(7);
+			output.writeShort(1);
+			// 3: the name of the super class
+			utf8(output, "java/lang/Object");
+			// 4: the super class
+			output.writeByte(7);
+			output.writeShort(3);
+			// 5: the constructor name
+			utf8(output, "<init>");
+			// 6: the constructor descriptor
+			utf8(output, "()V");
+			// 7: name and type of the super constructor
+			output.writeByte(12);
+			output.writeShort(5);
+			output.writeShort(6);
+			// 8: the super constructor
+			output.writeByte(10);
+			output.writeShort(4);
+			output.writeShort(7);
+			// 9: the code attribute
+			utf8(output, "Code");
+			if (annotationDescriptor != null) {
+				// 10: the annotations attribute
+				utf8(output, "RuntimeVisibleAnnotations");
+				// 11: the annotation type
+				utf8(output, annotationDescriptor);
+			}
+			// public super
+			output.writeShort(0x0021);
+			output.writeShort(2);
+			output.writeShort(4);
+			// interfaces
+			output.writeShort(0);
+			// fields
+			output.writeShort(0);
+			// methods
+			output.writeShort(1);
+			output.writeShort(0x0001);
+			output.writeShort(5);
+			output.writeShort(6);
+			output.writeShort(1);
+			output.writeShort(9);
+			output.writeInt(17);
+			// max stack and locals
+			output.writeShort(1);
+			output.writeShort(1);
+			// aload_0, invokespecial #8, return
+			output.writeInt(5);
+			output.write(new byte[] { 0x2a, (byte) 0xb7, 0x00, 0x08, (byte) 0xb1 });
+			// exceptions and attributes of the code
+			output.writeShort(0);
+			output.writeShort(0);
+			// class attributes
+			if (annotationDescriptor == null) {
+				output.writeShort(0);
+			}
+			else {
+				output.writeShort(1);
+				output.writeShort(10);
+				output.writeInt(6);
+				output.writeShort(1);
+				output.writeShort(11);
+				output.writeShort(0);
+			}
+			output.close();
+			return bytes.toByteArray();
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static void utf8(DataOutputStream output, String value) throws IOException {
+		output.writeByte(1);
+		output.writeUTF(value);
+	}
+}
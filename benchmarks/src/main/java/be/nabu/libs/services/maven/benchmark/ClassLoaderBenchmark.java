@@ -0,0 +1,147 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.services.maven.DependencyGraph;
+import be.nabu.libs.services.maven.DependencyResolver;
+import be.nabu.libs.services.maven.JarCache;
+import be.nabu.libs.services.maven.MavenClassLoader;
+import be.nabu.libs.services.maven.PomResolver;
+import be.nabu.libs.services.maven.ResolutionCache;
+
+/**
+ * Measures class lookups through the maven classloader:
+ * - cold: nothing is cached, the dependencies have to be resolved and the jars indexed
+ * - shared: a new classloader but the jars are already in the shared cache
+ * - warm: a classloader that has already been warmed up
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClassLoaderBenchmark {
+
+	@Param({ "50", "300" })
+	public int artifacts;
+	
+	@Param({ "false", "true" })
+	public boolean fileBacked;
+	
+	private SyntheticRepository repository;
+	private DependencyResolver resolver;
+	private MavenClassLoader warmLoader;
+	private int counter;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		File directory = File.createTempFile("synthetic", "");
+		directory.delete();
+		repository = new SyntheticRepository(directory, artifacts, 3, 20, fileBacked);
+		resolver = new DependencyResolver();
+		resolver.setUpdateSnapshots(false);
+		warmLoader = newLoader();
+		warmLoader.warmUp();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		warmLoader.close();
+		clearCaches();
+		repository.delete();
+	}
+	
+	/**
+	 * Drops all the process wide caches so nothing that was resolved, parsed or indexed before is reused
+	 */
+	private static void clearCaches() {
+		JarCache.getInstance().clear();
+		DependencyGraph.clear();
+		PomResolver.clear();
+		ResolutionCache.getInstance().clear();
+	}
+	
+	private MavenClassLoader newLoader() {
+		return new MavenClassLoader(getClass().getClassLoader(), repository.getRepository(), repository.getRoot(), resolver);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	public Class<?> coldLookup() throws ClassNotFoundException {
+		clearCaches();
+		MavenClassLoader loader = newLoader();
+		try {
+			return loader.loadClass(repository.getDeepestClass());
+		}
+		finally {
+			loader.close();
+		}
+	}
+	
+	@Benchmark
+	public Class<?> sharedCacheLookup() throws ClassNotFoundException {
+		MavenClassLoader loader = newLoader();
+		try {
+			return loader.loadClass(repository.getDeepestClass());
+		}
+		finally {
+			loader.close();
+		}
+	}
+	
+	@Benchmark
+	public Class<?> warmLookup() throws ClassNotFoundException {
+		return warmLoader.loadClass(repository.getClassNames().get(counter++ % repository.getClassNames().size()));
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	public MavenClassLoader warmUp() throws IOException {
+		clearCaches();
+		MavenClassLoader loader = newLoader();
+		loader.warmUp();
+		loader.close();
+		return loader;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.services.maven.DependencyResolver;
+import be.nabu.libs.services.maven.pom.Pom;
+import be.nabu.libs.services.maven.pom.PomParser;
+
+/**
+ * Measures the pom parsing throughput on a pom that has dependencies, exclusions and elements that are not mapped
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PomParserBenchmark {
+	
+	private SyntheticRepository repository;
+	private byte[] pom;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		File directory = File.createTempFile("synthetic", "");
+		directory.delete();
+		repository = new SyntheticRepository(directory, 20, 3, 1, false);
+		// the root has the most dependencies
+		pom = repository.getRoot().getPomBytes();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		repository.delete();
+	}
+	
+	@Benchmark
+	public Pom parse() throws IOException, ParseException {
+		return PomParser.parse(new ByteArrayInputStream(pom));
+	}
+	
+	@Benchmark
+	public Pom parseArtifact() throws IOException, ParseException {
+		return DependencyResolver.parsePom(repository.getRoot());
+	}
+}
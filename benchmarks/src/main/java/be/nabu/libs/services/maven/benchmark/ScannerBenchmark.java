@@ -0,0 +1,136 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.artifacts.api.Artifact;
+import be.nabu.libs.services.maven.DependencyGraph;
+import be.nabu.libs.services.maven.DependencyResolver;
+import be.nabu.libs.services.maven.JarCache;
+import be.nabu.libs.services.maven.MavenClassLoader;
+import be.nabu.libs.services.maven.MavenScanner;
+import be.nabu.libs.services.maven.PomResolver;
+import be.nabu.libs.services.maven.ResolutionCache;
+import be.nabu.libs.types.java.BeanResolver;
+
+/**
+ * Measures the time it takes to scan a single artifact for exposed types and services, or for SPI implementations
+ * Every invocation uses a new classloader as the scan loads the classes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ScannerBenchmark {
+	
+	@Param({ "20", "200" })
+	public int classes;
+	
+	private SyntheticRepository repository;
+	private DependencyResolver resolver;
+	private MavenScanner scanner = new MavenScanner();
+	private MavenScanner parallelScanner = new MavenScanner();
+	private int counter;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		File directory = File.createTempFile("synthetic", "");
+		directory.delete();
+		repository = new SyntheticRepository(directory, 50, 3, classes, true);
+		resolver = new DependencyResolver();
+		resolver.setUpdateSnapshots(false);
+		parallelScanner.setParallelism(Runtime.getRuntime().availableProcessors());
+		clearCaches();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		clearCaches();
+		repository.delete();
+	}
+	
+	/**
+	 * Drops all the process wide caches so nothing that was resolved, parsed or indexed before is reused
+	 */
+	private static void clearCaches() {
+		JarCache.getInstance().clear();
+		DependencyGraph.clear();
+		PomResolver.clear();
+		ResolutionCache.getInstance().clear();
+	}
+	
+	private SyntheticArtifact next() {
+		return repository.getArtifacts().get(counter++ % repository.getArtifacts().size());
+	}
+	
+	@Benchmark
+	public Map<String, Artifact> scan() throws IOException {
+		SyntheticArtifact artifact = next();
+		MavenClassLoader loader = new MavenClassLoader(getClass().getClassLoader(), repository.getRepository(), artifact, resolver);
+		try {
+			return scanner.scan(BeanResolver.getInstance(), loader, resolver, repository.getRepository(), artifact);
+		}
+		finally {
+			loader.close();
+		}
+	}
+	
+	@Benchmark
+	public Map<String, Artifact> scanRepository() throws IOException {
+		return scanner.scan(BeanResolver.getInstance(), resolver, repository.getRepository());
+	}
+	
+	@Benchmark
+	public Map<String, Artifact> scanRepositoryParallel() throws IOException {
+		return parallelScanner.scan(BeanResolver.getInstance(), resolver, repository.getRepository());
+	}
+	
+	@Benchmark
+	public Map<Class<?>, List<Class<?>>> scanSPI() throws IOException {
+		SyntheticArtifact artifact = next();
+		MavenClassLoader loader = new MavenClassLoader(getClass().getClassLoader(), repository.getRepository(), artifact, resolver);
+		try {
+			return scanner.scanSPI(loader, artifact);
+		}
+		finally {
+			loader.close();
+		}
+	}
+}
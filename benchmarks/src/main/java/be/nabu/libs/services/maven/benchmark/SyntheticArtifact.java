@@ -0,0 +1,101 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+import be.nabu.libs.maven.api.Artifact;
+
+/**
+ * An artifact whose jar is stored in a file but which is only exposed as a stream, like most repositories do
+ */
+public class SyntheticArtifact implements Artifact {
+
+	private String groupId, artifactId, version;
+	private File jar;
+	private byte[] pom;
+	private Date lastModified;
+	
+	public SyntheticArtifact(String groupId, String artifactId, String version, File jar, byte[] pom) {
+		this.groupId = groupId;
+		this.artifactId = artifactId;
+		this.version = version;
+		this.jar = jar;
+		this.pom = pom;
+		this.lastModified = new Date(jar.lastModified());
+	}
+	
+	@Override
+	public String getArtifactId() {
+		return artifactId;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		return new FileInputStream(jar);
+	}
+
+	@Override
+	public String getGroupId() {
+		return groupId;
+	}
+
+	@Override
+	public Date getLastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public String getPackaging() {
+		return "jar";
+	}
+
+	@Override
+	public InputStream getPom() throws IOException {
+		return new ByteArrayInputStream(pom);
+	}
+
+	@Override
+	public String getVersion() {
+		return version;
+	}
+
+	@Override
+	public boolean isTest() {
+		return false;
+	}
+	
+	public File getJar() {
+		return jar;
+	}
+	
+	public byte[] getPomBytes() {
+		return pom;
+	}
+	
+	@Override
+	public String toString() {
+		return groupId + ":" + artifactId + ":" + version;
+	}
+}
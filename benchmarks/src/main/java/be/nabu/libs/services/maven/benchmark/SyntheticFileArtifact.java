@@ -0,0 +1,38 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven.benchmark;
+
+import java.io.File;
+
+import be.nabu.libs.services.maven.FileArtifact;
+
+/**
+ * The same synthetic artifact but it exposes its file so the classloader can map it
+ */
+public class SyntheticFileArtifact extends SyntheticArtifact implements FileArtifact {
+
+	public SyntheticFileArtifact(String groupId, String artifactId, String version, File jar, byte[] pom) {
+		super(groupId, artifactId, version, jar, pom);
+	}
+
+	@Override
+	public File getFile() {
+		return getJar();
+	}
+}
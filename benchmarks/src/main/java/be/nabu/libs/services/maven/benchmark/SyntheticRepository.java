@@ -0,0 +1,242 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import be.nabu.libs.maven.api.Artifact;
+import be.nabu.libs.maven.api.DomainRepository;
+import be.nabu.libs.maven.api.WritableRepository;
+
+/**
+ * Generates a local repository of jars with a deep dependency tree that is shaped like a real deployment:
+ * every artifact has a number of children, some artifacts are shared by several branches, some dependencies have exclusions or are test scoped
+ * Each jar contains a package of its own, a few annotated classes, a resource and a class in a package that is split over all the jars
+ */
+public class SyntheticRepository {
+	
+	public static final String GROUP_ID = "be.nabu.synthetic";
+	public static final String VERSION = "1.0";
+	// the interface only needs to be loadable, the scanner does not check the implementations
+	public static final String SPI = "java.lang.Runnable";
+	
+	private File directory;
+	private List<SyntheticArtifact> artifacts = new ArrayList<SyntheticArtifact>();
+	private List<String> classNames = new ArrayList<String>();
+	private DomainRepository repository;
+	
+	public SyntheticRepository(File directory, int amount, int fanout, int classes, boolean fileBacked) throws IOException {
+		this.directory = directory;
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		for (int i = 0; i < amount; i++) {
+			String artifactId = getArtifactId(i);
+			File jar = new File(directory, artifactId + "-" + VERSION + ".jar");
+			writeJar(jar, i, classes);
+			byte[] pom = getPom(i, amount, fanout).getBytes("UTF-8");
+			artifacts.add(fileBacked 
+				? new SyntheticFileArtifact(GROUP_ID, artifactId, VERSION, jar, pom) 
+				: new SyntheticArtifact(GROUP_ID, artifactId, VERSION, jar, pom));
+		}
+		repository = (DomainRepository) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { DomainRepository.class, WritableRepository.class }, new RepositoryHandler());
+	}
+	
+	public static String getArtifactId(int index) {
+		return "artifact" + index;
+	}
+	
+	public static String getPackage(int index) {
+		return GROUP_ID + ".a" + index;
+	}
+	
+	private String getPom(int index, int amount, int fanout) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		builder.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://maven.apache.org/POM/4.0.0 http://maven.apache.org/maven-v4_0_0.xsd\">\n");
+		builder.append("\t<modelVersion>4.0.0</modelVersion>\n");
+		builder.append("\t<groupId>" + GROUP_ID + "</groupId>\n");
+		builder.append("\t<artifactId>" + getArtifactId(index) + "</artifactId>\n");
+		builder.append("\t<version>" + VERSION + "</version>\n");
+		builder.append("\t<name>" + getArtifactId(index) + "</name>\n");
+		builder.append("\t<build>\n\t\t<plugins>\n\t\t\t<plugin>\n\t\t\t\t<groupId>org.apache.maven.plugins</groupId>\n\t\t\t\t<artifactId>maven-compiler-plugin</artifactId>\n\t\t\t\t<version>3.1</version>\n\t\t\t</plugin>\n\t\t</plugins>\n\t</build>\n");
+		builder.append("\t<dependencies>\n");
+		List<Integer> dependencies = new ArrayList<Integer>();
+		for (int i = 1; i <= fanout; i++) {
+			if (index * fanout + i < amount) {
+				dependencies.add(index * fanout + i);
+			}
+		}
+		// share some artifacts between branches
+		int shared = (index * 7 + 3) % amount;
+		if (shared > index && !dependencies.contains(shared)) {
+			dependencies.add(shared);
+		}
+		for (int i = 0; i < dependencies.size(); i++) {
+			int dependency = dependencies.get(i);
+			builder.append("\t\t<dependency>\n");
+			builder.append("\t\t\t<groupId>" + GROUP_ID + "</groupId>\n");
+			builder.append("\t\t\t<artifactId>" + getArtifactId(dependency) + "</artifactId>\n");
+			builder.append("\t\t\t<version>" + VERSION + "</version>\n");
+			if (dependency % 5 == 0) {
+				builder.append("\t\t\t<exclusions>\n\t\t\t\t<exclusion>\n\t\t\t\t\t<groupId>org.example</groupId>\n\t\t\t\t\t<artifactId>excluded</artifactId>\n\t\t\t\t</exclusion>\n\t\t\t</exclusions>\n");
+			}
+			builder.append("\t\t</dependency>\n");
+		}
+		// a dependency that should never be resolved
+		builder.append("\t\t<dependency>\n\t\t\t<groupId>junit</groupId>\n\t\t\t<artifactId>junit</artifactId>\n\t\t\t<version>4.12</version>\n\t\t\t<scope>test</scope>\n\t\t</dependency>\n");
+		builder.append("\t</dependencies>\n");
+		builder.append("</project>\n");
+		return builder.toString();
+	}
+	
+	private void writeJar(File file, int index, int classes) throws IOException {
+		String path = getPackage(index).replace('.', '/');
+		ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+			zip.write("Manifest-Version: 1.0\r\n".getBytes("ASCII"));
+			zip.closeEntry();
+			for (int i = 0; i < classes; i++) {
+				String name = path + "/Type" + i;
+				String annotation = null;
+				if (i == 0) {
+					annotation = "Ljavax/xml/bind/annotation/XmlRootElement;";
+				}
+				else if (i == 1) {
+					annotation = "Ljavax/jws/WebService;";
+				}
+				zip.putNextEntry(new ZipEntry(name + ".class"));
+				zip.write(ClassFileGenerator.generate(name, annotation));
+				zip.closeEntry();
+				classNames.add(name.replace('/', '.'));
+			}
+			// a package that is split over all the artifacts
+			String shared = GROUP_ID.replace('.', '/') + "/shared/Shared" + index;
+			zip.putNextEntry(new ZipEntry(shared + ".class"));
+			zip.write(ClassFileGenerator.generate(shared, null));
+			zip.closeEntry();
+			zip.putNextEntry(new ZipEntry(path + "/resource.properties"));
+			zip.write(("index=" + index + "\n").getBytes("ASCII"));
+			zip.closeEntry();
+			if (index % 10 == 0 && classes > 2) {
+				zip.putNextEntry(new ZipEntry("META-INF/services/" + SPI));
+				zip.write((getPackage(index) + ".Type2\n").getBytes("ASCII"));
+				zip.closeEntry();
+			}
+		}
+		finally {
+			zip.close();
+		}
+	}
+	
+	public File getDirectory() {
+		return directory;
+	}
+
+	public List<SyntheticArtifact> getArtifacts() {
+		return artifacts;
+	}
+	
+	public SyntheticArtifact getRoot() {
+		return artifacts.get(0);
+	}
+
+	public List<String> getClassNames() {
+		return classNames;
+	}
+	
+	/**
+	 * A class in the last generated artifact, which is at the bottom of the tree
+	 */
+	public String getDeepestClass() {
+		return getPackage(artifacts.size() - 1) + ".Type" + (classNames.size() / artifacts.size() - 1);
+	}
+
+	public DomainRepository getRepository() {
+		return repository;
+	}
+	
+	public void delete() {
+		for (SyntheticArtifact artifact : artifacts) {
+			artifact.getJar().delete();
+		}
+		directory.delete();
+	}
+	
+	private Artifact getArtifact(String groupId, String artifactId, String version) {
+		if (GROUP_ID.equals(groupId) && VERSION.equals(version) && artifactId.startsWith("artifact")) {
+			int index = Integer.parseInt(artifactId.substring("artifact".length()));
+			return index < artifacts.size() ? artifacts.get(index) : null;
+		}
+		return null;
+	}
+	
+	/**
+	 * We implement the repository dynamically so we only need to support what the classloader actually uses
+	 */
+	private class RepositoryHandler implements InvocationHandler {
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("getArtifact")) {
+				return getArtifact((String) args[0], (String) args[1], (String) args[2]);
+			}
+			else if (name.equals("getVersions")) {
+				return getArtifact((String) args[0], (String) args[1], VERSION) == null ? new TreeSet<String>() : new TreeSet<String>(Arrays.asList(VERSION));
+			}
+			else if (name.equals("getGroups")) {
+				return new TreeSet<String>(Arrays.asList(GROUP_ID));
+			}
+			else if (name.equals("getArtifacts") && args != null && args.length == 1) {
+				TreeSet<String> artifactIds = new TreeSet<String>();
+				if (GROUP_ID.equals(args[0])) {
+					for (SyntheticArtifact artifact : artifacts) {
+						artifactIds.add(artifact.getArtifactId());
+					}
+				}
+				return artifactIds;
+			}
+			else if (name.equals("getInternalArtifacts")) {
+				return new ArrayList<Artifact>(artifacts);
+			}
+			else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			else if (name.equals("equals")) {
+				return proxy == args[0];
+			}
+			else if (name.equals("toString")) {
+				return "SyntheticRepository[" + directory + "]";
+			}
+			throw new UnsupportedOperationException("The synthetic repository does not support: " + method);
+		}
+	}
+}
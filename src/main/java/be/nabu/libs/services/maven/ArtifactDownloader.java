@@ -0,0 +1,820 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URI;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.maven.api.Artifact;
+import be.nabu.libs.maven.api.WritableRepository;
+import be.nabu.libs.resources.URIUtils;
+
+/**
+ * Downloads artifacts from a number of remote repositories
+ * The first endpoint is tried first, if it has not answered within the hedge delay, the next endpoint is tried in parallel and the first one to answer wins
+ * Failing endpoints are skipped immediately, all connections have timeouts and responses are always closed properly so the JDK can reuse keep-alive connections
+ * Concurrent requests for the same artifact share a single download
+ * The artifact is streamed to a temporary file while its published checksum (sha256 or sha1) is verified, interrupted transfers are resumed with range requests
+ * Existing artifacts (like snapshots) are only transferred again if they have changed
+ */
+public class ArtifactDownloader {
+	
+	private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+	
+	private static ExecutorService executor;
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private URI [] endpoints;
+	private volatile String endpointsId;
+	private Proxy proxy;
+	private int connectTimeout = 10000, readTimeout = 60000;
+	private long hedgeDelay = 2000;
+	/**
+	 * How many times a failed transfer is resumed or restarted
+	 */
+	private int retries = 3;
+	/**
+	 * Whether or not artifacts without a published checksum are refused
+	 */
+	private boolean requireChecksum;
+	/**
+	 * Where partial downloads are kept until they are complete and verified, by default this is a directory in the system temporary directory that is derived from the endpoints
+	 */
+	private File temporaryDirectory;
+	/**
+	 * Partial downloads that have not been touched for this long are abandoned, they are removed the first time we use the temporary directory
+	 */
+	private long maxPartialAge = TimeUnit.DAYS.toMillis(1);
+	/**
+	 * The temporary directories that have been cleaned up in this virtual machine
+	 */
+	private static Set<File> cleaned = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+	private ConcurrentHashMap<String, Future<Artifact>> downloads = new ConcurrentHashMap<String, Future<Artifact>>();
+	/**
+	 * The etags of the files we downloaded, used for conditional requests
+	 */
+	private ConcurrentHashMap<String, String> etags = new ConcurrentHashMap<String, String>();
+	private MavenMetrics metrics = JmxMavenMetrics.getInstance();
+	
+	public ArtifactDownloader(URI...endpoints) {
+		this.endpoints = endpoints;
+	}
+	
+	/**
+	 * Downloads the artifact and stores it in the repository, returns null if no endpoint has it
+	 */
+	public Artifact download(WritableRepository repository, String groupId, String artifactId, String version, String packaging) throws IOException {
+		return download(repository, groupId, artifactId, version, packaging, null);
+	}
+	
+	/**
+	 * Downloads the artifact if it is different from the existing one, if it is unchanged the existing artifact is returned
+	 * For snapshots the remote maven-metadata.xml is used to find the timestamped file and, if there is an existing one, to check when it was last deployed
+	 * The timestamped file is requested from the endpoint that served the metadata
+	 * The file itself is requested conditionally (based on the last modified of the existing artifact and the etag we got the last time) so unchanged files are never transferred
+	 */
+	public Artifact download(final WritableRepository repository, final String groupId, final String artifactId, final String version, final String packaging, final Artifact existing) throws IOException {
+		final String directory = groupId.replace('.', '/') + "/" + artifactId + "/" + version;
+		final String path = directory + "/" + artifactId + "-" + version + "." + packaging;
+		Future<Artifact> future = downloads.get(path);
+		if (future == null) {
+			FutureTask<Artifact> task = new FutureTask<Artifact>(new Callable<Artifact>() {
+				@Override
+				public Artifact call() throws Exception {
+					String file = path;
+					URI [] sources = endpoints;
+					// the metadata tells us which timestamped file belongs to the snapshot and whether it changed
+					if (version.endsWith("-SNAPSHOT")) {
+						Response response = open(endpoints, directory + "/maven-metadata.xml", existing == null ? null : getConditions(directory + "/maven-metadata.xml", existing));
+						if (response != null) {
+							URLConnection connection = response.connection;
+							InputStream input = connection.getInputStream();
+							try {
+								if (getResponseCode(connection) == HttpURLConnection.HTTP_NOT_MODIFIED) {
+									logger.debug("The metadata of " + directory + " has not been modified");
+									return existing;
+								}
+								MavenMetadata metadata = MavenMetadata.parse(input);
+								setEtag(directory + "/maven-metadata.xml", connection);
+								if (existing != null && metadata.getLastUpdated() != null && existing.getLastModified() != null && !metadata.getLastUpdated().after(existing.getLastModified())) {
+									logger.debug("The snapshot " + directory + " has not been deployed since " + existing.getLastModified());
+									return existing;
+								}
+								file = directory + "/" + artifactId + "-" + metadata.getSnapshotVersion(version, packaging) + "." + packaging;
+								// the timestamped file only has to exist on the endpoint that published this metadata, the others may be behind (or ahead)
+								sources = new URI [] { response.endpoint };
+							}
+							finally {
+								input.close();
+							}
+						}
+					}
+					// the temporary directory can be shared with other downloaders and processes, only the holder of the lock may resume (or remove) the partial file
+					PartialDownload partial = PartialDownload.lock(new File(prepareTemporaryDirectory(), file + PartialDownload.EXTENSION));
+					try {
+						long started = System.nanoTime();
+						Result result = fetch(sources, file, partial, existing == null ? null : getConditions(file, existing));
+						if (result == Result.NOT_FOUND && sources != endpoints) {
+							logger.warn("The endpoint " + sources[0] + " published " + file + " but does not have it, trying all endpoints");
+							result = fetch(endpoints, file, partial, existing == null ? null : getConditions(file, existing));
+						}
+						metrics.record(MavenMetrics.DOWNLOAD, System.nanoTime() - started);
+						if (result == Result.NOT_FOUND) {
+							metrics.increment(MavenMetrics.NOT_FOUND, 1);
+							partial.remove();
+							return null;
+						}
+						else if (result == Result.NOT_MODIFIED) {
+							logger.debug("The file " + file + " has not been modified");
+							metrics.increment(MavenMetrics.NOT_MODIFIED, 1);
+							partial.remove();
+							return existing;
+						}
+						metrics.increment(MavenMetrics.DOWNLOADED, 1);
+						metrics.increment(MavenMetrics.DOWNLOADED_BYTES, partial.getFile().length());
+						// only verified content ever reaches the repository
+						InputStream input = new BufferedInputStream(new FileInputStream(partial.getFile()));
+						Artifact created;
+						try {
+							created = repository.create(groupId, artifactId, version, packaging, input, false);
+						}
+						finally {
+							input.close();
+						}
+						partial.remove();
+						return created;
+					}
+					// a failed download keeps its partial file (and lock file) so it can be resumed later on
+					finally {
+						partial.close();
+					}
+				}
+			});
+			future = downloads.putIfAbsent(path, task);
+			if (future == null) {
+				future = task;
+				try {
+					task.run();
+				}
+				finally {
+					// only concurrent requests are merged, a later request should check again
+					downloads.remove(path, task);
+				}
+			}
+		}
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	private Map<String, String> getConditions(String path, Artifact existing) {
+		Map<String, String> conditions = new HashMap<String, String>();
+		if (existing.getLastModified() != null) {
+			SimpleDateFormat formatter = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+			formatter.setTimeZone(TimeZone.getTimeZone("GMT"));
+			conditions.put("If-Modified-Since", formatter.format(existing.getLastModified()));
+		}
+		String etag = etags.get(path);
+		if (etag != null) {
+			conditions.put("If-None-Match", etag);
+		}
+		return conditions;
+	}
+	
+	private void setEtag(String path, URLConnection connection) {
+		String etag = connection.getHeaderField("ETag");
+		if (etag != null) {
+			etags.put(path, etag);
+		}
+	}
+	
+	private static int getResponseCode(URLConnection connection) throws IOException {
+		return connection instanceof HttpURLConnection ? ((HttpURLConnection) connection).getResponseCode() : HttpURLConnection.HTTP_OK;
+	}
+	
+	/**
+	 * The partial downloads are kept in a directory that is derived from the endpoints
+	 * The content of a partial file is determined by the remote file it is downloaded from so it stays valid across restarts and can be resumed by any downloader (or process) that uses the same endpoints
+	 */
+	private File getDefaultDirectory() {
+		return new File(new File(System.getProperty("java.io.tmpdir"), "nabu-maven-downloads"), getEndpointsId());
+	}
+	
+	/**
+	 * Identifies the set of endpoints (regardless of their order), it is stable across restarts
+	 */
+	public String getEndpointsId() {
+		if (endpointsId == null) {
+			List<String> uris = new ArrayList<String>();
+			if (endpoints != null) {
+				for (URI endpoint : endpoints) {
+					uris.add(endpoint.toString());
+				}
+			}
+			Collections.sort(uris);
+			try {
+				byte [] hash = MessageDigest.getInstance("SHA-1").digest(uris.toString().getBytes("UTF-8"));
+				endpointsId = toHex(hash).substring(0, 16);
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+			catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return endpointsId;
+	}
+	
+	/**
+	 * The first time a directory is used, the partial downloads that were abandoned in it are removed
+	 */
+	private File prepareTemporaryDirectory() {
+		final File directory = getTemporaryDirectory();
+		if (cleaned.add(directory.getAbsoluteFile())) {
+			getExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					clean(directory, System.currentTimeMillis() - maxPartialAge);
+				}
+			});
+		}
+		return directory;
+	}
+	
+	/**
+	 * Removes the partial downloads that have not been touched since the given time and that are not being worked on
+	 */
+	private void clean(File directory, long before) {
+		File [] children = directory.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				clean(child, before);
+			}
+			else if (child.getName().endsWith(PartialDownload.EXTENSION + PartialDownload.LOCK_EXTENSION) && child.lastModified() < before) {
+				String name = child.getPath();
+				File file = new File(name.substring(0, name.length() - PartialDownload.LOCK_EXTENSION.length()));
+				if (file.lastModified() < before) {
+					try {
+						PartialDownload partial = PartialDownload.tryLock(file);
+						if (partial != null) {
+							logger.info("Removing the abandoned partial download " + file);
+							partial.remove();
+						}
+					}
+					catch (IOException e) {
+						logger.warn("Could not remove the abandoned partial download " + file, e);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Downloads the file to the partial file we hold the lock of
+	 * A failed transfer leaves the partial file in place so the next attempt (or a later download) can resume it with a range request
+	 */
+	private Result fetch(URI [] sources, String path, PartialDownload partial, Map<String, String> conditions) throws IOException {
+		for (int attempt = 0; ; attempt++) {
+			try {
+				Result result = transfer(sources, path, partial, conditions);
+				if (result != Result.DOWNLOADED) {
+					partial.reset();
+				}
+				return result;
+			}
+			catch (IOException e) {
+				if (attempt >= retries) {
+					throw e;
+				}
+				logger.warn("Could not download " + path + " (attempt " + (attempt + 1) + "), retrying", e);
+			}
+		}
+	}
+	
+	/**
+	 * Streams the file from one of the given endpoints to the partial file and verifies the checksum published next to it while doing so
+	 * A partial file is only resumed if the server confirms (through the stored validator) that it still has the same content and if there is a checksum to verify the result with
+	 */
+	private Result transfer(URI [] sources, String path, PartialDownload partial, Map<String, String> conditions) throws IOException {
+		File file = partial.getFile();
+		String validator = partial.getValidator();
+		if (file.length() > 0 && validator == null) {
+			logger.debug("The partial download of " + path + " can not be validated, starting over");
+			partial.reset();
+		}
+		long offset = file.length();
+		Map<String, String> headers = new HashMap<String, String>();
+		if (conditions != null) {
+			headers.putAll(conditions);
+		}
+		if (offset > 0) {
+			headers.put("Range", "bytes=" + offset + "-");
+			// if the file changed, the server sends all of it instead of the range
+			headers.put("If-Range", validator);
+		}
+		Response response = open(sources, path, headers);
+		if (response == null) {
+			return Result.NOT_FOUND;
+		}
+		URLConnection connection = response.connection;
+		InputStream input = connection.getInputStream();
+		try {
+			int code = getResponseCode(connection);
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				return Result.NOT_MODIFIED;
+			}
+			else if (code == REQUESTED_RANGE_NOT_SATISFIABLE) {
+				partial.reset();
+				throw new IOException("The partial download of " + path + " can not be resumed");
+			}
+			boolean append = code == HttpURLConnection.HTTP_PARTIAL;
+			String range = connection.getHeaderField("Content-Range");
+			if (append && range != null && !range.trim().startsWith("bytes " + offset + "-")) {
+				partial.reset();
+				throw new IOException("The partial download of " + path + " was answered with the wrong range: " + range);
+			}
+			// we take the checksum from the endpoint that actually serves the file
+			Checksum checksum = getChecksum(connection.getURL().toString());
+			if (checksum == null) {
+				if (requireChecksum) {
+					throw new IOException("No checksum available for: " + connection.getURL());
+				}
+				logger.debug("No checksum available for " + connection.getURL() + ", it can not be verified");
+			}
+			if (append && checksum == null) {
+				logger.info("The partial download of " + path + " can not be verified, starting over");
+			}
+			else {
+				MessageDigest digest;
+				try {
+					digest = checksum == null ? null : MessageDigest.getInstance(checksum.algorithm);
+				}
+				catch (NoSuchAlgorithmException e) {
+					throw new RuntimeException(e);
+				}
+				if (append) {
+					logger.info("Resuming the download of " + path + " at " + offset + " bytes");
+					InputStream existing = new FileInputStream(file);
+					try {
+						update(digest, existing, null);
+					}
+					finally {
+						existing.close();
+					}
+				}
+				// a full response (also to a range request for a file that has changed) starts over, the validator has to be known before there is any content
+				else {
+					partial.setValidator(getValidator(connection));
+				}
+				long expected = connection.getContentLengthLong();
+				OutputStream output = new BufferedOutputStream(new FileOutputStream(file, append));
+				try {
+					long written = update(digest, input, output);
+					if (expected >= 0 && written != expected) {
+						throw new IOException("Incomplete download of " + path + ", received " + written + " of " + expected + " bytes");
+					}
+				}
+				finally {
+					output.close();
+				}
+				if (checksum != null && !checksum.value.equals(toHex(digest.digest()))) {
+					// we can not tell which part is corrupt, start over
+					partial.reset();
+					throw new IOException("The " + checksum.algorithm + " checksum of " + connection.getURL() + " does not match the published " + checksum.value);
+				}
+				setEtag(path, connection);
+				return Result.DOWNLOADED;
+			}
+		}
+		finally {
+			input.close();
+		}
+		partial.reset();
+		return transfer(sources, path, partial, conditions);
+	}
+	
+	/**
+	 * The validator that allows us to resume the content of this response, weak etags can not be used for ranges so we fall back to the last modified
+	 */
+	private static String getValidator(URLConnection connection) {
+		String etag = connection.getHeaderField("ETag");
+		if (etag != null && !etag.startsWith("W/")) {
+			return etag;
+		}
+		return connection.getHeaderField("Last-Modified");
+	}
+	
+	private static long update(MessageDigest digest, InputStream input, OutputStream output) throws IOException {
+		byte [] buffer = new byte[8192];
+		long total = 0;
+		int read = 0;
+		while ((read = input.read(buffer)) != -1) {
+			if (digest != null) {
+				digest.update(buffer, 0, read);
+			}
+			if (output != null) {
+				output.write(buffer, 0, read);
+			}
+			total += read;
+		}
+		return total;
+	}
+	
+	/**
+	 * Retrieves the strongest checksum published for the given url, returns null if there is none
+	 */
+	private Checksum getChecksum(String url) throws IOException {
+		for (String [] algorithm : new String [][] { { "sha256", "SHA-256" }, { "sha1", "SHA-1" } }) {
+			URLConnection connection;
+			try {
+				Response response = new Attempt(null, URI.create(url + "." + algorithm[0]), null, new AtomicBoolean()).call();
+				connection = response == null ? null : response.connection;
+			}
+			catch (IOException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			if (connection != null) {
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				InputStream input = connection.getInputStream();
+				try {
+					update(null, input, output);
+				}
+				finally {
+					input.close();
+				}
+				// the file can contain the file name as well, the checksum is always the first part
+				String [] parts = new String(output.toByteArray(), "ASCII").trim().split("\\s+");
+				if (parts[0].matches("[0-9a-fA-F]+")) {
+					return new Checksum(algorithm[1], parts[0].toLowerCase());
+				}
+				logger.warn("Ignoring invalid checksum file " + url + "." + algorithm[0]);
+			}
+		}
+		return null;
+	}
+	
+	private static String toHex(byte [] bytes) {
+		StringBuilder builder = new StringBuilder();
+		for (byte single : bytes) {
+			builder.append(String.format("%02x", single & 0xff));
+		}
+		return builder.toString();
+	}
+	
+	private enum Result {
+		DOWNLOADED, NOT_FOUND, NOT_MODIFIED
+	}
+	
+	private static class Checksum {
+		private String algorithm, value;
+
+		public Checksum(String algorithm, String value) {
+			this.algorithm = algorithm;
+			this.value = value;
+		}
+	}
+	
+	/**
+	 * Opens a connection to the first endpoint that successfully answers for the given path, returns null if none of them has it
+	 * If range or conditional headers are given, the caller has to check whether the response is partial or not modified
+	 * The caller is responsible for closing the input stream of the connection
+	 */
+	public URLConnection open(String path, Map<String, String> headers) throws IOException {
+		Response response = open(endpoints, path, headers);
+		return response == null ? null : response.connection;
+	}
+	
+	/**
+	 * Opens a connection to the first of the given endpoints that successfully answers, the response tells which endpoint it was
+	 */
+	private Response open(URI [] endpoints, final String path, final Map<String, String> headers) throws IOException {
+		if (endpoints == null || endpoints.length == 0) {
+			return null;
+		}
+		final AtomicBoolean done = new AtomicBoolean();
+		final CompletionService<Response> completion = new ExecutorCompletionService<Response>(getExecutor());
+		int next = 0;
+		int running = 0;
+		IOException exception = null;
+		try {
+			while (true) {
+				if (running == 0) {
+					if (next >= endpoints.length) {
+						break;
+					}
+					completion.submit(new Attempt(endpoints[next], URIUtils.getChild(endpoints[next++], path), headers, done));
+					running++;
+				}
+				Future<Response> future = next < endpoints.length ? completion.poll(hedgeDelay, TimeUnit.MILLISECONDS) : completion.take();
+				// the running attempts are taking too long, hedge with the next endpoint
+				if (future == null) {
+					logger.debug("Hedging the download of " + path + " with " + endpoints[next]);
+					completion.submit(new Attempt(endpoints[next], URIUtils.getChild(endpoints[next++], path), headers, done));
+					running++;
+					continue;
+				}
+				running--;
+				try {
+					Response response = future.get();
+					if (response != null && done.compareAndSet(false, true)) {
+						return response;
+					}
+				}
+				catch (ExecutionException e) {
+					logger.debug("Could not download " + path, e.getCause());
+					if (e.getCause() instanceof IOException) {
+						exception = (IOException) e.getCause();
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		finally {
+			done.set(true);
+			// attempts that are still running (or finished in the meantime) might hold a connection that has to be closed
+			final int remaining = running;
+			if (remaining > 0) {
+				getExecutor().execute(new Runnable() {
+					@Override
+					public void run() {
+						for (int i = 0; i < remaining; i++) {
+							try {
+								Response response = completion.take().get();
+								if (response != null) {
+									close(response.connection);
+								}
+							}
+							catch (Exception e) {
+								// already failed
+							}
+						}
+					}
+				});
+			}
+		}
+		// if no endpoint has it, it does not exist, if one of them failed we might be missing it
+		if (exception != null) {
+			logger.warn("Could not download " + path + " from any endpoint", exception);
+		}
+		return null;
+	}
+	
+	private static class Response {
+		private URI endpoint;
+		private URLConnection connection;
+		
+		public Response(URI endpoint, URLConnection connection) {
+			this.endpoint = endpoint;
+			this.connection = connection;
+		}
+	}
+	
+	private class Attempt implements Callable<Response> {
+		private URI endpoint, uri;
+		private Map<String, String> headers;
+		private AtomicBoolean done;
+
+		public Attempt(URI endpoint, URI uri, Map<String, String> headers, AtomicBoolean done) {
+			this.endpoint = endpoint;
+			this.uri = uri;
+			this.headers = headers;
+			this.done = done;
+		}
+
+		@Override
+		public Response call() throws Exception {
+			logger.debug("Try to retrieve artifact from: " + uri);
+			URLConnection connection = proxy == null ? uri.toURL().openConnection() : uri.toURL().openConnection(proxy);
+			connection.setConnectTimeout(connectTimeout);
+			connection.setReadTimeout(readTimeout);
+			if (headers != null) {
+				for (Map.Entry<String, String> header : headers.entrySet()) {
+					connection.setRequestProperty(header.getKey(), header.getValue());
+				}
+			}
+			if (connection instanceof HttpURLConnection) {
+				int code = ((HttpURLConnection) connection).getResponseCode();
+				boolean ranged = headers != null && headers.containsKey("Range");
+				boolean conditional = headers != null && (headers.containsKey("If-Modified-Since") || headers.containsKey("If-None-Match"));
+				if (code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_GONE) {
+					close(connection);
+					return null;
+				}
+				else if (code != HttpURLConnection.HTTP_OK && !(ranged && (code == HttpURLConnection.HTTP_PARTIAL || code == REQUESTED_RANGE_NOT_SATISFIABLE)) && !(conditional && code == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+					close(connection);
+					throw new IOException("Unexpected response code " + code + " for: " + uri);
+				}
+			}
+			else {
+				try {
+					connection.getInputStream();
+				}
+				catch (FileNotFoundException e) {
+					return null;
+				}
+			}
+			// someone else already won
+			if (done.get()) {
+				close(connection);
+				return null;
+			}
+			return new Response(endpoint, connection);
+		}
+	}
+	
+	/**
+	 * Closes the connection in a way that allows it to be reused: error responses are drained, the JDK itself drains small remainders of regular responses
+	 */
+	static void close(URLConnection connection) {
+		if (connection == null) {
+			return;
+		}
+		try {
+			if (connection instanceof HttpURLConnection && ((HttpURLConnection) connection).getResponseCode() >= 400) {
+				InputStream input = ((HttpURLConnection) connection).getErrorStream();
+				if (input != null) {
+					try {
+						byte [] buffer = new byte[4096];
+						while (input.read(buffer) != -1) {
+							// drain
+						}
+					}
+					finally {
+						input.close();
+					}
+				}
+			}
+			else {
+				connection.getInputStream().close();
+			}
+		}
+		catch (IOException e) {
+			// nothing to reuse
+		}
+	}
+	
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private AtomicInteger counter = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "maven-download-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	public URI[] getEndpoints() {
+		return endpoints;
+	}
+
+	public Proxy getProxy() {
+		return proxy;
+	}
+
+	public void setProxy(Proxy proxy) {
+		this.proxy = proxy;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	public MavenMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(MavenMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+
+	public void setRetries(int retries) {
+		this.retries = retries;
+	}
+
+	public boolean isRequireChecksum() {
+		return requireChecksum;
+	}
+
+	public void setRequireChecksum(boolean requireChecksum) {
+		this.requireChecksum = requireChecksum;
+	}
+
+	public File getTemporaryDirectory() {
+		return temporaryDirectory == null ? getDefaultDirectory() : temporaryDirectory;
+	}
+
+	public void setTemporaryDirectory(File temporaryDirectory) {
+		this.temporaryDirectory = temporaryDirectory;
+	}
+
+	public long getHedgeDelay() {
+		return hedgeDelay;
+	}
+
+	public void setHedgeDelay(long hedgeDelay) {
+		this.hedgeDelay = hedgeDelay;
+	}
+
+	public long getMaxPartialAge() {
+		return maxPartialAge;
+	}
+
+	public void setMaxPartialAge(long maxPartialAge) {
+		this.maxPartialAge = maxPartialAge;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A minimal class file reader that only extracts the class name, the super class and the runtime visible annotations of the class itself
+ * This allows us to decide whether a class is interesting without actually defining it in a classloader
+ */
+public class ClassFile {
+	
+	private static final int MAGIC = 0xcafebabe;
+	private static final int ACC_INTERFACE = 0x0200;
+	
+	private String name, superName;
+	private int access;
+	private Set<String> annotations = new HashSet<String>();
+	
+	/**
+	 * Parses the bytes of a class file, the names are returned in their internal form (e.g. java/lang/Object)
+	 */
+	public static ClassFile parse(byte [] bytes) throws IOException {
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (input.readInt() != MAGIC) {
+			throw new IOException("Not a class file");
+		}
+		// minor and major version
+		input.skipBytes(4);
+		int count = input.readUnsignedShort();
+		String [] utf8 = new String[count];
+		int [] classes = new int[count];
+		for (int i = 1; i < count; i++) {
+			int tag = input.readUnsignedByte();
+			switch (tag) {
+				// utf8
+				case 1: utf8[i] = input.readUTF(); break;
+				// class
+				case 7: classes[i] = input.readUnsignedShort(); break;
+				// string, method type, module, package
+				case 8: case 16: case 19: case 20: input.skipBytes(2); break;
+				// method handle
+				case 15: input.skipBytes(3); break;
+				// integer, float, field/method/interface method ref, name and type, dynamic, invoke dynamic
+				case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: input.skipBytes(4); break;
+				// long and double take up two entries
+				case 5: case 6: input.skipBytes(8); i++; break;
+				default: throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+			}
+		}
+		ClassFile classFile = new ClassFile();
+		classFile.access = input.readUnsignedShort();
+		classFile.name = utf8[classes[input.readUnsignedShort()]];
+		int superIndex = input.readUnsignedShort();
+		classFile.superName = superIndex == 0 ? null : utf8[classes[superIndex]];
+		// interfaces
+		input.skipBytes(2 * input.readUnsignedShort());
+		// fields and methods
+		for (int i = 0; i < 2; i++) {
+			int members = input.readUnsignedShort();
+			for (int j = 0; j < members; j++) {
+				input.skipBytes(6);
+				skipAttributes(input);
+			}
+		}
+		int attributes = input.readUnsignedShort();
+		for (int i = 0; i < attributes; i++) {
+			String attribute = utf8[input.readUnsignedShort()];
+			int length = input.readInt();
+			if ("RuntimeVisibleAnnotations".equals(attribute)) {
+				int amount = input.readUnsignedShort();
+				for (int j = 0; j < amount; j++) {
+					String descriptor = utf8[input.readUnsignedShort()];
+					// descriptors are of the form Ljava/lang/Deprecated;
+					if (descriptor != null && descriptor.startsWith("L") && descriptor.endsWith(";")) {
+						classFile.annotations.add(descriptor.substring(1, descriptor.length() - 1));
+					}
+					skipElementValuePairs(input);
+				}
+			}
+			else {
+				input.skipBytes(length);
+			}
+		}
+		return classFile;
+	}
+	
+	private static void skipAttributes(DataInputStream input) throws IOException {
+		int attributes = input.readUnsignedShort();
+		for (int i = 0; i < attributes; i++) {
+			input.skipBytes(2);
+			input.skipBytes(input.readInt());
+		}
+	}
+	
+	private static void skipElementValuePairs(DataInputStream input) throws IOException {
+		int pairs = input.readUnsignedShort();
+		for (int i = 0; i < pairs; i++) {
+			input.skipBytes(2);
+			skipElementValue(input);
+		}
+	}
+	
+	private static void skipElementValue(DataInputStream input) throws IOException {
+		int tag = input.readUnsignedByte();
+		switch (tag) {
+			case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 's': case 'c':
+				input.skipBytes(2);
+			break;
+			case 'e':
+				input.skipBytes(4);
+			break;
+			case '@':
+				input.skipBytes(2);
+				skipElementValuePairs(input);
+			break;
+			case '[':
+				int amount = input.readUnsignedShort();
+				for (int i = 0; i < amount; i++) {
+					skipElementValue(input);
+				}
+			break;
+			default:
+				throw new IOException("Unknown element value tag: " + (char) tag);
+		}
+	}
+	
+	public String getName() {
+		return name;
+	}
+
+	public String getSuperName() {
+		return superName;
+	}
+	
+	public boolean isInterface() {
+		return (access & ACC_INTERFACE) != 0;
+	}
+
+	public Set<String> getAnnotations() {
+		return annotations;
+	}
+}
@@ -0,0 +1,555 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.maven.api.Artifact;
+import be.nabu.libs.maven.api.WritableRepository;
+import be.nabu.libs.services.maven.pom.Pom;
+import be.nabu.libs.services.maven.pom.PomDependency;
+
+/**
+ * The resolved dependencies of an artifact: every node is an artifact, every edge a dependency as it was declared in the (effective) pom
+ * A node only depends on its own pom, exclusions and provided dependencies are applied when the graph is traversed, this means the same node can be shared by every graph it appears in
+ * Dependencies that are excluded where they are encountered are never resolved, a subgraph that misses dependencies because of exclusions declared above it is only reused where those are excluded as well and never shared
+ * Subgraphs without snapshots (or snapshot parents and boms) are immutable and kept in a global cache per repository, subgraphs with snapshots (or with dependencies that could not be resolved) are built again for every graph
+ * Dependencies that are ignored by the resolver that built a subgraph are shared as unresolved, a resolver that does not ignore them builds the subgraph again
+ * The cache of a repository is only kept as long as there are graphs using it, the nodes reference the repository through their artifacts
+ */
+public class DependencyGraph {
+	
+	private static Map<WritableRepository, WeakReference<ConcurrentHashMap<String, Node>>> cache = new WeakHashMap<WritableRepository, WeakReference<ConcurrentHashMap<String, Node>>>();
+	private static Logger logger = LoggerFactory.getLogger(DependencyGraph.class);
+	
+	/**
+	 * Returns the (effective) pom of an artifact, this allows the caller to reuse its own pom cache
+	 */
+	public interface PomProvider {
+		public Pom getPom(Artifact artifact) throws IOException, ParseException;
+	}
+	
+	private Node root;
+	/**
+	 * The resolver that built the graph, it decides which unresolved dependencies are ignored
+	 */
+	private DependencyResolver resolver;
+	/**
+	 * We keep the shared nodes of the repository alive as long as this graph is in use
+	 */
+	@SuppressWarnings("unused")
+	private ConcurrentHashMap<String, Node> shared;
+	
+	private DependencyGraph(Node root, DependencyResolver resolver, ConcurrentHashMap<String, Node> shared) {
+		this.root = root;
+		this.resolver = resolver;
+		this.shared = shared;
+	}
+	
+	/**
+	 * Builds the graph for the given artifact, the dependencies of every node are resolved concurrently (within the limits of the resolver)
+	 */
+	public static DependencyGraph build(Artifact artifact, WritableRepository repository, DependencyResolver resolver, PomProvider poms) throws IOException, ParseException {
+		ConcurrentHashMap<String, Node> shared = getCache(repository);
+		return new DependencyGraph(build(artifact, repository, resolver, poms, shared, new HashMap<String, Node>(), new HashSet<String>(), Collections.<PomDependency>emptyList()), resolver, shared);
+	}
+	
+	/**
+	 * Builds the graph like {@link #build(Artifact, WritableRepository, DependencyResolver, PomProvider)} but the dependencies are first walked one level at a time on the given executor
+	 * The poms of a level are parsed and their dependencies resolved in parallel, building the graph afterwards only hits the caches of the pom provider and the repository
+	 */
+	public static DependencyGraph build(Artifact artifact, WritableRepository repository, DependencyResolver resolver, PomProvider poms, ExecutorService executor) throws IOException, ParseException {
+		ConcurrentHashMap<String, Node> shared = getCache(repository);
+		List<Pending> level = new ArrayList<Pending>();
+		level.add(new Pending(artifact, Collections.<PomDependency>emptyList()));
+		Set<String> seen = new HashSet<String>();
+		seen.add(JarCache.getKey(artifact));
+		while (!level.isEmpty()) {
+			List<Future<List<Pending>>> futures = new ArrayList<Future<List<Pending>>>();
+			for (Pending pending : level) {
+				Node node = shared.get(JarCache.getKey(pending.artifact));
+				// the subgraph is shared, it will not be built again
+				if (node == null || !node.isResolved(resolver)) {
+					futures.add(executor.submit(new PendingTask(pending, repository, resolver, poms)));
+				}
+			}
+			List<Pending> next = new ArrayList<Pending>();
+			for (Future<List<Pending>> future : futures) {
+				try {
+					for (Pending pending : future.get()) {
+						if (seen.add(JarCache.getKey(pending.artifact))) {
+							next.add(pending);
+						}
+					}
+				}
+				catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				catch (ExecutionException e) {
+					// building the graph runs into it again and reports it
+					logger.debug("Could not resolve the dependencies of an artifact in the graph of " + artifact.getGroupId() + "/" + artifact.getArtifactId(), e.getCause());
+				}
+			}
+			level = next;
+		}
+		return build(artifact, repository, resolver, poms);
+	}
+	
+	/**
+	 * An artifact that was encountered while walking the graph and the exclusions that apply where it was encountered
+	 */
+	private static class Pending {
+		private Artifact artifact;
+		private List<PomDependency> exclusions;
+		
+		private Pending(Artifact artifact, List<PomDependency> exclusions) {
+			this.artifact = artifact;
+			this.exclusions = exclusions;
+		}
+	}
+	
+	/**
+	 * Parses the pom of an artifact and resolves the runtime dependencies that are not excluded, just like building its node would
+	 */
+	private static class PendingTask implements Callable<List<Pending>> {
+		private Pending pending;
+		private WritableRepository repository;
+		private DependencyResolver resolver;
+		private PomProvider poms;
+		
+		private PendingTask(Pending pending, WritableRepository repository, DependencyResolver resolver, PomProvider poms) {
+			this.pending = pending;
+			this.repository = repository;
+			this.resolver = resolver;
+			this.poms = poms;
+		}
+		
+		@Override
+		public List<Pending> call() throws IOException, ParseException {
+			Pom pom = poms.getPom(pending.artifact);
+			List<PomDependency> context = new ArrayList<PomDependency>(pending.exclusions);
+			context.addAll(getExclusions(pom));
+			List<PomDependency> runtime = new ArrayList<PomDependency>();
+			if (pom.getDependencies() != null && pom.getDependencies().getDependencies() != null) {
+				for (PomDependency dependency : pom.getDependencies().getDependencies()) {
+					if (isRuntime(dependency) && !MavenClassLoader.isExcluded(dependency, context)) {
+						runtime.add(dependency);
+					}
+				}
+			}
+			List<Artifact> resolved = resolver.resolve(repository, runtime);
+			List<Pending> dependencies = new ArrayList<Pending>();
+			for (int i = 0; i < runtime.size(); i++) {
+				if (resolved.get(i) != null) {
+					List<PomDependency> nested = new ArrayList<PomDependency>(context);
+					nested.addAll(getExclusions(runtime.get(i)));
+					dependencies.add(new Pending(resolved.get(i), nested));
+				}
+			}
+			return dependencies;
+		}
+	}
+	
+	private static ConcurrentHashMap<String, Node> getCache(WritableRepository repository) {
+		synchronized(cache) {
+			WeakReference<ConcurrentHashMap<String, Node>> reference = cache.get(repository);
+			ConcurrentHashMap<String, Node> nodes = reference == null ? null : reference.get();
+			if (nodes == null) {
+				nodes = new ConcurrentHashMap<String, Node>();
+				cache.put(repository, new WeakReference<ConcurrentHashMap<String, Node>>(nodes));
+			}
+			return nodes;
+		}
+	}
+	
+	/**
+	 * Drops all the shared subgraphs
+	 */
+	public static void clear() {
+		synchronized(cache) {
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * The inherited exclusions are those that apply to the artifact where it is encountered, the dependencies they exclude are not resolved
+	 */
+	private static Node build(Artifact artifact, WritableRepository repository, DependencyResolver resolver, PomProvider poms, ConcurrentHashMap<String, Node> shared, Map<String, Node> built, Set<String> path, List<PomDependency> inherited) throws IOException, ParseException {
+		String key = JarCache.getKey(artifact);
+		Node node = shared.get(key);
+		// a shared node can not be used if it lacks dependencies that we do not ignore, perhaps we can resolve them
+		if (node != null && !node.isResolved(resolver)) {
+			node = null;
+		}
+		if (node == null) {
+			node = built.get(key);
+			// a node that lacks dependencies because they were excluded where it was built, can only be used where they are excluded as well
+			if (node != null && !node.isPruned(inherited)) {
+				node = null;
+			}
+		}
+		if (node != null) {
+			return node;
+		}
+		path.add(key);
+		Pom pom = poms.getPom(artifact);
+		List<PomDependency> exclusions = getExclusions(pom);
+		List<PomDependency> context = new ArrayList<PomDependency>(inherited);
+		context.addAll(exclusions);
+		List<PomDependency> declared = pom.getDependencies() == null || pom.getDependencies().getDependencies() == null ? new ArrayList<PomDependency>() : pom.getDependencies().getDependencies();
+		List<PomDependency> runtime = new ArrayList<PomDependency>();
+		for (PomDependency dependency : declared) {
+			if (isRuntime(dependency) && !MavenClassLoader.isExcluded(dependency, context)) {
+				runtime.add(dependency);
+			}
+		}
+		// the direct dependencies are independent of one another, missing ones can be downloaded concurrently
+		List<Artifact> resolved = resolver.resolve(repository, runtime);
+		// a snapshot parent or bom can change the dependencies of a release
+		boolean shareable = !artifact.getVersion().endsWith("-SNAPSHOT") && !pom.isInheritsSnapshots();
+		List<Edge> edges = new ArrayList<Edge>();
+		Set<String> unresolved = new HashSet<String>();
+		// the dependencies in this subgraph that were not resolved because of the inherited exclusions
+		List<PomDependency> pruned = new ArrayList<PomDependency>();
+		int index = 0;
+		for (PomDependency dependency : declared) {
+			Node target = null;
+			boolean missing = false, cycle = false;
+			if (isRuntime(dependency) && MavenClassLoader.isExcluded(dependency, context)) {
+				if (!MavenClassLoader.isExcluded(dependency, exclusions)) {
+					pruned.add(dependency);
+				}
+			}
+			else if (isRuntime(dependency)) {
+				Artifact dependencyArtifact = resolved.get(index++);
+				if (dependencyArtifact == null) {
+					// optional dependencies are allowed to be missing, whether the others are ignored is decided when the graph is traversed
+					missing = dependency.getOptional() == null || !dependency.getOptional();
+					if (missing) {
+						unresolved.add(dependency.getGroupId() + "/" + dependency.getArtifactId());
+						// if we do not ignore it, it may be resolvable later on
+						shareable &= resolver.isIgnored(dependency.getGroupId(), dependency.getArtifactId());
+					}
+				}
+				else if (path.contains(JarCache.getKey(dependencyArtifact))) {
+					logger.warn("Ignoring the cyclic dependency from " + artifact.getGroupId() + "/" + artifact.getArtifactId() + " to " + dependencyArtifact.getGroupId() + "/" + dependencyArtifact.getArtifactId());
+					cycle = true;
+					shareable = false;
+				}
+				else {
+					List<PomDependency> nested = new ArrayList<PomDependency>(context);
+					List<PomDependency> declaredExclusions = getExclusions(dependency);
+					nested.addAll(declaredExclusions);
+					target = build(dependencyArtifact, repository, resolver, poms, shared, built, path, nested);
+					shareable &= target.shareable;
+					unresolved.addAll(target.unresolved);
+					// the dependencies that are excluded within this subgraph are pruned regardless of where it is used
+					List<PomDependency> own = new ArrayList<PomDependency>(exclusions);
+					own.addAll(declaredExclusions);
+					for (PomDependency prunedDependency : target.pruned) {
+						if (!MavenClassLoader.isExcluded(prunedDependency, own)) {
+							pruned.add(prunedDependency);
+						}
+					}
+				}
+			}
+			edges.add(new Edge(artifact, dependency, target, missing, cycle));
+		}
+		node = new Node(artifact, Collections.unmodifiableList(exclusions), Collections.unmodifiableList(edges), shareable, unresolved, pruned);
+		path.remove(key);
+		built.put(key, node);
+		if (node.isShared()) {
+			Node existing = shared.putIfAbsent(key, node);
+			if (existing != null) {
+				if (existing.isResolved(resolver)) {
+					node = existing;
+				}
+				else {
+					shared.replace(key, existing, node);
+				}
+			}
+		}
+		return node;
+	}
+	
+	/**
+	 * The exclusions declared at the level of the pom, they apply to all its (transitive) dependencies
+	 */
+	private static List<PomDependency> getExclusions(Pom pom) {
+		return pom.getExclusions() == null || pom.getExclusions().getExclusions() == null ? Collections.<PomDependency>emptyList() : new ArrayList<PomDependency>(pom.getExclusions().getExclusions());
+	}
+	
+	private static List<PomDependency> getExclusions(PomDependency dependency) {
+		return dependency.getExclusions() == null || dependency.getExclusions().getExclusions() == null ? Collections.<PomDependency>emptyList() : dependency.getExclusions().getExclusions();
+	}
+	
+	private static boolean isRuntime(PomDependency dependency) {
+		return dependency.getScope() == null || dependency.getScope().equals("compile") || dependency.getScope().equals("runtime");
+	}
+	
+	public Node getRoot() {
+		return root;
+	}
+	
+	/**
+	 * Returns the artifacts in the order maven would pick them: breadth first so the nearest declaration of a group/artifact wins and on the same depth the first declaration wins
+	 * Every group/artifact appears at most once, dependencies that are provided (group/artifact) or declared with a non-runtime scope at a nearer level are left out
+	 */
+	public List<Artifact> getMediatedArtifacts(Set<String> provided) {
+		return getMediatedArtifacts(provided, new ArrayList<Edge>());
+	}
+	
+	/**
+	 * Mediates the artifacts like {@link #getMediatedArtifacts(Set)}, required dependencies that could not be resolved (and are not ignored) are skipped and added to the missing list
+	 */
+	public List<Artifact> getMediatedArtifacts(Set<String> provided, List<Edge> missing) {
+		List<Artifact> artifacts = new ArrayList<Artifact>();
+		Set<String> decided = new HashSet<String>(provided);
+		decided.add(root.getKey());
+		artifacts.add(root.artifact);
+		List<Node> nodes = new ArrayList<Node>();
+		List<List<PomDependency>> nodeExclusions = new ArrayList<List<PomDependency>>();
+		nodes.add(root);
+		nodeExclusions.add(new ArrayList<PomDependency>(root.exclusions));
+		// the lists grow while we iterate over them, this makes it breadth first
+		for (int i = 0; i < nodes.size(); i++) {
+			Node node = nodes.get(i);
+			List<PomDependency> exclusions = nodeExclusions.get(i);
+			for (Edge edge : node.dependencies) {
+				if (edge.isExcluded(exclusions) || !decided.add(edge.key)) {
+					continue;
+				}
+				if (edge.isMissing() && !resolver.isIgnored(edge.getGroupId(), edge.getArtifactId())) {
+					missing.add(edge);
+				}
+				else if (edge.target != null) {
+					artifacts.add(edge.target.artifact);
+					nodes.add(edge.target);
+					List<PomDependency> nested = new ArrayList<PomDependency>(exclusions);
+					nested.addAll(edge.exclusions);
+					nested.addAll(edge.target.exclusions);
+					nodeExclusions.add(nested);
+				}
+			}
+		}
+		return artifacts;
+	}
+	
+	/**
+	 * An artifact and the dependencies it declares
+	 */
+	public static class Node {
+		private Artifact artifact;
+		private List<PomDependency> exclusions;
+		private List<Edge> dependencies;
+		private boolean shareable;
+		/**
+		 * The required dependencies (group/artifact) in this subgraph that could not be resolved
+		 */
+		private Set<String> unresolved;
+		/**
+		 * The dependencies in this subgraph that were not resolved because they were excluded where the node was built, this is always empty for shared nodes
+		 */
+		private List<PomDependency> pruned;
+		
+		private Node(Artifact artifact, List<PomDependency> exclusions, List<Edge> dependencies, boolean shareable, Set<String> unresolved, List<PomDependency> pruned) {
+			this.artifact = artifact;
+			this.exclusions = exclusions;
+			this.dependencies = dependencies;
+			this.shareable = shareable;
+			this.unresolved = unresolved.isEmpty() ? Collections.<String>emptySet() : Collections.unmodifiableSet(unresolved);
+			this.pruned = pruned.isEmpty() ? Collections.<PomDependency>emptyList() : Collections.unmodifiableList(pruned);
+		}
+		
+		/**
+		 * Whether the given exclusions exclude all the dependencies that were left out of this subgraph
+		 */
+		private boolean isPruned(List<PomDependency> exclusions) {
+			for (PomDependency dependency : pruned) {
+				if (!MavenClassLoader.isExcluded(dependency, exclusions)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Whether the given resolver ignores all the dependencies in this subgraph that could not be resolved
+		 */
+		private boolean isResolved(DependencyResolver resolver) {
+			for (String key : unresolved) {
+				int index = key.indexOf('/');
+				if (!resolver.isIgnored(key.substring(0, index), key.substring(index + 1))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public Artifact getArtifact() {
+			return artifact;
+		}
+		
+		/**
+		 * The exclusions declared at the level of the pom itself, they apply to all its (transitive) dependencies
+		 */
+		public List<PomDependency> getExclusions() {
+			return exclusions;
+		}
+
+		public List<Edge> getDependencies() {
+			return dependencies;
+		}
+		
+		/**
+		 * Whether this node (and everything below it) is shared with other graphs
+		 */
+		public boolean isShared() {
+			return shareable && pruned.isEmpty();
+		}
+		
+		String getKey() {
+			return artifact.getGroupId() + "/" + artifact.getArtifactId();
+		}
+		
+		@Override
+		public String toString() {
+			return artifact.getGroupId() + "/" + artifact.getArtifactId() + "/" + artifact.getVersion();
+		}
+	}
+	
+	/**
+	 * A dependency as it is declared, the target is only resolved for runtime dependencies
+	 */
+	public static class Edge {
+		private Artifact owner;
+		private PomDependency declaration;
+		private String key, scope;
+		private boolean optional, missing, cycle;
+		private List<PomDependency> exclusions;
+		private Node target;
+		
+		private Edge(Artifact owner, PomDependency dependency, Node target, boolean missing, boolean cycle) {
+			this.owner = owner;
+			this.declaration = new PomDependency();
+			declaration.setGroupId(dependency.getGroupId());
+			declaration.setArtifactId(dependency.getArtifactId());
+			declaration.setVersion(dependency.getVersion());
+			this.key = dependency.getGroupId() + "/" + dependency.getArtifactId();
+			this.scope = dependency.getScope();
+			this.optional = dependency.getOptional() != null && dependency.getOptional();
+			this.exclusions = dependency.getExclusions() == null || dependency.getExclusions().getExclusions() == null 
+				? Collections.<PomDependency>emptyList() 
+				: Collections.unmodifiableList(new ArrayList<PomDependency>(dependency.getExclusions().getExclusions()));
+			this.target = target;
+			this.missing = missing;
+			this.cycle = cycle;
+		}
+		
+		/**
+		 * The artifact that declares the dependency
+		 */
+		public Artifact getOwner() {
+			return owner;
+		}
+		
+		public String getGroupId() {
+			return declaration.getGroupId();
+		}
+		
+		public String getArtifactId() {
+			return declaration.getArtifactId();
+		}
+		
+		public String getVersion() {
+			return declaration.getVersion();
+		}
+		
+		/**
+		 * The group and artifact id separated by a slash
+		 */
+		public String getKey() {
+			return key;
+		}
+		
+		public String getScope() {
+			return scope;
+		}
+		
+		public boolean isRuntime() {
+			return scope == null || scope.equals("compile") || scope.equals("runtime");
+		}
+		
+		public boolean isOptional() {
+			return optional;
+		}
+		
+		/**
+		 * Whether this is a required runtime dependency that could not be resolved, this is only a problem if the resolver does not ignore it
+		 */
+		public boolean isMissing() {
+			return missing;
+		}
+		
+		/**
+		 * Whether the dependency points back to one of its owners, it is not followed
+		 */
+		public boolean isCycle() {
+			return cycle;
+		}
+		
+		public List<PomDependency> getExclusions() {
+			return exclusions;
+		}
+		
+		public boolean isExcluded(List<PomDependency> exclusions) {
+			return MavenClassLoader.isExcluded(declaration, exclusions);
+		}
+
+		/**
+		 * The resolved dependency, this is null if it is not a runtime dependency, it is excluded or it could not be resolved
+		 */
+		public Node getTarget() {
+			return target;
+		}
+		
+		@Override
+		public String toString() {
+			return key + "/" + getVersion() + (scope == null ? "" : " (" + scope + ")");
+		}
+	}
+}
@@ -21,31 +21,49 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.Proxy;
 import java.net.URI;
-import java.net.URLConnection;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
-
-import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
 
 import be.nabu.libs.maven.api.Artifact;
 import be.nabu.libs.maven.api.WritableRepository;
-import be.nabu.libs.resources.URIUtils;
 import be.nabu.libs.services.maven.pom.Pom;
 import be.nabu.libs.services.maven.pom.PomDependency;
+import be.nabu.libs.services.maven.pom.PomParser;
 
 public class DependencyResolver {
 	
-	private URI [] endpoints;
-	private Proxy proxy;
-	private List<PomDependency> updatedSnapshots = new ArrayList<PomDependency>();
+	private ArtifactDownloader downloader;
+	/**
+	 * How many dependencies are resolved (and possibly downloaded) at the same time
+	 */
+	private int parallelism = 4;
+	private ExecutorService executor;
+	private ResolutionCache cache = ResolutionCache.getInstance();
+	/**
+	 * Identifies the repositories in the snapshot checks of the (shared) resolution cache
+	 */
+	private static Map<WritableRepository, String> repositories = new WeakHashMap<WritableRepository, String>();
+	private MavenMetrics metrics = JmxMavenMetrics.getInstance();
 	private boolean updateSnapshots = true;
 	// provided artifacts (groupId:artifactId syntax)
 	private List<String> artifactsToIgnore;
@@ -53,81 +71,231 @@ public class DependencyResolver {
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	
 	public DependencyResolver(URI...endpoints) {
-		this.endpoints = endpoints;
+		this.downloader = new ArtifactDownloader(endpoints);
 	}
 	
 	public Proxy getProxy() {
-		return proxy;
+		return downloader.getProxy();
 	}
 
 	public void setProxy(Proxy proxy) {
-		this.proxy = proxy;
+		downloader.setProxy(proxy);
 	}
 
 	public static Pom parsePom(Artifact artifact) throws IOException, ParseException {
 		// we don't use XMLBinding (anymore) because it drags in way too many dependencies
 		// the pom parsing is done by the maven classloader who ideally should not depend on too many classes
-		// if there wasn't the default JAXB solution, even a tiny optimized parsing class would be better than using the XMLBinding in this case
-//		XMLBinding binding = new XMLBinding(new BeanType<Pom>(Pom.class), Charset.forName("UTF-8"));
+		// JAXB (and other XML APIs) also perform SPI lookups that can end up in the classloader that is trying to parse the pom
 		InputStream input = artifact.getPom();
 		try {
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			factory.setValidating(false);
-			factory.setNamespaceAware(false);
-			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-			// allow no external access, as defined http://docs.oracle.com/javase/7/docs/api/javax/xml/XMLConstants.html#FEATURE_SECURE_PROCESSING an empty string means no protocols are allowed
-			factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-			Document parse = factory.newDocumentBuilder().parse(input);
-			
-			JAXBContext context = JAXBContext.newInstance(Pom.class);
-			return (Pom) context.createUnmarshaller().unmarshal(parse);
-//			return TypeUtils.getAsBean(binding.unmarshal(input, new Window[0]), Pom.class);
-		}
-		catch (Exception e) {
-			throw new RuntimeException(e);
+			return PomParser.parse(input);
 		}
 		finally {
 			input.close();
 		}
 	}
 	
-	public void resolve(WritableRepository repository, Artifact artifact) throws IOException, ParseException {
-		Pom pom = parsePom(artifact);
-		if (pom.getDependencies() != null) {
-			for (PomDependency dependency : pom.getDependencies().getDependencies()) {
-				Artifact resolved = resolve(repository, dependency);
-				if (resolved == null) {
-					logger.warn("[" + artifact.getGroupId() + "::" + artifact.getArtifactId() + "] The pom dependency " + dependency.getGroupId() + "/" + dependency.getArtifactId() + " does not exist");
+	/**
+	 * Resolves the complete transitive closure of the artifact, missing artifacts (and their poms) are downloaded
+	 * The closure is walked breadth-first: as soon as the pom of an artifact is available, its dependencies are queued so independent branches are resolved in parallel (within the parallelism limit)
+	 * All direct dependencies are resolved, deeper down only the runtime dependencies that are not optional or excluded are followed
+	 */
+	public void resolve(final WritableRepository repository, Artifact artifact) throws IOException, ParseException {
+		final PomResolver pomResolver = new PomResolver(repository, this);
+		Pom pom = pomResolver.resolve(parsePom(artifact));
+		if (pom.getDependencies() == null) {
+			return;
+		}
+		Set<String> seen = new HashSet<String>();
+		ExecutorCompletionService<List<Transitive>> completion = new ExecutorCompletionService<List<Transitive>>(getExecutor());
+		int running = 0;
+		for (PomDependency dependency : pom.getDependencies().getDependencies()) {
+			if (seen.add(dependency.getGroupId() + ":" + dependency.getArtifactId() + ":" + dependency.getVersion())) {
+				completion.submit(new TransitiveTask(repository, pomResolver, new Transitive(artifact, dependency, new ArrayList<PomDependency>())));
+				running++;
+			}
+		}
+		try {
+			while (running > 0) {
+				Future<List<Transitive>> future = completion.take();
+				running--;
+				try {
+					for (Transitive transitive : future.get()) {
+						if (seen.add(transitive.dependency.getGroupId() + ":" + transitive.dependency.getArtifactId() + ":" + transitive.dependency.getVersion())) {
+							completion.submit(new TransitiveTask(repository, pomResolver, transitive));
+							running++;
+						}
+					}
+				}
+				catch (ExecutionException e) {
+					logger.warn("[" + artifact.getGroupId() + "::" + artifact.getArtifactId() + "] Could not resolve a transitive dependency", e.getCause());
 				}
 			}
 		}
+		catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
 	}
 	
-	public Artifact resolve(WritableRepository repository, PomDependency dependency) throws IOException {
-		String groupId = dependency.getGroupId().trim();
-		if (groupId.contains("${")) {
-			boolean found = false;
-			for (String group : repository.getGroups()) {
-				if (group == null) {
-					continue;
+	private static class Transitive {
+		private Artifact owner;
+		private PomDependency dependency;
+		private List<PomDependency> exclusions;
+		
+		public Transitive(Artifact owner, PomDependency dependency, List<PomDependency> exclusions) {
+			this.owner = owner;
+			this.dependency = dependency;
+			this.exclusions = exclusions;
+		}
+	}
+	
+	/**
+	 * Resolves a single dependency and returns its own dependencies that should be resolved next
+	 */
+	private class TransitiveTask implements Callable<List<Transitive>> {
+		private WritableRepository repository;
+		private PomResolver pomResolver;
+		private Transitive transitive;
+
+		public TransitiveTask(WritableRepository repository, PomResolver pomResolver, Transitive transitive) {
+			this.repository = repository;
+			this.pomResolver = pomResolver;
+			this.transitive = transitive;
+		}
+
+		@Override
+		public List<Transitive> call() throws Exception {
+			List<Transitive> next = new ArrayList<Transitive>();
+			PomDependency dependency = transitive.dependency;
+			Artifact resolved = resolve(repository, dependency);
+			if (resolved == null) {
+				if (dependency.getOptional() == null || !dependency.getOptional()) {
+					logger.warn("[" + transitive.owner.getGroupId() + "::" + transitive.owner.getArtifactId() + "] The pom dependency " + dependency.getGroupId() + "/" + dependency.getArtifactId() + " does not exist");
 				}
-				if (repository.getArtifacts(group).contains(dependency.getArtifactId())) {
-					found = true;
-					groupId = group;
-					dependency.setGroupId(groupId);
-					break;
+				return next;
+			}
+			Pom pom = pomResolver.resolve(parsePom(resolved));
+			if (pom.getDependencies() != null) {
+				List<PomDependency> exclusions = new ArrayList<PomDependency>(transitive.exclusions);
+				if (dependency.getExclusions() != null) {
+					exclusions.addAll(dependency.getExclusions().getExclusions());
+				}
+				for (PomDependency child : pom.getDependencies().getDependencies()) {
+					boolean runtime = child.getScope() == null || child.getScope().equals("compile") || child.getScope().equals("runtime");
+					boolean optional = child.getOptional() != null && child.getOptional();
+					if (runtime && !optional && !MavenClassLoader.isExcluded(child, exclusions) && !isIgnored(child.getGroupId(), child.getArtifactId())) {
+						next.add(new Transitive(resolved, child, exclusions));
+					}
 				}
 			}
-			if (!found && dependency.getOptional() != null && dependency.getOptional()) {
-				return null;
+			return next;
+		}
+	}
+	
+	/**
+	 * Returns the pom artifact (e.g. a parent or bom), downloading it if necessary, returns null if it can not be found
+	 */
+	public Artifact resolvePom(WritableRepository repository, String groupId, String artifactId, String version) throws IOException {
+		Artifact artifact = repository.getArtifact(groupId, artifactId, version, false);
+		String key = getMissingKey(groupId + ":" + artifactId + ":" + version + ":pom");
+		if (artifact == null && !cache.isMissing(key)) {
+			logger.info("Downloading the pom " + groupId + "/" + artifactId + "/" + version);
+			try {
+				artifact = downloader.download(repository, groupId, artifactId, version, "pom");
 			}
+			catch (IOException e) {
+				logger.error("Could not download the pom " + groupId + "/" + artifactId + "/" + version, e);
+			}
+			if (artifact == null) {
+				cache.setMissing(key);
+			}
+		}
+		return artifact;
+	}
+	
+	/**
+	 * Resolves the dependencies concurrently (within the parallelism limit), the result is in the same order as the dependencies
+	 */
+	public List<Artifact> resolve(final WritableRepository repository, List<PomDependency> dependencies) throws IOException {
+		List<Artifact> artifacts = new ArrayList<Artifact>();
+		if (parallelism <= 1 || dependencies.size() <= 1) {
+			for (PomDependency dependency : dependencies) {
+				artifacts.add(resolve(repository, dependency));
+			}
+			return artifacts;
+		}
+		List<Future<Artifact>> futures = new ArrayList<Future<Artifact>>();
+		for (final PomDependency dependency : dependencies) {
+			futures.add(getExecutor().submit(new Callable<Artifact>() {
+				@Override
+				public Artifact call() throws Exception {
+					return resolve(repository, dependency);
+				}
+			}));
 		}
+		try {
+			for (Future<Artifact> future : futures) {
+				artifacts.add(future.get());
+			}
+		}
+		catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		return artifacts;
+	}
+	
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(Math.max(1, parallelism), Math.max(1, parallelism), 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private AtomicInteger counter = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "maven-resolve-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			this.executor = executor;
+		}
+		return executor;
+	}
+	
+	public Artifact resolve(WritableRepository repository, PomDependency dependency) throws IOException {
+		long started = System.nanoTime();
+		try {
+			Artifact artifact = resolveDependency(repository, dependency);
+			if (artifact == null) {
+				metrics.increment(MavenMetrics.UNRESOLVED, 1);
+			}
+			return artifact;
+		}
+		finally {
+			metrics.record(MavenMetrics.RESOLVE, System.nanoTime() - started);
+		}
+	}
+	
+	private Artifact resolveDependency(WritableRepository repository, PomDependency dependency) throws IOException {
+		// the effective pom has interpolated everything it can, an unresolved group can not be guessed reliably
+		if (dependency.getGroupId() == null || dependency.getGroupId().contains("${")) {
+			logger.warn("Can not resolve the group of the pom dependency " + dependency.getGroupId() + "/" + dependency.getArtifactId());
+			return null;
+		}
+		String groupId = dependency.getGroupId().trim();
 		Artifact current = null;
 		if (artifactsToIgnore != null && artifactsToIgnore.contains(dependency.getGroupId() + ":" + dependency.getArtifactId())) {
 			return current;
 		}
-		// sometimes the version is not filled in cause it is centrally managed or it might contain a variable
+		// the version is managed or interpolated in the effective pom, it is only missing if a parent pom or property is not available
+		// we fall back to the latest version but this is unstable, hence the warning
 		if (dependency.getVersion() == null || dependency.getVersion().contains("${")) {
+			logger.warn("Can not determine the version of the pom dependency " + dependency.getGroupId() + "/" + dependency.getArtifactId() + " (" + dependency.getVersion() + "), using the latest available version");
 			SortedSet<String> versions = repository.getVersions(groupId, dependency.getArtifactId());
 			if (!versions.isEmpty()) {
 				dependency.setVersion(versions.last());
@@ -140,42 +308,74 @@ public class DependencyResolver {
 		if (current == null && dependency.getOptional() != null && dependency.getOptional()) {
 			return current;
 		}
-		// if it doesn't exist or is a snapshot, refresh
-		if (dependency.getVersion() != null && (current == null || (!updatedSnapshots.contains(dependency) && current.getVersion().endsWith("-SNAPSHOT") && updateSnapshots))) {
+		if (dependency.getVersion() == null) {
+			return current;
+		}
+		String gav = groupId + ":" + dependency.getArtifactId().trim() + ":" + dependency.getVersion().trim();
+		String key = getMissingKey(gav);
+		// if it doesn't exist (and we haven't recently failed to find it) or is a snapshot that is due for a check, refresh
+		if ((current == null && !cache.isMissing(key)) || (current != null && current.getVersion().endsWith("-SNAPSHOT") && updateSnapshots && cache.claimUpdate(getUpdateKey(repository, gav)))) {
 			if (current == null) {
 				logger.info("The pom dependency " + dependency.getGroupId() + "/" + dependency.getArtifactId() + " does not exist");
 			}
 			else {
 				logger.info("Checking for updates to the snapshot " + dependency.getGroupId() + "/" + dependency.getArtifactId());
 			}
-			// whether or not it succeeds, we don't want to try again
-			updatedSnapshots.add(dependency);
-			for (URI endpoint : endpoints) {
-				// path to the artifact
-				String path = groupId.replace('.', '/') + "/" + dependency.getArtifactId().trim() + "/" + dependency.getVersion().trim();
-				// path with the artifact
-				path += "/" + dependency.getArtifactId() + "-" + dependency.getVersion() + ".jar";
-				URI child = URIUtils.getChild(endpoint, path);
-				logger.info("Try to retrieve artifact from: " + child);
-				try {
-					URLConnection connection = getProxy() == null ? child.toURL().openConnection() : child.toURL().openConnection(getProxy());
-					InputStream input = connection.getInputStream();
-					try {
-						current = repository.create(groupId, dependency.getArtifactId().trim(), dependency.getVersion().trim(), "jar", input, false);
-						break;
-					}
-					finally {
-						input.close();
+			try {
+				// for an existing snapshot, this only transfers the jar if it actually changed
+				Artifact downloaded = downloader.download(repository, groupId, dependency.getArtifactId().trim(), dependency.getVersion().trim(), "jar", current);
+				if (downloaded != null) {
+					// the pom is needed to resolve the transitive dependencies accurately
+					if (downloaded != current) {
+						try {
+							downloader.download(repository, groupId, dependency.getArtifactId().trim(), dependency.getVersion().trim(), "pom");
+						}
+						catch (IOException e) {
+							logger.warn("Could not download the pom of " + dependency.getGroupId() + "/" + dependency.getArtifactId() + "/" + dependency.getVersion(), e);
+						}
 					}
+					current = downloaded;
+					cache.setFound(key);
+				}
+				else if (current == null) {
+					cache.setMissing(key);
 				}
-				catch (Exception e) {
-					// ignore, we will try another endpoint
+			}
+			catch (IOException e) {
+				// a failed (or unverifiable) download should not break an existing snapshot
+				logger.error("Could not download " + dependency.getGroupId() + "/" + dependency.getArtifactId() + "/" + dependency.getVersion(), e);
+				if (current == null) {
+					cache.setMissing(key);
 				}
 			}
 		}
 		return current;
 	}
 
+	/**
+	 * The resolution cache can be shared by resolvers with different endpoints, whether an artifact is missing depends on the endpoints we ask
+	 * The repository is always checked before the cache so it does not matter which repository did the lookup
+	 */
+	private String getMissingKey(String gav) {
+		return downloader.getEndpointsId() + "/" + gav;
+	}
+	
+	/**
+	 * A snapshot check updates the copy in one repository so the check is claimed for that repository only
+	 * Repositories have no identity that survives a restart, after a restart every snapshot is checked once
+	 */
+	private String getUpdateKey(WritableRepository repository, String gav) {
+		String id;
+		synchronized(repositories) {
+			id = repositories.get(repository);
+			if (id == null) {
+				id = UUID.randomUUID().toString();
+				repositories.put(repository, id);
+			}
+		}
+		return downloader.getEndpointsId() + "/" + id + "/" + gav;
+	}
+
 	public boolean isUpdateSnapshots() {
 		return updateSnapshots;
 	}
@@ -192,6 +392,43 @@ public class DependencyResolver {
 		this.artifactsToIgnore = artifactsToIgnore;
 	}
 	
+	public ResolutionCache getCache() {
+		return cache;
+	}
+
+	public void setCache(ResolutionCache cache) {
+		this.cache = cache;
+	}
+
+	public ArtifactDownloader getDownloader() {
+		return downloader;
+	}
+
+	public void setDownloader(ArtifactDownloader downloader) {
+		this.downloader = downloader;
+	}
+
+	public MavenMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(MavenMetrics metrics) {
+		this.metrics = metrics;
+		downloader.setMetrics(metrics);
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public synchronized void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
 	public boolean isIgnored(String groupId, String artifactId) {
 		return artifactsToIgnore != null && (artifactsToIgnore.contains(groupId) || artifactsToIgnore.contains(groupId + ":" + artifactId));
 	}
@@ -0,0 +1,32 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.File;
+
+import be.nabu.libs.maven.api.Artifact;
+
+/**
+ * Artifacts that are stored as a plain file can expose it, this allows the classloader to map the file instead of streaming it
+ * The file must be replaced rather than rewritten in place while it is in use, otherwise the mapping can crash the virtual machine
+ * Artifacts that do not implement this interface can still be recognized as file based by registering an adapter, see {@link FileArtifacts}
+ */
+public interface FileArtifact extends Artifact {
+	public File getFile();
+}
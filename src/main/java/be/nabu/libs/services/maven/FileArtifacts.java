@@ -0,0 +1,91 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.services.maven;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import be.nabu.libs.maven.api.Artifact;
+
+/**
+ * Determines the file that backs an artifact, if there is one
+ * Artifacts can implement {@link FileArtifact}, the artifacts of repositories that do not know about that interface can be supported by registering an adapter
+ */
+public class FileArtifacts {
+	
+	/**
+	 * Gets to the file of artifacts that do not implement {@link FileArtifact}, e.g. those of a particular repository
+	 */
+	public interface FileAdapter {
+		/**
+		 * Returns the file backing the artifact or null if it is not an artifact this adapter knows about
+		 */
+		public File getFile(Artifact artifact);
+		/**
+		 * Whether the files are always replaced (e.g. moved into place) and never rewritten while they are in use, only then they can be mapped in memory
+		 */
+		public boolean isReplacedAtomically();
+	}
+	
+	private static List<FileAdapter> adapters = new CopyOnWriteArrayList<FileAdapter>();
+	
+	public static void register(FileAdapter adapter) {
+		adapters.add(adapter);
+	}
+	
+	public static void unregister(FileAdapter adapter) {
+		adapters.remove(adapter);
+	}
+	
+	/**
+	 * Returns the file backing the artifact or null if it is not stored as a (regular) file
+	 */
+	public static File getFile(Artifact artifact) {
+		if (artifact instanceof FileArtifact) {
+			return toFile(((FileArtifact) artifact).getFile());
+		}
+		for (FileAdapter adapter : adapters) {
+			File file = adapter.getFile(artifact);
+			if (file != null) {
+				return toFile(file);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Whether the file backing the artifact can be mapped in memory: a file that is truncated or rewritten while it is mapped can crash the virtual machine
+	 * This is only the case for artifacts that implement {@link FileArtifact} (which requires it) and for adapters that guarantee it
+	 */
+	public static boolean isMappable(Artifact artifact) {
+		if (artifact instanceof FileArtifact) {
+			return true;
+		}
+		for (FileAdapter adapter : adapters) {
+			if (adapter.getFile(artifact) != null) {
+				return adapter.isReplacedAtomically();
+			}
+		}
+		return false;
+	}
+	
+	private static File toFile(File file) {
+		return file != null && file.isFile() ? file : null;
+	}
+}
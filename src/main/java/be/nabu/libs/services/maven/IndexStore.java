@@ -0,0 +1,379 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.maven.api.Artifact;
+import be.nabu.libs.services.maven.pom.Pom;
+import be.nabu.libs.services.maven.pom.PomArtifact;
+import be.nabu.libs.services.maven.pom.PomDependencies;
+import be.nabu.libs.services.maven.pom.PomDependency;
+import be.nabu.libs.services.maven.pom.PomDependencyManagement;
+import be.nabu.libs.services.maven.pom.PomExclusions;
+
+/**
+ * Persists the information we derive from an artifact (the entry names, the parsed pom and the resolved dependencies) so it can be reused after a restart
+ * There is one binary file per artifact, it is only used if the artifact has not been modified since it was written
+ */
+public class IndexStore {
+	
+	private static final int MAGIC = 0x4e414255;
+	/**
+	 * Increase this if the format or the pom model changes, older files will simply be ignored
+	 */
+	private static final int FORMAT = 4;
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	
+	private File directory;
+	private ConcurrentHashMap<String, StoredIndex> indexes = new ConcurrentHashMap<String, StoredIndex>();
+	
+	public IndexStore(File directory) {
+		this.directory = directory;
+	}
+	
+	public Set<String> getEntries(Artifact artifact) {
+		return getIndex(artifact).entries;
+	}
+	
+	public void setEntries(Artifact artifact, Set<String> entries) {
+		StoredIndex index = getIndex(artifact);
+		synchronized(index) {
+			index.entries = entries;
+			write(artifact, index);
+		}
+	}
+	
+	/**
+	 * Returns a new copy of the stored pom, the caller is free to modify it
+	 */
+	public Pom getPom(Artifact artifact) throws IOException {
+		byte[] pom = getIndex(artifact).pom;
+		return pom == null ? null : readPom(new DataInputStream(new ByteArrayInputStream(pom)));
+	}
+	
+	public void setPom(Artifact artifact, Pom pom) throws IOException {
+		// we serialize it immediately as the pom instance itself may be modified afterwards (e.g. when resolving versions)
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		writePom(output, pom);
+		output.close();
+		StoredIndex index = getIndex(artifact);
+		synchronized(index) {
+			index.pom = bytes.toByteArray();
+			write(artifact, index);
+		}
+	}
+	
+	/**
+	 * The classpath is stored as the keys of the artifacts so the caller can check that none of them have changed
+	 * It is only valid for the same set of provided artifacts and the same artifacts ignored by the resolver
+	 */
+	public List<String> getClasspath(Artifact artifact, Collection<String> provided, Collection<String> ignored) {
+		StoredIndex index = getIndex(artifact);
+		return index.classpath != null && index.provided.equals(new HashSet<String>(provided)) && index.ignored.equals(new HashSet<String>(ignored)) ? index.classpath : null;
+	}
+	
+	/**
+	 * The keys of the snapshot parents and boms that were used to resolve the stored classpath, a change to them can change the classpath
+	 */
+	public List<String> getClasspathPoms(Artifact artifact) {
+		return getIndex(artifact).poms;
+	}
+	
+	public void setClasspath(Artifact artifact, Collection<String> provided, Collection<String> ignored, List<String> classpath, Collection<String> poms) {
+		StoredIndex index = getIndex(artifact);
+		synchronized(index) {
+			index.provided = new HashSet<String>(provided);
+			index.ignored = new HashSet<String>(ignored);
+			index.poms = new ArrayList<String>(poms);
+			index.classpath = new ArrayList<String>(classpath);
+			write(artifact, index);
+		}
+	}
+	
+	public static String getKey(Artifact artifact) {
+		String key = JarCache.getKey(artifact);
+		File file = FileArtifacts.getFile(artifact);
+		if (file != null) {
+			key += "#" + file.length();
+		}
+		return key;
+	}
+	
+	private StoredIndex getIndex(Artifact artifact) {
+		String key = getKey(artifact);
+		StoredIndex index = indexes.get(key);
+		if (index == null) {
+			index = read(artifact, key);
+			StoredIndex existing = indexes.putIfAbsent(key, index);
+			if (existing != null) {
+				index = existing;
+			}
+		}
+		return index;
+	}
+	
+	private File getFile(Artifact artifact) {
+		File folder = new File(directory, artifact.getGroupId() + "/" + artifact.getArtifactId());
+		return new File(folder, artifact.getVersion() + (artifact.isTest() ? "-test" : "") + ".idx");
+	}
+	
+	private StoredIndex read(Artifact artifact, String key) {
+		StoredIndex index = new StoredIndex();
+		File file = getFile(artifact);
+		if (file.exists()) {
+			try {
+				DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try {
+					// if it was written for a different version of the artifact, we ignore it
+					if (input.readInt() != MAGIC || input.readInt() != FORMAT || !key.equals(input.readUTF())) {
+						return index;
+					}
+					if (input.readBoolean()) {
+						int amount = input.readInt();
+						index.entries = new HashSet<String>(amount);
+						for (int i = 0; i < amount; i++) {
+							index.entries.add(input.readUTF());
+						}
+					}
+					if (input.readBoolean()) {
+						index.pom = new byte[input.readInt()];
+						input.readFully(index.pom);
+					}
+					if (input.readBoolean()) {
+						index.provided = new HashSet<String>(readStrings(input));
+						index.ignored = new HashSet<String>(readStrings(input));
+						index.poms = readStrings(input);
+						index.classpath = readStrings(input);
+					}
+				}
+				finally {
+					input.close();
+				}
+			}
+			catch (Exception e) {
+				logger.warn("Could not read index " + file + ", ignoring it", e);
+				index = new StoredIndex();
+			}
+		}
+		return index;
+	}
+	
+	private void write(Artifact artifact, StoredIndex index) {
+		File file = getFile(artifact);
+		try {
+			if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+				throw new IOException("Could not create directory: " + file.getParentFile());
+			}
+			// write to a temporary file first so we never leave a partial index
+			File temporary = new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				output.writeInt(MAGIC);
+				output.writeInt(FORMAT);
+				output.writeUTF(getKey(artifact));
+				output.writeBoolean(index.entries != null);
+				if (index.entries != null) {
+					output.writeInt(index.entries.size());
+					for (String entry : index.entries) {
+						output.writeUTF(entry);
+					}
+				}
+				output.writeBoolean(index.pom != null);
+				if (index.pom != null) {
+					output.writeInt(index.pom.length);
+					output.write(index.pom);
+				}
+				output.writeBoolean(index.classpath != null);
+				if (index.classpath != null) {
+					writeStrings(output, index.provided);
+					writeStrings(output, index.ignored);
+					writeStrings(output, index.poms);
+					writeStrings(output, index.classpath);
+				}
+			}
+			finally {
+				output.close();
+			}
+			if (file.exists() && !file.delete()) {
+				throw new IOException("Could not replace index: " + file);
+			}
+			if (!temporary.renameTo(file)) {
+				throw new IOException("Could not rename index: " + temporary);
+			}
+		}
+		catch (IOException e) {
+			// the index is merely an optimization
+			logger.warn("Could not write index " + file, e);
+		}
+	}
+	
+	private static void writePom(DataOutputStream output, Pom pom) throws IOException {
+		writeArtifact(output, pom);
+		output.writeBoolean(pom.getParent() != null);
+		if (pom.getParent() != null) {
+			writeArtifact(output, pom.getParent());
+		}
+		writeDependencies(output, pom.getDependencies() == null ? null : pom.getDependencies().getDependencies());
+		writeDependencies(output, pom.getExclusions() == null ? null : pom.getExclusions().getExclusions());
+		writeDependencies(output, pom.getDependencyManagement() == null || pom.getDependencyManagement().getDependencies() == null ? null : pom.getDependencyManagement().getDependencies().getDependencies());
+		output.writeInt(pom.getProperties() == null ? -1 : pom.getProperties().size());
+		if (pom.getProperties() != null) {
+			for (Map.Entry<String, String> property : pom.getProperties().entrySet()) {
+				output.writeUTF(property.getKey());
+				writeString(output, property.getValue());
+			}
+		}
+	}
+	
+	private static Pom readPom(DataInputStream input) throws IOException {
+		Pom pom = new Pom();
+		readArtifact(input, pom);
+		if (input.readBoolean()) {
+			pom.setParent(new PomArtifact());
+			readArtifact(input, pom.getParent());
+		}
+		List<PomDependency> dependencies = readDependencies(input);
+		if (dependencies != null) {
+			pom.setDependencies(new PomDependencies());
+			pom.getDependencies().setDependencies(dependencies);
+		}
+		List<PomDependency> exclusions = readDependencies(input);
+		if (exclusions != null) {
+			pom.setExclusions(new PomExclusions());
+			pom.getExclusions().setExclusions(exclusions);
+		}
+		List<PomDependency> managed = readDependencies(input);
+		if (managed != null) {
+			pom.setDependencyManagement(new PomDependencyManagement());
+			pom.getDependencyManagement().setDependencies(new PomDependencies());
+			pom.getDependencyManagement().getDependencies().setDependencies(managed);
+		}
+		int properties = input.readInt();
+		if (properties >= 0) {
+			pom.setProperties(new LinkedHashMap<String, String>());
+			for (int i = 0; i < properties; i++) {
+				pom.getProperties().put(input.readUTF(), readString(input));
+			}
+		}
+		return pom;
+	}
+	
+	private static void writeDependencies(DataOutputStream output, List<PomDependency> dependencies) throws IOException {
+		output.writeInt(dependencies == null ? -1 : dependencies.size());
+		if (dependencies != null) {
+			for (PomDependency dependency : dependencies) {
+				writeArtifact(output, dependency);
+				writeString(output, dependency.getScope());
+				output.writeByte(dependency.getOptional() == null ? -1 : (dependency.getOptional() ? 1 : 0));
+				writeDependencies(output, dependency.getExclusions() == null ? null : dependency.getExclusions().getExclusions());
+			}
+		}
+	}
+	
+	private static List<PomDependency> readDependencies(DataInputStream input) throws IOException {
+		int amount = input.readInt();
+		if (amount < 0) {
+			return null;
+		}
+		List<PomDependency> dependencies = new ArrayList<PomDependency>(amount);
+		for (int i = 0; i < amount; i++) {
+			PomDependency dependency = new PomDependency();
+			readArtifact(input, dependency);
+			dependency.setScope(readString(input));
+			byte optional = input.readByte();
+			dependency.setOptional(optional < 0 ? null : optional == 1);
+			List<PomDependency> exclusions = readDependencies(input);
+			if (exclusions != null) {
+				dependency.setExclusions(new PomExclusions());
+				dependency.getExclusions().setExclusions(exclusions);
+			}
+			dependencies.add(dependency);
+		}
+		return dependencies;
+	}
+	
+	private static void writeArtifact(DataOutputStream output, PomArtifact artifact) throws IOException {
+		writeString(output, artifact.getGroupId());
+		writeString(output, artifact.getArtifactId());
+		writeString(output, artifact.getVersion());
+	}
+	
+	private static void readArtifact(DataInputStream input, PomArtifact artifact) throws IOException {
+		artifact.setGroupId(readString(input));
+		artifact.setArtifactId(readString(input));
+		artifact.setVersion(readString(input));
+	}
+	
+	private static void writeStrings(DataOutputStream output, Collection<String> strings) throws IOException {
+		output.writeInt(strings.size());
+		for (String string : strings) {
+			output.writeUTF(string);
+		}
+	}
+	
+	private static List<String> readStrings(DataInputStream input) throws IOException {
+		int amount = input.readInt();
+		List<String> strings = new ArrayList<String>(amount);
+		for (int i = 0; i < amount; i++) {
+			strings.add(input.readUTF());
+		}
+		return strings;
+	}
+	
+	private static void writeString(DataOutputStream output, String string) throws IOException {
+		output.writeBoolean(string != null);
+		if (string != null) {
+			output.writeUTF(string);
+		}
+	}
+	
+	private static String readString(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+	
+	private static class StoredIndex {
+		private volatile Set<String> entries;
+		private volatile byte[] pom;
+		private volatile Set<String> provided, ignored;
+		private volatile List<String> poms, classpath;
+	}
+}
@@ -0,0 +1,203 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Only indexes the entry names by reading the central directory of the zip, the actual entries are inflated on demand
+ * The compressed data is kept in the given buffer, this can be a heap buffer or a mapped file
+ * Zip64 archives are not supported, they will throw a ZipException so the caller can fall back to a full scan
+ */
+public class IndexedJarContent implements JarContent {
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int END_SIZE = 22;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	
+	private static Charset UTF8 = Charset.forName("UTF-8");
+	
+	private ByteBuffer buffer;
+	private Map<String, Entry> entries = new HashMap<String, Entry>();
+	
+	public IndexedJarContent(ByteBuffer buffer) throws ZipException {
+		this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		index();
+	}
+	
+	private void index() throws ZipException {
+		int end = findEnd();
+		int total = buffer.getShort(end + 10) & 0xffff;
+		long directorySize = buffer.getInt(end + 12) & 0xffffffffL;
+		long directoryOffset = buffer.getInt(end + 16) & 0xffffffffL;
+		if (total == 0xffff || directorySize == 0xffffffffL || directoryOffset == 0xffffffffL) {
+			throw new ZipException("Zip64 archives are not supported");
+		}
+		// if there is data prepended to the zip (e.g. self-extracting), the offsets are relative to the actual start of the zip
+		long prepended = end - directorySize - directoryOffset;
+		if (prepended < 0) {
+			throw new ZipException("Invalid central directory");
+		}
+		int position = (int) (directoryOffset + prepended);
+		for (int i = 0; i < total; i++) {
+			if (position + CENTRAL_HEADER_SIZE > buffer.limit() || buffer.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+				throw new ZipException("Invalid central directory entry at " + position);
+			}
+			int method = buffer.getShort(position + 10) & 0xffff;
+			long compressedSize = buffer.getInt(position + 20) & 0xffffffffL;
+			long size = buffer.getInt(position + 24) & 0xffffffffL;
+			int nameLength = buffer.getShort(position + 28) & 0xffff;
+			int extraLength = buffer.getShort(position + 30) & 0xffff;
+			int commentLength = buffer.getShort(position + 32) & 0xffff;
+			long offset = (buffer.getInt(position + 42) & 0xffffffffL) + prepended;
+			if (compressedSize == 0xffffffffL || size == 0xffffffffL || offset - prepended == 0xffffffffL) {
+				throw new ZipException("Zip64 archives are not supported");
+			}
+			if (method != ZipEntry.DEFLATED && method != ZipEntry.STORED) {
+				throw new ZipException("Unsupported compression method " + method);
+			}
+			// a corrupt or truncated jar must not make us read beyond the buffer
+			if ((long) position + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength > buffer.limit()) {
+				throw new ZipException("Truncated central directory entry at " + position);
+			}
+			if (offset + LOCAL_HEADER_SIZE + compressedSize > buffer.limit() || size > Integer.MAX_VALUE) {
+				throw new ZipException("Invalid entry bounds for central directory entry at " + position);
+			}
+			String name = getString(position + CENTRAL_HEADER_SIZE, nameLength);
+			if (name.startsWith("/")) {
+				name = name.substring(1);
+			}
+			entries.put(name, new Entry((int) offset, (int) compressedSize, (int) size, method));
+			position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+	}
+	
+	private int findEnd() throws ZipException {
+		// the end record is at least 22 bytes and can be followed by a comment of at most 65535 bytes
+		int minimum = Math.max(0, buffer.limit() - END_SIZE - 0xffff);
+		for (int position = buffer.limit() - END_SIZE; position >= minimum; position--) {
+			if (buffer.getInt(position) == END_SIGNATURE) {
+				return position;
+			}
+		}
+		throw new ZipException("Could not find the end of the central directory");
+	}
+	
+	private String getString(int position, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(position);
+		duplicate.get(bytes);
+		return new String(bytes, UTF8);
+	}
+	
+	@Override
+	public boolean contains(String path) {
+		return entries.containsKey(path);
+	}
+
+	@Override
+	public byte[] read(String path) throws IOException {
+		Entry entry = entries.get(path);
+		if (entry == null) {
+			return null;
+		}
+		if (buffer.getInt(entry.offset) != LOCAL_HEADER_SIGNATURE) {
+			throw new ZipException("Invalid local header for: " + path);
+		}
+		// the local header can have a different extra length than the central one
+		int start = entry.offset + LOCAL_HEADER_SIZE + (buffer.getShort(entry.offset + 26) & 0xffff) + (buffer.getShort(entry.offset + 28) & 0xffff);
+		if ((long) start + entry.compressedSize > buffer.limit()) {
+			throw new ZipException("The data for " + path + " extends beyond the end of the archive");
+		}
+		byte[] compressed = new byte[entry.compressedSize];
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(start);
+		duplicate.get(compressed);
+		if (entry.method == ZipEntry.STORED) {
+			return compressed;
+		}
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed);
+			byte[] result = new byte[entry.size];
+			int read = 0;
+			boolean padded = false;
+			while (!inflater.finished() && read < result.length) {
+				int inflated = inflater.inflate(result, read, result.length - read);
+				if (inflated == 0) {
+					// in nowrap mode the inflater may need an additional dummy byte to finish
+					if (inflater.needsInput() && !padded) {
+						inflater.setInput(new byte[1]);
+						padded = true;
+					}
+					else {
+						break;
+					}
+				}
+				read += inflated;
+			}
+			if (read != result.length) {
+				throw new ZipException("Invalid entry size for: " + path);
+			}
+			return result;
+		}
+		catch (DataFormatException e) {
+			throw new ZipException("Could not inflate " + path + ": " + e.getMessage());
+		}
+		finally {
+			inflater.end();
+		}
+	}
+
+	@Override
+	public Set<String> getEntries() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	@Override
+	public long getSize() {
+		return buffer.isDirect() ? 0 : buffer.capacity();
+	}
+	
+	private static class Entry {
+		private int offset, compressedSize, size, method;
+
+		public Entry(int offset, int compressedSize, int size, int method) {
+			this.offset = offset;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.method = method;
+		}
+	}
+}
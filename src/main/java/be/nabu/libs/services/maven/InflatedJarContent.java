@@ -0,0 +1,76 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Holds the fully decompressed content of every entry in memory
+ * This is the fastest for repeated lookups but it is very expensive memory-wise for large jars
+ */
+public class InflatedJarContent implements JarContent {
+
+	private Map<String, byte[]> files = new HashMap<String, byte[]>();
+	private long size;
+	
+	public InflatedJarContent(InputStream input) throws IOException {
+		ZipInputStream zip = new ZipInputStream(input);
+		try {
+			ZipEntry entry = null;
+			while ((entry = zip.getNextEntry()) != null) {
+				String entryName = entry.getName();
+				if (entryName.startsWith("/")) {
+					entryName = entryName.substring(1);
+				}
+				byte[] bytes = MavenClassLoader.toBytes(zip);
+				size += bytes.length;
+				files.put(entryName, bytes);
+			}
+		}
+		finally {
+			zip.close();
+		}
+	}
+	
+	@Override
+	public boolean contains(String path) {
+		return files.containsKey(path);
+	}
+
+	@Override
+	public byte[] read(String path) {
+		return files.get(path);
+	}
+
+	@Override
+	public Set<String> getEntries() {
+		return files.keySet();
+	}
+
+	@Override
+	public long getSize() {
+		return size;
+	}
+}
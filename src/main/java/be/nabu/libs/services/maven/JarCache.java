@@ -0,0 +1,275 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.maven.api.Artifact;
+
+/**
+ * A process-wide cache of jar contents that is shared by all the maven classloaders so the same jar is only indexed once
+ * Classloaders acquire the artifacts they use and release them when they are closed, unreferenced entries are evicted first
+ * When the total size exceeds the budget, the least recently used contents are dropped, they are reindexed when they are needed again
+ * Note that the content is created by whichever classloader requests it first, so its settings (e.g. index only) determine the content
+ * Entries that hold no content and are no longer referenced are removed, this includes the entries of artifacts that were replaced by a newer build
+ */
+public class JarCache {
+	
+	private static JarCache instance = new JarCache(256 * 1024 * 1024);
+	
+	static {
+		instance.setMetrics(JmxMavenMetrics.getInstance());
+	}
+	
+	public static JarCache getInstance() {
+		return instance;
+	}
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	
+	private ConcurrentHashMap<String, CacheEntry> entries = new ConcurrentHashMap<String, CacheEntry>();
+	/**
+	 * The amount of bytes we allow to be held on the heap
+	 */
+	private volatile long maxSize;
+	private AtomicLong size = new AtomicLong();
+	/**
+	 * A logical clock to keep track of the last access
+	 */
+	private AtomicLong clock = new AtomicLong();
+	private MavenMetrics metrics = JmxMavenMetrics.getInstance();
+	
+	public JarCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+	
+	/**
+	 * Registers an interest in the artifact, the returned key should be used to retrieve the content and to release it
+	 */
+	public String acquire(Artifact artifact) {
+		String key = getKey(artifact);
+		while (true) {
+			CacheEntry entry = getEntry(key);
+			synchronized(entry) {
+				// the entry was removed in the meantime, use a new one
+				if (!entry.removed) {
+					entry.references.incrementAndGet();
+					return key;
+				}
+			}
+		}
+	}
+	
+	public void release(String key) {
+		CacheEntry entry = entries.get(key);
+		if (entry != null) {
+			synchronized(entry) {
+				entry.references.decrementAndGet();
+				removeIfUnused(key, entry);
+			}
+		}
+	}
+	
+	public JarContent get(String key, Artifact artifact, MavenClassLoader loader) throws IOException {
+		CacheEntry entry = getEntry(key);
+		JarContent content = entry.content;
+		boolean grown = false;
+		while (content == null) {
+			synchronized(entry) {
+				if (entry.removed) {
+					entry = getEntry(key);
+					continue;
+				}
+				content = entry.content;
+				if (content == null) {
+					content = loader.index(artifact);
+					entry.size = content.getSize();
+					entry.content = content;
+					size.addAndGet(entry.size);
+					grown = true;
+				}
+			}
+		}
+		entry.lastAccess = clock.incrementAndGet();
+		// some content only loads its data when it is first read
+		long current = content.getSize();
+		if (!grown && current != entry.size) {
+			synchronized(entry) {
+				if (entry.content == content) {
+					size.addAndGet(current - entry.size);
+					entry.size = current;
+					grown = true;
+				}
+			}
+		}
+		if (grown && size.get() > maxSize) {
+			evict(entry);
+		}
+		return content;
+	}
+	
+	/**
+	 * Returns the content if it is currently held, without loading it or counting it as an access
+	 */
+	public JarContent peek(String key) {
+		CacheEntry entry = entries.get(key);
+		return entry == null ? null : entry.content;
+	}
+	
+	private CacheEntry getEntry(String key) {
+		CacheEntry entry = entries.get(key);
+		if (entry == null) {
+			entry = new CacheEntry();
+			CacheEntry existing = entries.putIfAbsent(key, entry);
+			if (existing != null) {
+				entry = existing;
+			}
+		}
+		return entry;
+	}
+	
+	private synchronized void evict(CacheEntry current) {
+		List<Map.Entry<String, CacheEntry>> candidates = new ArrayList<Map.Entry<String, CacheEntry>>();
+		for (Map.Entry<String, CacheEntry> entry : entries.entrySet()) {
+			if (entry.getValue() != current && entry.getValue().content != null) {
+				candidates.add(entry);
+			}
+		}
+		// unreferenced entries go first, then the least recently used ones
+		Collections.sort(candidates, new Comparator<Map.Entry<String, CacheEntry>>() {
+			@Override
+			public int compare(Map.Entry<String, CacheEntry> o1, Map.Entry<String, CacheEntry> o2) {
+				boolean referenced1 = o1.getValue().references.get() > 0;
+				boolean referenced2 = o2.getValue().references.get() > 0;
+				if (referenced1 != referenced2) {
+					return referenced1 ? 1 : -1;
+				}
+				return Long.compare(o1.getValue().lastAccess, o2.getValue().lastAccess);
+			}
+		});
+		for (Map.Entry<String, CacheEntry> candidate : candidates) {
+			if (size.get() <= maxSize) {
+				break;
+			}
+			CacheEntry entry = candidate.getValue();
+			synchronized(entry) {
+				if (entry.content != null) {
+					logger.debug("Evicting jar content for " + candidate.getKey() + " (" + entry.size + " bytes)");
+					entry.content = null;
+					size.addAndGet(-entry.size);
+					metrics.increment(MavenMetrics.JAR_CACHE_EVICTIONS, 1);
+					removeIfUnused(candidate.getKey(), entry);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Drops all the content, referenced or not
+	 */
+	public synchronized void clear() {
+		for (Map.Entry<String, CacheEntry> entry : entries.entrySet()) {
+			synchronized(entry.getValue()) {
+				if (entry.getValue().content != null) {
+					entry.getValue().content = null;
+					size.addAndGet(-entry.getValue().size);
+				}
+				removeIfUnused(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Removes an entry that holds no content and is not referenced, the caller must hold the lock on the entry
+	 */
+	private void removeIfUnused(String key, CacheEntry entry) {
+		if (entry.content == null && entry.references.get() <= 0) {
+			entry.removed = true;
+			entries.remove(key, entry);
+		}
+	}
+	
+	public static String getKey(Artifact artifact) {
+		return artifact.getGroupId() + "/" + artifact.getArtifactId() + "/" + artifact.getVersion() 
+			+ (artifact.isTest() ? "/test" : "")
+			+ "@" + (artifact.getLastModified() == null ? 0 : artifact.getLastModified().getTime());
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+	
+	public MavenMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics and registers the size of this cache with them
+	 */
+	public void setMetrics(MavenMetrics metrics) {
+		this.metrics = metrics;
+		metrics.gauge(MavenMetrics.JAR_CACHE_SIZE, new Callable<Long>() {
+			@Override
+			public Long call() {
+				return getSize();
+			}
+		});
+	}
+
+	/**
+	 * The amount of bytes currently held on the heap
+	 */
+	public long getSize() {
+		return size.get();
+	}
+	
+	/**
+	 * The amount of artifacts that are either held or referenced
+	 */
+	public int getEntryCount() {
+		return entries.size();
+	}
+	
+	private static class CacheEntry {
+		private volatile JarContent content;
+		private volatile long lastAccess;
+		private long size;
+		private AtomicInteger references = new AtomicInteger();
+		/**
+		 * Set when the entry is removed from the cache, it can no longer be used
+		 */
+		private boolean removed;
+	}
+}
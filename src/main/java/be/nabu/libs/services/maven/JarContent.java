@@ -0,0 +1,44 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * The content of a zipped artifact (jar, bundle,...) as it is seen by the classloader
+ */
+public interface JarContent {
+	/**
+	 * Whether or not the given entry exists
+	 */
+	public boolean contains(String path);
+	/**
+	 * Returns the uncompressed content of the entry or null if it does not exist
+	 */
+	public byte[] read(String path) throws IOException;
+	/**
+	 * All the entry names, without leading slash
+	 */
+	public Set<String> getEntries();
+	/**
+	 * The amount of bytes this content holds on the heap
+	 */
+	public long getSize();
+}
@@ -0,0 +1,257 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the metrics in memory and exposes them as attributes of an MBean
+ * Counters and gauges are exposed by their name, timers as [name].count, [name].totalMs, [name].maxMs, [name].p50Ms and [name].p99Ms
+ * The timers are histograms with power of two buckets so the percentiles are an upper bound that is at most twice the actual value
+ */
+public class JmxMavenMetrics implements MavenMetrics, DynamicMBean {
+	
+	public static final String OBJECT_NAME = "be.nabu.libs.services.maven:type=Metrics";
+	
+	private static JmxMavenMetrics instance;
+	
+	/**
+	 * The shared instance, it is registered with the platform MBean server when it is first requested
+	 */
+	public static synchronized JmxMavenMetrics getInstance() {
+		if (instance == null) {
+			instance = new JmxMavenMetrics();
+			try {
+				ObjectName name = new ObjectName(OBJECT_NAME);
+				if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+					ManagementFactory.getPlatformMBeanServer().registerMBean(instance, name);
+				}
+			}
+			catch (Exception e) {
+				instance.logger.warn("Could not register the maven metrics with JMX", e);
+			}
+		}
+		return instance;
+	}
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private ConcurrentHashMap<String, Histogram> timers = new ConcurrentHashMap<String, Histogram>();
+	private ConcurrentHashMap<String, Callable<Long>> gauges = new ConcurrentHashMap<String, Callable<Long>>();
+	
+	@Override
+	public void increment(String counter, long amount) {
+		AtomicLong value = counters.get(counter);
+		if (value == null) {
+			value = new AtomicLong();
+			AtomicLong existing = counters.putIfAbsent(counter, value);
+			if (existing != null) {
+				value = existing;
+			}
+		}
+		value.addAndGet(amount);
+	}
+
+	@Override
+	public void record(String timer, long nanos) {
+		Histogram histogram = timers.get(timer);
+		if (histogram == null) {
+			histogram = new Histogram();
+			Histogram existing = timers.putIfAbsent(timer, histogram);
+			if (existing != null) {
+				histogram = existing;
+			}
+		}
+		histogram.record(nanos);
+	}
+
+	@Override
+	public void gauge(String name, Callable<Long> value) {
+		gauges.put(name, value);
+	}
+	
+	public long getCounter(String name) {
+		AtomicLong value = counters.get(name);
+		return value == null ? 0 : value.get();
+	}
+	
+	/**
+	 * How many durations were recorded for the timer
+	 */
+	public long getCount(String timer) {
+		Histogram histogram = timers.get(timer);
+		return histogram == null ? 0 : histogram.count.get();
+	}
+	
+	/**
+	 * Resets the counters and timers, the gauges remain registered
+	 */
+	public void reset() {
+		counters.clear();
+		timers.clear();
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException, MBeanException, ReflectionException {
+		if (counters.containsKey(attribute)) {
+			return counters.get(attribute).get();
+		}
+		else if (gauges.containsKey(attribute)) {
+			try {
+				return gauges.get(attribute).call();
+			}
+			catch (Exception e) {
+				throw new MBeanException(e);
+			}
+		}
+		int index = attribute.lastIndexOf('.');
+		Histogram histogram = index < 0 ? null : timers.get(attribute.substring(0, index));
+		if (histogram != null) {
+			String statistic = attribute.substring(index + 1);
+			if (statistic.equals("count")) {
+				return histogram.count.get();
+			}
+			else if (statistic.equals("totalMs")) {
+				return toMillis(histogram.total.get());
+			}
+			else if (statistic.equals("maxMs")) {
+				return toMillis(histogram.max.get());
+			}
+			else if (statistic.equals("p50Ms")) {
+				return toMillis(histogram.getPercentile(0.5));
+			}
+			else if (statistic.equals("p99Ms")) {
+				return toMillis(histogram.getPercentile(0.99));
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+	
+	private static double toMillis(long nanos) {
+		return nanos / 1000000d;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("The metrics are read only: " + attribute.getName());
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			}
+			catch (Exception e) {
+				// attributes that can not be read are left out, as the contract prescribes
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException, ReflectionException {
+		if (actionName.equals("reset") && (params == null || params.length == 0)) {
+			reset();
+			return null;
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (String name : new TreeSet<String>(counters.keySet())) {
+			attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), "Counter", true, false, false));
+		}
+		for (String name : new TreeSet<String>(gauges.keySet())) {
+			attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), "Gauge", true, false, false));
+		}
+		for (String name : new TreeSet<String>(timers.keySet())) {
+			attributes.add(new MBeanAttributeInfo(name + ".count", Long.class.getName(), "Amount of recorded durations", true, false, false));
+			for (String statistic : new String [] { "totalMs", "maxMs", "p50Ms", "p99Ms" }) {
+				attributes.add(new MBeanAttributeInfo(name + "." + statistic, Double.class.getName(), "Duration in milliseconds", true, false, false));
+			}
+		}
+		MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Resets the counters and timers", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+		return new MBeanInfo(getClass().getName(), "Maven classloading and dependency resolution metrics", attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[] { reset }, null);
+	}
+	
+	/**
+	 * Counts the durations in buckets per power of two (in nanoseconds)
+	 */
+	private static class Histogram {
+		private AtomicLongArray buckets = new AtomicLongArray(64);
+		private AtomicLong count = new AtomicLong(), total = new AtomicLong(), max = new AtomicLong();
+		
+		public void record(long nanos) {
+			nanos = Math.max(0, nanos);
+			buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+			count.incrementAndGet();
+			total.addAndGet(nanos);
+			long current = max.get();
+			while (nanos > current && !max.compareAndSet(current, nanos)) {
+				current = max.get();
+			}
+		}
+		
+		/**
+		 * Returns the upper bound of the bucket that contains the percentile
+		 */
+		public long getPercentile(double percentile) {
+			long target = (long) Math.ceil(count.get() * percentile);
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen >= target && seen > 0) {
+					return Math.min(max.get(), i >= 62 ? Long.MAX_VALUE : (1l << (i + 1)) - 1);
+				}
+			}
+			return max.get();
+		}
+	}
+}
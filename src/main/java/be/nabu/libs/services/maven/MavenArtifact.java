@@ -17,6 +17,7 @@
 
 package be.nabu.libs.services.maven;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Annotation;
@@ -24,6 +25,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import be.nabu.libs.artifacts.LocalClassLoader;
 import be.nabu.libs.artifacts.api.ClassProvidingArtifact;
@@ -84,6 +86,13 @@ public class MavenArtifact implements ClassProvidingArtifact {
 		return new Annotation[0];
 	}
 	
+	/**
+	 * Resolves and indexes all the dependencies of this artifact in parallel
+	 */
+	public void warmUp(ExecutorService executor) throws IOException {
+		getClassLoader().warmUp(executor);
+	}
+	
 	public Map<String, be.nabu.libs.artifacts.api.Artifact> getChildren() throws IOException {
 		if (children == null) {
 			MavenScanner scanner = new MavenScanner();
@@ -100,6 +109,20 @@ public class MavenArtifact implements ClassProvidingArtifact {
 		return implementations;
 	}
 
+	/**
+	 * Generates a service manifest for this artifact and writes it next to the jar so subsequent loads do not need to scan it
+	 * This is only possible for artifacts that are stored as a file, for others the manifest can be written with {@link ServiceManifest#write(java.io.OutputStream)} and packaged in the jar
+	 */
+	public ServiceManifest exportManifest() throws IOException {
+		File sidecar = ServiceManifest.getSidecar(getArtifact());
+		if (sidecar == null) {
+			throw new IllegalStateException("The artifact " + getArtifact().getGroupId() + "/" + getArtifact().getArtifactId() + " is not stored as a file");
+		}
+		ServiceManifest manifest = new MavenScanner().generateManifest(definedTypeResolver, getClassLoader(), getArtifact());
+		manifest.write(sidecar);
+		return manifest;
+	}
+
 	@Override
 	public List<Class<?>> getImplementationsFor(Class<?> clazz) throws IOException {
 		return getImplementations().get(clazz);
@@ -17,22 +17,38 @@
 
 package be.nabu.libs.services.maven;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,23 +59,17 @@ import be.nabu.libs.maven.api.Repository;
 import be.nabu.libs.maven.api.WritableRepository;
 import be.nabu.libs.services.maven.pom.Pom;
 import be.nabu.libs.services.maven.pom.PomDependency;
+import be.nabu.utils.services.ServiceLoader2;
 
 /**
  * This classloader wraps around an artifact and allows you to look up classes/resources in it or its dependencies
  */
-public class MavenClassLoader extends LocalClassLoader {
+public class MavenClassLoader extends LocalClassLoader implements Closeable {
 	
 	static {
 		ClassLoader.registerAsParallelCapable();
 	}
 	
-	/**
-	 * This blacklists the SPI lookups performed by jaxb to parse the POMs
-	 * Otherwise we could end up in a vicious circle where the findfiles tries to parse the pom which tries to find implementations...
-	 * IMPORTANT: if this list ever changes (e.g. updates to JAXB), this might be a very hard bug to spot as you would simply start generating stack overflows
-	 */
-	private static List<String> blacklist = Arrays.asList("META-INF/services/javax.xml.bind.JAXBContext", "META-INF/services/javax.xml.parsers.SAXParserFactory");
-	
 	/**
 	 * Keep track of the repository we belong to so we can look up other artifacts
 	 */
@@ -69,213 +79,656 @@ public class MavenClassLoader extends LocalClassLoader {
 	 */
 	private Artifact mavenArtifact;
 	/**
-	 * Keeps track of the poms we have already parsed
+	 * Keeps track of the poms we have already parsed (or are parsing)
+	 */
+	private ConcurrentHashMap<Artifact, Future<Pom>> poms = new ConcurrentHashMap<Artifact, Future<Pom>>();
+	/**
+	 * Calculates the effective poms, the parent poms are shared with other classloaders
 	 */
-	private Map<Artifact, Pom> poms = new HashMap<Artifact, Pom>();
+	private PomResolver pomResolver;
+	/**
+	 * The executor used to warm up classloaders if none is given
+	 */
+	private static ExecutorService warmUpExecutor;
 	/**
 	 * Keeps track of the dependency resolver allowing us to automatically fetch non-existing dependencies
 	 */
 	private DependencyResolver dependencyResolver;
 	/**
 	 * Keeps track of the entries in the zipfiles, this allows us to quickly pinpoint classes instead of having to crawl through zips for every lookup
+	 * The content itself is shared with other classloaders through the cache, we only keep track of the keys we acquired
 	 */
-	private Map<Artifact, Map<String, byte[]>> zipFiles = new HashMap<Artifact, Map<String, byte[]>>();
+	private ConcurrentHashMap<Artifact, String> zipFiles = new ConcurrentHashMap<Artifact, String>();
+	/**
+	 * A closed classloader can still be used (e.g. its classes may still load others) but it no longer registers an interest in the jars it reads
+	 */
+	private volatile boolean closed;
+	/**
+	 * The service loaders (and the provider instances they created) for this classloader, they are kept here so they are discarded along with the classloader
+	 */
+	private ConcurrentHashMap<Class<?>, ServiceLoader2<?>> serviceLoaders = new ConcurrentHashMap<Class<?>, ServiceLoader2<?>>();
+	/**
+	 * The cache that holds the actual content of the zip files
+	 */
+	private JarCache cache = JarCache.getInstance();
+	/**
+	 * When set, we only index the entry names of a zip file and inflate entries when they are requested
+	 * Otherwise all the entries are inflated and kept in memory during the initial scan
+	 */
+	private boolean indexOnly = true;
 	
-	private Map<String, Collection<String>> filesFound = new HashMap<String, Collection<String>>();
+	/**
+	 * The files we found per requested name, lookups that can be answered with certainty by the package index (e.g. misses) are not stored
+	 * When the maximum is reached, names that have not been requested since the previous eviction are dropped first (clock style)
+	 */
+	private ConcurrentHashMap<String, FoundFiles> filesFound = new ConcurrentHashMap<String, FoundFiles>();
+	/**
+	 * The maximum amount of names we remember the files for
+	 */
+	private int maxFilesFound = 10000;
+	/**
+	 * Only one eviction sweep runs at a time, we don't lock the classloader itself as it is also used to load classes
+	 */
+	private Object evictionLock = new Object();
+	private AtomicLong fileCacheHits = new AtomicLong(), fileCacheMisses = new AtomicLong(), negativeLookups = new AtomicLong();
+	private MavenMetrics metrics = JmxMavenMetrics.getInstance();
+	/**
+	 * The files we return are identified as "[handle]/[path]" where the handle is a number we assign to the artifact
+	 * Reading a file only needs the handle table which is bounded by the amount of artifacts, not by the amount of files
+	 */
+	private ConcurrentHashMap<Artifact, Integer> handles = new ConcurrentHashMap<Artifact, Integer>();
+	private ConcurrentHashMap<Integer, Artifact> handleArtifacts = new ConcurrentHashMap<Integer, Artifact>();
+	private AtomicInteger handleCounter = new AtomicInteger();
 	
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	
+	/**
+	 * An optional persistent store that allows us to reuse the indexes from a previous run
+	 */
+	private IndexStore indexStore;
+	
 	/**
 	 * Externally provided dependencies (they will be resolvable by the parent classloader)
 	 */
-	private Set<String> provided = new HashSet<String>();
+	private Set<String> provided = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	/**
+	 * The mediated dependencies in the order they are checked, starting with our own artifact, there is only one version of every artifact
+	 */
+	private volatile List<Artifact> classpath;
+	/**
+	 * The required dependencies that could not be resolved when the classpath was built, they are reported when a lookup fails
+	 */
+	private volatile List<DependencyGraph.Edge> missing = Collections.emptyList();
+	/**
+	 * The resolved dependencies, the nodes are shared with other classloaders
+	 */
+	private volatile DependencyGraph graph;
+	/**
+	 * Maps the packages (the path up to the last slash) to the artifacts that contain entries for them, in classpath order
+	 */
+	private volatile Map<String, List<Artifact>> packages;
+	/**
+	 * Whether the index is being built, lookups that happen in the meantime (e.g. from other threads) check the classpath instead of waiting
+	 */
+	private AtomicBoolean indexing = new AtomicBoolean();
+	private volatile boolean indexFailed;
+	/**
+	 * The SPI index of our repository, we keep a reference so it is not discarded while we are in use
+	 */
+	private volatile SpiIndex spiIndex;
 	
 	public MavenClassLoader(ClassLoader parent, Repository mavenRepository, Artifact mavenArtifact, DependencyResolver dependencyResolver) {
 		super(parent);
 		this.mavenRepository = mavenRepository;
 		this.mavenArtifact = mavenArtifact;
 		this.dependencyResolver = dependencyResolver;
+		this.pomResolver = new PomResolver(mavenRepository, dependencyResolver);
 	}
 
 	@Override
 	protected Collection<String> findFiles(String fileName, boolean stopAfterFirst) {
-		if (!filesFound.containsKey(fileName)) {
-			List<String> files = new ArrayList<String>();
-			try {
-				if (hasFile(mavenArtifact, fileName)) {
-					files.add(mavenArtifact.getGroupId() + "/" + mavenArtifact.getArtifactId() + "/" + mavenArtifact.getVersion() + "/" + fileName);
-				}
+		long started = System.nanoTime();
+		try {
+			return lookupFiles(fileName);
+		}
+		finally {
+			metrics.record(MavenMetrics.FIND_FILES, System.nanoTime() - started);
+		}
+	}
+	
+	private Collection<String> lookupFiles(String fileName) {
+		FoundFiles cached = filesFound.get(fileName);
+		if (cached != null) {
+			cached.referenced = true;
+			fileCacheHits.incrementAndGet();
+			metrics.increment(MavenMetrics.FILE_CACHE_HITS, 1);
+			return cached.files;
+		}
+		fileCacheMisses.incrementAndGet();
+		metrics.increment(MavenMetrics.FILE_CACHE_MISSES, 1);
+		Map<String, List<Artifact>> packages = getPackageIndex();
+		try {
+			// the candidates are in classpath order and hold at most one version of every artifact
+			// we always check all of them so the cached result is complete regardless of whether the first request wanted all hits
+			List<Artifact> candidates;
+			if (packages != null) {
+				candidates = packages.get(getDirectory(fileName));
 			}
-			catch (IOException e) {
-				throw new RuntimeException(e);
+			// without an index (e.g. while it is being built) we check the classpath itself
+			else {
+				candidates = getClasspath();
+			}
+			Artifact found = null;
+			List<String> keys = null;
+			if (candidates != null) {
+				for (Artifact candidate : candidates) {
+					if (hasFile(candidate, fileName)) {
+						if (found == null) {
+							found = candidate;
+						}
+						else {
+							if (keys == null) {
+								keys = new ArrayList<String>();
+								keys.add(getFileKey(found, fileName));
+							}
+							keys.add(getFileKey(candidate, fileName));
+						}
+					}
+				}
 			}
-			// if we have a file from the local maven artifact (which is already cached) and we only want one hit, return it
-			if (!files.isEmpty() && stopAfterFirst) {
-				return files;
+			if (found == null) {
+				// one of the dependencies we could not resolve might have contained the file
+				List<DependencyGraph.Edge> missing = this.missing;
+				if (!missing.isEmpty()) {
+					DependencyGraph.Edge edge = missing.get(0);
+					throw new RuntimeException("Can not resolve pom dependency: " + edge.getGroupId() + "/" + edge.getArtifactId() + "/" + edge.getVersion() + " for " + edge.getOwner().getGroupId() + "/" + edge.getOwner().getArtifactId() + "/" + edge.getOwner().getVersion());
+				}
+				// the index tells us for certain that the file does not exist, there is no need to remember this
+				if (packages != null) {
+					negativeLookups.incrementAndGet();
+					metrics.increment(MavenMetrics.NEGATIVE_LOOKUPS, 1);
+					return Collections.emptyList();
+				}
+				// without an index, misses are remembered as well but they share the same empty list
+				return cacheFiles(fileName, Collections.<String>emptyList());
 			}
-			files.addAll(findFilesInDependencies(mavenArtifact, fileName, new HashSet<String>(provided), new ArrayList<PomDependency>(), stopAfterFirst));
-			synchronized(filesFound) {
-				filesFound.put(fileName, files);
+			return cacheFiles(fileName, keys == null ? Collections.singletonList(getFileKey(found, fileName)) : Collections.unmodifiableList(keys));
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		catch (ParseException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private Collection<String> cacheFiles(String fileName, Collection<String> files) {
+		if (filesFound.size() >= maxFilesFound) {
+			evictFiles();
+		}
+		FoundFiles existing = filesFound.putIfAbsent(fileName, new FoundFiles(files));
+		return existing == null ? files : existing.files;
+	}
+	
+	/**
+	 * Makes room for a quarter of the maximum: names that were requested since the previous sweep get a second chance, the others are dropped
+	 * If every name was requested, the second sweep drops them in the order of the map
+	 */
+	private void evictFiles() {
+		synchronized(evictionLock) {
+			int target = maxFilesFound * 3 / 4;
+			for (int sweep = 0; sweep < 2 && filesFound.size() > target; sweep++) {
+				Iterator<FoundFiles> iterator = filesFound.values().iterator();
+				while (filesFound.size() > target && iterator.hasNext()) {
+					FoundFiles found = iterator.next();
+					if (found.referenced) {
+						found.referenced = false;
+					}
+					else {
+						iterator.remove();
+					}
+				}
 			}
 		}
-		return filesFound.get(fileName);
+	}
+	
+	private static class FoundFiles {
+		private Collection<String> files;
+		/**
+		 * Whether the files were requested since the previous eviction sweep
+		 */
+		private volatile boolean referenced;
+		
+		public FoundFiles(Collection<String> files) {
+			this.files = files;
+		}
 	}
 
+	private String getFileKey(Artifact artifact, String path) {
+		Integer handle = handles.get(artifact);
+		if (handle == null) {
+			handle = handleCounter.getAndIncrement();
+			// make the artifact available for reading before anyone can use the handle
+			handleArtifacts.put(handle, artifact);
+			Integer existing = handles.putIfAbsent(artifact, handle);
+			if (existing != null) {
+				handleArtifacts.remove(handle);
+				handle = existing;
+			}
+		}
+		return handle + "/" + path;
+	}
+	
 	public void addProvided(String groupId, String artifactId) {
 		provided.add(groupId + "/" + artifactId);
+		// the provided dependencies influence the classpath and so the files we find
+		classpath = null;
+		packages = null;
+		filesFound.clear();
 	}
 	
-	private Collection<String> findFilesInDependencies(Artifact artifact, String path, Set<String> provided, List<PomDependency> exclusions, boolean stopAfterFirst) {
-		List<String> files = new ArrayList<String>();
-		if (blacklist.contains(path)) {
-			return files;
-		}
-		logger.trace("Check dependencies of artifact " + artifact.getGroupId() + "/" + artifact.getArtifactId() + " for path: " + path);
-		try {
-			Pom pom = poms.get(artifact);
-			if (pom == null) {
-				synchronized(poms) {
-					pom = poms.get(artifact);
-					if (pom == null) {
-						pom = DependencyResolver.parsePom(artifact);
-						poms.put(artifact, pom);
+	private static String getDirectory(String fileName) {
+		int index = fileName.lastIndexOf('/');
+		return index < 0 ? "" : fileName.substring(0, index);
+	}
+	
+	private Map<String, List<Artifact>> getPackageIndex() {
+		if (packages == null && !indexFailed && indexing.compareAndSet(false, true)) {
+			try {
+				if (packages == null) {
+					Map<String, List<Artifact>> packages = new HashMap<String, List<Artifact>>();
+					for (Artifact artifact : getClasspath()) {
+						for (String entry : getContent(artifact).getEntries()) {
+							String name = getDirectory(entry);
+							List<Artifact> artifacts = packages.get(name);
+							if (artifacts == null) {
+								artifacts = new ArrayList<Artifact>(1);
+								packages.put(name, artifacts);
+							}
+							if (artifacts.isEmpty() || artifacts.get(artifacts.size() - 1) != artifact) {
+								artifacts.add(artifact);
+							}
+						}
 					}
+					this.packages = packages;
 				}
 			}
-			logger.trace("Dependencies: " + pom.getDependencies());
-			// first look through the dependencies themselves
-			if (pom.getDependencies() != null) {
-				if (pom.getExclusions() != null && pom.getExclusions().getExclusions() != null) {
-					exclusions.addAll(pom.getExclusions().getExclusions());
+			catch (Exception e) {
+				// we fall back to checking the classpath, a problem with one of the artifacts is reported when a lookup actually reaches it
+				logger.warn("Could not index the dependencies of " + mavenArtifact.getGroupId() + "/" + mavenArtifact.getArtifactId() + ", falling back to the classpath: " + e.getMessage());
+				indexFailed = true;
+			}
+			finally {
+				indexing.set(false);
+			}
+		}
+		return packages;
+	}
+	
+	/**
+	 * Returns the dependencies of the artifact, starting with the artifact itself, in the order they are checked for resources
+	 * Version conflicts are mediated the way maven does it (the nearest declaration wins, then the first one) so each group/artifact appears only once
+	 * Required dependencies that can not be resolved are left out, lookups that do not find a file report them
+	 */
+	public List<Artifact> getClasspath() throws IOException, ParseException {
+		if (classpath == null) {
+			List<Artifact> classpath = indexStore == null ? null : restoreClasspath(indexStore.getClasspath(mavenArtifact, provided, getIgnored()), indexStore.getClasspathPoms(mavenArtifact));
+			List<DependencyGraph.Edge> missing = new ArrayList<DependencyGraph.Edge>();
+			if (classpath == null) {
+				classpath = getDependencyGraph().getMediatedArtifacts(provided, missing);
+				if (!missing.isEmpty()) {
+					logger.warn("Could not resolve the dependencies " + missing + " of " + mavenArtifact.getGroupId() + "/" + mavenArtifact.getArtifactId());
 				}
-				for (PomDependency pomDependency : pom.getDependencies().getDependencies()) {
-					if (isExcluded(pomDependency, exclusions)) {
-						logger.trace("Skipping excluded dependency: " + pomDependency.getGroupId() + "/" + pomDependency.getArtifactId());
-						continue;
+				// an incomplete classpath is not stored, the missing dependencies would no longer be reported
+				else if (indexStore != null) {
+					List<String> keys = new ArrayList<String>();
+					for (Artifact artifact : classpath) {
+						keys.add(IndexStore.getKey(artifact));
 					}
-					String key = pomDependency.getGroupId() + "/" + pomDependency.getArtifactId();
-					if (!provided.contains(key) && (pomDependency.getScope() == null || pomDependency.getScope().equals("compile") || pomDependency.getScope().equals("runtime"))) {
-						logger.trace("Checking dependency: " + pomDependency.getGroupId() + "/" + pomDependency.getArtifactId() + " for owner: " + pom.getGroupId() + "/" + pom.getArtifactId());
-						Artifact dependency = dependencyResolver.resolve((WritableRepository) mavenRepository, pomDependency);
-						if (dependency == null) {
-							if (pomDependency.getOptional() != null && pomDependency.getOptional()) {
-								continue;
-							}
-							else if (dependencyResolver.isIgnored(pomDependency.getGroupId(), pomDependency.getArtifactId())) {
-								continue;
-							}
-							throw new RuntimeException("Can not resolve pom dependency: " + pomDependency.getGroupId() + "/" + pomDependency.getArtifactId() + "/" + pomDependency.getVersion() + " for " + artifact.getGroupId() + "/" + artifact.getArtifactId() + "/" + artifact.getVersion());
-						}
-						if (hasFile(dependency, path)) {
-							// in some cases the version is null in the pom dependency declaration because it is centrally managed, we don't support this atm
-							String version = pomDependency.getVersion();
-							// if the version contains a variable, we don't resolve it atm
-							if (version == null || version.contains("${")) {
-								SortedSet<String> versions = mavenRepository.getVersions(dependency.getGroupId(), dependency.getArtifactId());
-								if (!versions.isEmpty()) {
-									version = versions.last();
-								}
-							}
-							if (version == null) {
-								throw new RuntimeException("Can not find version for pom dependency: " + dependency.getGroupId() + "/" + dependency.getArtifactId());
-							}
-							files.add(key + "/" + version + "/" + path);
+					indexStore.setClasspath(mavenArtifact, provided, getIgnored(), keys, pomResolver.getSnapshots());
+				}
+			}
+			this.missing = missing.isEmpty() ? Collections.<DependencyGraph.Edge>emptyList() : Collections.unmodifiableList(missing);
+			this.classpath = Collections.unmodifiableList(classpath);
+		}
+		return classpath;
+	}
+	
+	/**
+	 * The artifacts the resolver ignores, they determine the classpath as well
+	 */
+	private List<String> getIgnored() {
+		return dependencyResolver == null || dependencyResolver.getArtifactsToIgnore() == null ? Collections.<String>emptyList() : dependencyResolver.getArtifactsToIgnore();
+	}
+	
+	/**
+	 * A stored classpath is only valid if all the artifacts still exist and none of them (or the snapshot parents and boms they were resolved with) have changed
+	 * Restoring it bypasses the dependency resolver so the snapshots on it (apart from our own artifact) are checked for updates first, an updated snapshot invalidates it
+	 */
+	private List<Artifact> restoreClasspath(List<String> keys, List<String> poms) throws IOException {
+		if (keys == null) {
+			return null;
+		}
+		if (poms != null) {
+			for (String key : poms) {
+				String [] parts = key.substring(0, key.lastIndexOf('@')).split("/");
+				Artifact pom = parts.length == 3 ? mavenRepository.getArtifact(parts[0], parts[1], parts[2], false) : null;
+				if (pom == null || !key.equals(IndexStore.getKey(pom))) {
+					logger.debug("The stored classpath of " + mavenArtifact.getGroupId() + "/" + mavenArtifact.getArtifactId() + " is no longer valid because of the pom " + key);
+					return null;
+				}
+			}
+		}
+		List<Artifact> classpath = new ArrayList<Artifact>();
+		for (int i = 0; i < keys.size(); i++) {
+			String key = keys.get(i);
+			String [] parts = key.substring(0, key.lastIndexOf('@')).split("/");
+			if (i > 0 && parts.length == 3 && parts[2].endsWith("-SNAPSHOT") && dependencyResolver != null && dependencyResolver.isUpdateSnapshots()) {
+				PomDependency dependency = new PomDependency();
+				dependency.setGroupId(parts[0]);
+				dependency.setArtifactId(parts[1]);
+				dependency.setVersion(parts[2]);
+				dependencyResolver.resolve((WritableRepository) mavenRepository, dependency);
+			}
+			Artifact artifact = parts.length < 3 ? null : mavenRepository.getArtifact(parts[0], parts[1], parts[2], parts.length > 3);
+			if (artifact == null || !key.equals(IndexStore.getKey(artifact))) {
+				logger.debug("The stored classpath of " + mavenArtifact.getGroupId() + "/" + mavenArtifact.getArtifactId() + " is no longer valid because of " + key);
+				return null;
+			}
+			classpath.add(artifact);
+		}
+		return classpath;
+	}
+	
+	/**
+	 * The resolved dependencies of our artifact, the graph does not depend on the provided dependencies so it is only built once
+	 */
+	public DependencyGraph getDependencyGraph() throws IOException, ParseException {
+		return getDependencyGraph(null);
+	}
+	
+	/**
+	 * If an executor is given, the graph is built one level at a time on the executor
+	 */
+	private DependencyGraph getDependencyGraph(ExecutorService executor) throws IOException, ParseException {
+		if (graph == null) {
+			DependencyGraph.PomProvider poms = new DependencyGraph.PomProvider() {
+				@Override
+				public Pom getPom(Artifact artifact) throws IOException, ParseException {
+					return MavenClassLoader.this.getPom(artifact);
+				}
+			};
+			graph = executor == null
+				? DependencyGraph.build(mavenArtifact, (WritableRepository) mavenRepository, dependencyResolver, poms)
+				: DependencyGraph.build(mavenArtifact, (WritableRepository) mavenRepository, dependencyResolver, poms, executor);
+		}
+		return graph;
+	}
+	
+	private Pom getPom(final Artifact artifact) throws IOException, ParseException {
+		Future<Pom> future = poms.get(artifact);
+		if (future == null) {
+			FutureTask<Pom> task = new FutureTask<Pom>(new Callable<Pom>() {
+				@Override
+				public Pom call() throws Exception {
+					Pom pom = indexStore == null ? null : indexStore.getPom(artifact);
+					if (pom == null) {
+						long started = System.nanoTime();
+						pom = DependencyResolver.parsePom(artifact);
+						metrics.record(MavenMetrics.POM_PARSE, System.nanoTime() - started);
+						if (indexStore != null) {
+							indexStore.setPom(artifact, pom);
 						}
 					}
-					else {
-						provided.add(key);
+					// we store the pom as it was parsed, the parents may change independently
+					long started = System.nanoTime();
+					try {
+						return pomResolver.resolve(pom);
 					}
-				}
-				if (files.isEmpty() || !stopAfterFirst) {
-					// if still not found, look deeper
-					for (PomDependency pomDependency : pom.getDependencies().getDependencies()) {
-						List<PomDependency> nestedExclusions = new ArrayList<PomDependency>(exclusions);
-						if (pomDependency.getExclusions() != null && pomDependency.getExclusions().getExclusions() != null) { 
-							nestedExclusions.addAll(pomDependency.getExclusions().getExclusions());
-						}
-						if (isExcluded(pomDependency, nestedExclusions)) {
-							continue;
-						}
-						String key = pomDependency.getGroupId() + "/" + pomDependency.getArtifactId();
-						if (!provided.contains(key) && (pomDependency.getScope() == null || pomDependency.getScope().equals("compile") || pomDependency.getScope().equals("runtime"))) {
-							Artifact dependency = dependencyResolver.resolve((WritableRepository) mavenRepository, pomDependency);
-//							Artifact dependency = mavenRepository.getArtifact(pomDependency.getGroupId(), pomDependency.getArtifactId(), pomDependency.getVersion(), false);
-							if (dependency == null) {
-								if (pomDependency.getOptional() != null && pomDependency.getOptional()) {
-									continue;
-								}
-								else if (dependencyResolver.isIgnored(pomDependency.getGroupId(), pomDependency.getArtifactId())) {
-									continue;
-								}
-								throw new RuntimeException("Can not resolve pom dependency: " + pomDependency.getGroupId() + "/" + pomDependency.getArtifactId() + "/" + pomDependency.getVersion());					
-							}
-							files.addAll(findFilesInDependencies(dependency, path, provided, nestedExclusions, stopAfterFirst));
-						}
+					finally {
+						metrics.record(MavenMetrics.POM_RESOLVE, System.nanoTime() - started);
 					}
 				}
+			});
+			future = poms.putIfAbsent(artifact, task);
+			// if no one else is parsing it, we do
+			if (future == null) {
+				future = task;
+				task.run();
 			}
 		}
-		catch (IOException e) {
-			throw new RuntimeException(e);
+		try {
+			return future.get();
 		}
-		catch (ParseException e) {
+		catch (InterruptedException e) {
 			throw new RuntimeException(e);
 		}
-		return files;
+		catch (ExecutionException e) {
+			// allow a retry
+			poms.remove(artifact, future);
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			else if (e.getCause() instanceof ParseException) {
+				throw (ParseException) e.getCause();
+			}
+			else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Resolves the transitive dependencies and indexes their content in parallel using a shared executor
+	 */
+	public void warmUp() throws IOException {
+		warmUp(getWarmUpExecutor());
+	}
+	
+	/**
+	 * Resolves the transitive dependencies (one level at a time) and indexes their content in parallel on the given executor, this method blocks until everything is done
+	 * Any problems are logged, they will be reported again when a lookup actually runs into them
+	 */
+	public void warmUp(ExecutorService executor) throws IOException {
+		long started = System.currentTimeMillis();
+		List<Artifact> classpath;
+		try {
+			// unless the classpath is stored, the poms of the graph are parsed and resolved on the executor as well
+			if (this.classpath == null && (indexStore == null || indexStore.getClasspath(mavenArtifact, provided, getIgnored()) == null)) {
+				getDependencyGraph(executor);
+			}
+			classpath = getClasspath();
+		}
+		catch (Exception e) {
+			logger.warn("Could not resolve the dependencies of " + mavenArtifact.getGroupId() + "/" + mavenArtifact.getArtifactId(), e);
+			return;
+		}
+		List<Future<JarContent>> pending = new ArrayList<Future<JarContent>>();
+		for (final Artifact artifact : classpath) {
+			pending.add(executor.submit(new Callable<JarContent>() {
+				@Override
+				public JarContent call() throws Exception {
+					return getContent(artifact);
+				}
+			}));
+		}
+		for (Future<JarContent> future : pending) {
+			try {
+				future.get();
+			}
+			catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			catch (ExecutionException e) {
+				logger.warn("Could not warm up a dependency of " + mavenArtifact.getGroupId() + "/" + mavenArtifact.getArtifactId(), e.getCause());
+			}
+		}
+		// everything should be cached now, so this is cheap
+		getPackageIndex();
+		logger.debug("Warmed up " + classpath.size() + " artifacts for " + mavenArtifact.getGroupId() + "/" + mavenArtifact.getArtifactId() + " in " + (System.currentTimeMillis() - started) + "ms");
+	}
+	
+	private static synchronized ExecutorService getWarmUpExecutor() {
+		if (warmUpExecutor == null) {
+			warmUpExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private AtomicInteger counter = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "maven-warmup-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return warmUpExecutor;
 	}
 	
 	protected boolean hasFile(Artifact artifact, String path) throws IOException {
-		boolean hasFile = false;
-		if (!zipFiles.containsKey(artifact)) {
-			synchronized(zipFiles) {
-				if (!zipFiles.containsKey(artifact)) {
-					logger.trace("Scanning zipped files from artifact " + artifact.getGroupId() + "/" + artifact.getArtifactId() + " for path: " + path);
-					Map<String, byte[]> files = new HashMap<String, byte[]>();
-					ZipInputStream zip = new ZipInputStream(artifact.getContent());
-					try {
-						ZipEntry entry = null;
-						while ((entry = zip.getNextEntry()) != null) {
-							String entryName = entry.getName();
-							if (entryName.startsWith("/")) {
-								entryName = entryName.substring(1);
-							}
-							if (entryName.equals(path)) {
-								hasFile = true;
-							}
-							files.put(entryName, toBytes(zip));
-						}
-					}
-					finally {
-						zip.close();
+		return getContent(artifact).contains(path);
+	}
+	
+	/**
+	 * Returns the (indexed) content of the artifact, scanning it if necessary
+	 */
+	public JarContent getContent(Artifact artifact) throws IOException {
+		String key = zipFiles.get(artifact);
+		if (key == null) {
+			if (closed) {
+				// nothing would release the reference, the content is simply evicted first
+				return cache.get(JarCache.getKey(artifact), artifact, this);
+			}
+			key = cache.acquire(artifact);
+			String existing = zipFiles.putIfAbsent(artifact, key);
+			// someone else beat us to it
+			if (existing != null) {
+				cache.release(key);
+				key = existing;
+			}
+			// we were closed in the meantime
+			else if (closed && zipFiles.remove(artifact, key)) {
+				cache.release(key);
+			}
+		}
+		return cache.get(key, artifact, this);
+	}
+	
+	protected JarContent index(final Artifact artifact) throws IOException {
+		if (indexStore != null) {
+			Set<String> entries = indexStore.getEntries(artifact);
+			// we know the entries from a previous run, only read the actual artifact if we need something from it
+			if (entries != null) {
+				return new StoredJarContent(entries, new Callable<JarContent>() {
+					@Override
+					public JarContent call() throws Exception {
+						return scan(artifact);
 					}
-					zipFiles.put(artifact, files);
-				}
+				});
+			}
+			JarContent content = scan(artifact);
+			indexStore.setEntries(artifact, content.getEntries());
+			return content;
+		}
+		return scan(artifact);
+	}
+	
+	private JarContent scan(Artifact artifact) throws IOException {
+		long started = System.nanoTime();
+		try {
+			return read(artifact);
+		}
+		finally {
+			metrics.record(MavenMetrics.INDEX, System.nanoTime() - started);
+		}
+	}
+	
+	private JarContent read(Artifact artifact) throws IOException {
+		logger.trace("Scanning zipped files from artifact {}/{}", artifact.getGroupId(), artifact.getArtifactId());
+		File file = indexOnly ? getFile(artifact) : null;
+		// if we have a file, we can use the central directory to jump to the entries
+		if (file != null && file.isFile() && file.length() <= Integer.MAX_VALUE) {
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				// the mapping remains valid after the channel is closed, a file that may be rewritten in place is copied instead
+				return new IndexedJarContent(isMappable(artifact) ? channel.map(MapMode.READ_ONLY, 0, channel.size()) : copy(channel));
+			}
+			catch (ZipException e) {
+				logger.debug("Could not index file " + file + ", falling back to a full scan: " + e.getMessage());
+				return new InflatedJarContent(new FileInputStream(file));
+			}
+			finally {
+				channel.close();
 			}
 		}
-		else {
-			hasFile = zipFiles.get(artifact).containsKey(path);
+		else if (indexOnly) {
+			byte[] bytes;
+			InputStream input = artifact.getContent();
+			try {
+				bytes = toBytes(input);
+			}
+			finally {
+				input.close();
+			}
+			try {
+				return new IndexedJarContent(ByteBuffer.wrap(bytes));
+			}
+			catch (ZipException e) {
+				logger.debug("Could not index artifact " + artifact.getGroupId() + "/" + artifact.getArtifactId() + ", falling back to a full scan: " + e.getMessage());
+				return new InflatedJarContent(new ByteArrayInputStream(bytes));
+			}
 		}
-		return hasFile;
+		return new InflatedJarContent(artifact.getContent());
+	}
+	
+	/**
+	 * Returns the file backing the artifact if there is one
+	 */
+	protected File getFile(Artifact artifact) {
+		return FileArtifacts.getFile(artifact);
+	}
+	
+	/**
+	 * Whether the file backing the artifact is never rewritten in place so it can be mapped in memory
+	 */
+	protected boolean isMappable(Artifact artifact) {
+		return FileArtifacts.isMappable(artifact);
+	}
+	
+	private static ByteBuffer copy(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+		while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			// keep reading
+		}
+		buffer.flip();
+		return buffer;
 	}
 	
 	@Override
 	protected byte[] readFile(String fileName) {
-		// the filename is built using the "key" we generated in the find which has the groupId/artifactId/version in it
-		String [] parts = fileName.split("/");
-		try {
-			Artifact artifact = mavenRepository.getArtifact(parts[0], parts[1], parts[2], false);
-			if (artifact == null) {
-				throw new IllegalArgumentException("The filename '" + fileName + "' does not belong to an artifact in this repository");
+		// the filename is the key we generated in the find
+		int index = fileName.indexOf('/');
+		Artifact artifact = null;
+		if (index > 0) {
+			try {
+				artifact = handleArtifacts.get(Integer.parseInt(fileName.substring(0, index)));
+			}
+			catch (NumberFormatException e) {
+				// not one of ours
 			}
-			// start after the last trailing slash of the version
-			return findFile(artifact, fileName.substring(parts[0].length() + parts[1].length() + parts[2].length() + 3));
+		}
+		if (artifact == null) {
+			throw new IllegalArgumentException("The filename '" + fileName + "' was not found by this classloader");
+		}
+		try {
+			return findFile(artifact, fileName.substring(index + 1));
 		}
 		catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
-	private boolean isExcluded(PomDependency dependency, List<PomDependency> exclusions) {
+	static boolean isExcluded(PomDependency dependency, List<PomDependency> exclusions) {
 		for (PomDependency exclusion : exclusions) {
 			if ("*".equals(exclusion.getGroupId())) {
 				return true;
@@ -312,10 +765,7 @@ public class MavenClassLoader extends LocalClassLoader {
 	}
 	
 	protected byte [] findFile(Artifact artifact, String path) throws IOException {
-		if (!zipFiles.containsKey(artifact)) {
-			throw new IOException("The artifact '" + artifact + "' has not been scanned yet");
-		}
-		return zipFiles.get(artifact).get(path);
+		return getContent(artifact).read(path);
 		
 //		logger.trace("Loading content from artifact " + artifact.getGroupId() + "/" + artifact.getArtifactId() + " for path: " + path);
 //		// actually get it
@@ -352,6 +802,142 @@ public class MavenClassLoader extends LocalClassLoader {
 		return mavenRepository;
 	}
 	
+	/**
+	 * The shared SPI index of the repository
+	 */
+	public ConcurrentHashMap<Class<?>, ServiceLoader2<?>> getServiceLoaders() {
+		return serviceLoaders;
+	}
+	
+	public SpiIndex getSpiIndex() {
+		if (spiIndex == null) {
+			spiIndex = SpiIndex.getInstance(mavenRepository);
+		}
+		return spiIndex;
+	}
+
+	/**
+	 * Releases the jars this classloader has used so they can be evicted from the shared cache
+	 * The classloader remains usable but the jars it reads afterwards are not referenced, they are evicted before the ones that are in use
+	 * The service loaders are kept: the provider instances they created may still be in use and are discarded along with the classloader
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Artifact artifact : zipFiles.keySet()) {
+			String key = zipFiles.remove(artifact);
+			if (key != null) {
+				cache.release(key);
+			}
+		}
+	}
+	
+	/**
+	 * Describes the artifacts this classloader uses in the order they are checked, the memory they take up and how the lookups went
+	 * Artifacts that have not been loaded (or were evicted from the cache) are listed without a size, they are not loaded for this
+	 */
+	public String explain() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(toString()).append("\n");
+		try {
+			List<Artifact> classpath = getClasspath();
+			builder.append("Classpath (" + classpath.size() + " artifacts, in lookup order):\n");
+			long total = 0;
+			int position = 1;
+			for (Artifact artifact : classpath) {
+				builder.append("\t" + position++ + ". " + artifact.getGroupId() + "/" + artifact.getArtifactId() + "/" + artifact.getVersion());
+				String key = zipFiles.get(artifact);
+				JarContent content = key == null ? null : cache.peek(key);
+				if (content == null) {
+					builder.append(": not loaded\n");
+				}
+				else {
+					builder.append(": " + content.getEntries().size() + " entries, " + content.getSize() + " bytes\n");
+					total += content.getSize();
+				}
+			}
+			builder.append("Loaded content: " + total + " bytes (the shared jar cache holds " + cache.getSize() + " bytes)\n");
+			if (!missing.isEmpty()) {
+				builder.append("Missing dependencies: " + missing + "\n");
+			}
+		}
+		catch (Exception e) {
+			builder.append("Could not determine the classpath: " + e.getMessage() + "\n");
+		}
+		Map<String, List<Artifact>> packages = this.packages;
+		builder.append("Package index: " + (packages == null ? (indexFailed ? "failed" : "not built") : packages.size() + " packages") + "\n");
+		builder.append("File lookups: " + fileCacheHits.get() + " cache hits, " + fileCacheMisses.get() + " cache misses, " + negativeLookups.get() + " answered as missing by the index, " + filesFound.size() + " names cached\n");
+		return builder.toString();
+	}
+	
+	public MavenMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(MavenMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public JarCache getCache() {
+		return cache;
+	}
+
+	public void setCache(JarCache cache) {
+		this.cache = cache;
+	}
+
+	public IndexStore getIndexStore() {
+		return indexStore;
+	}
+
+	public void setIndexStore(IndexStore indexStore) {
+		this.indexStore = indexStore;
+	}
+
+	public int getMaxFilesFound() {
+		return maxFilesFound;
+	}
+
+	public void setMaxFilesFound(int maxFilesFound) {
+		this.maxFilesFound = maxFilesFound;
+	}
+	
+	/**
+	 * The amount of file lookups that were answered by the cache
+	 */
+	public long getFileCacheHits() {
+		return fileCacheHits.get();
+	}
+	
+	/**
+	 * The amount of file lookups that were not in the cache
+	 */
+	public long getFileCacheMisses() {
+		return fileCacheMisses.get();
+	}
+	
+	/**
+	 * The amount of file lookups that were determined not to exist by the package index
+	 */
+	public long getNegativeLookups() {
+		return negativeLookups.get();
+	}
+	
+	/**
+	 * The amount of names that are currently cached
+	 */
+	public int getFilesFoundSize() {
+		return filesFound.size();
+	}
+
+	public boolean isIndexOnly() {
+		return indexOnly;
+	}
+
+	public void setIndexOnly(boolean indexOnly) {
+		this.indexOnly = indexOnly;
+	}
+	
 	@Override
 	public String toString() {
 		return "MavenClassloader for artifact " + mavenArtifact.getGroupId() + "/" + mavenArtifact.getArtifactId();
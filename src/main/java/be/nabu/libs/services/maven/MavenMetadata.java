@@ -0,0 +1,110 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The relevant parts of the maven-metadata.xml of a snapshot version: when it was last deployed and which timestamped file belongs to it
+ * Like the pom parser, this deliberately does not use an XML API, the structure is simple and fixed
+ */
+public class MavenMetadata {
+	
+	private static Pattern LAST_UPDATED = Pattern.compile("<lastUpdated>\\s*([0-9]{14})\\s*</lastUpdated>");
+	private static Pattern SNAPSHOT = Pattern.compile("<snapshot>(.*?)</snapshot>", Pattern.DOTALL);
+	private static Pattern SNAPSHOT_VERSION = Pattern.compile("<snapshotVersion>(.*?)</snapshotVersion>", Pattern.DOTALL);
+	
+	private Date lastUpdated;
+	/**
+	 * The timestamped version per extension (for the files without a classifier)
+	 */
+	private Map<String, String> snapshotVersions = new HashMap<String, String>();
+	/**
+	 * The timestamp and build number of the latest snapshot, used by older deployments that do not list the snapshot versions
+	 */
+	private String timestamp, buildNumber;
+	
+	public static MavenMetadata parse(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte [] buffer = new byte[4096];
+		int read = 0;
+		while ((read = input.read(buffer)) != -1) {
+			output.write(buffer, 0, read);
+		}
+		String xml = new String(output.toByteArray(), "UTF-8");
+		MavenMetadata metadata = new MavenMetadata();
+		Matcher matcher = LAST_UPDATED.matcher(xml);
+		if (matcher.find()) {
+			SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMddHHmmss");
+			formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+			try {
+				metadata.lastUpdated = formatter.parse(matcher.group(1));
+			}
+			catch (ParseException e) {
+				throw new IOException("Invalid lastUpdated: " + matcher.group(1), e);
+			}
+		}
+		matcher = SNAPSHOT.matcher(xml);
+		if (matcher.find()) {
+			metadata.timestamp = getElement(matcher.group(1), "timestamp");
+			metadata.buildNumber = getElement(matcher.group(1), "buildNumber");
+		}
+		matcher = SNAPSHOT_VERSION.matcher(xml);
+		while (matcher.find()) {
+			String classifier = getElement(matcher.group(1), "classifier");
+			String extension = getElement(matcher.group(1), "extension");
+			String value = getElement(matcher.group(1), "value");
+			if ((classifier == null || classifier.isEmpty()) && extension != null && value != null) {
+				metadata.snapshotVersions.put(extension, value);
+			}
+		}
+		return metadata;
+	}
+	
+	private static String getElement(String xml, String name) {
+		Matcher matcher = Pattern.compile("<" + name + ">\\s*(.*?)\\s*</" + name + ">", Pattern.DOTALL).matcher(xml);
+		return matcher.find() ? matcher.group(1) : null;
+	}
+	
+	/**
+	 * Returns the version used in the file name of the latest snapshot, for example 1.0-20240101.120000-3 for 1.0-SNAPSHOT
+	 * If the repository does not use timestamped snapshots, the version itself is returned
+	 */
+	public String getSnapshotVersion(String version, String extension) {
+		String snapshotVersion = snapshotVersions.get(extension);
+		if (snapshotVersion == null && timestamp != null && buildNumber != null && version.endsWith("-SNAPSHOT")) {
+			snapshotVersion = version.substring(0, version.length() - "SNAPSHOT".length()) + timestamp + "-" + buildNumber;
+		}
+		return snapshotVersion == null ? version : snapshotVersion;
+	}
+	
+	public Date getLastUpdated() {
+		return lastUpdated;
+	}
+}
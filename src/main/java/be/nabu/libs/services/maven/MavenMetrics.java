@@ -0,0 +1,72 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Receives the measurements of the classloaders, the jar cache and the dependency resolution
+ * Implementations are called on hot paths so they must be thread safe and cheap, the default implementation publishes them over JMX
+ */
+public interface MavenMetrics {
+	
+	/**
+	 * The time it takes to look up a resource in a classloader
+	 */
+	public static final String FIND_FILES = "classloader.findFiles";
+	public static final String FILE_CACHE_HITS = "classloader.files.hits";
+	public static final String FILE_CACHE_MISSES = "classloader.files.misses";
+	public static final String NEGATIVE_LOOKUPS = "classloader.files.negative";
+	/**
+	 * The time it takes to index a jar
+	 */
+	public static final String INDEX = "jar.index";
+	public static final String JAR_CACHE_SIZE = "jarcache.bytes";
+	public static final String JAR_CACHE_EVICTIONS = "jarcache.evictions";
+	/**
+	 * The time it takes to parse a pom and to calculate the effective pom
+	 */
+	public static final String POM_PARSE = "pom.parse";
+	public static final String POM_RESOLVE = "pom.resolve";
+	/**
+	 * The time it takes to resolve a dependency, including any downloads
+	 */
+	public static final String RESOLVE = "resolver.resolve";
+	public static final String UNRESOLVED = "resolver.unresolved";
+	/**
+	 * The time it takes to download a file
+	 */
+	public static final String DOWNLOAD = "download.transfer";
+	public static final String DOWNLOADED = "download.completed";
+	public static final String DOWNLOADED_BYTES = "download.bytes";
+	public static final String NOT_MODIFIED = "download.notModified";
+	public static final String NOT_FOUND = "download.notFound";
+	
+	public void increment(String counter, long amount);
+	
+	/**
+	 * Records a duration (in nanoseconds)
+	 */
+	public void record(String timer, long nanos);
+	
+	/**
+	 * Registers a value that is calculated when it is requested
+	 */
+	public void gauge(String name, Callable<Long> value);
+}
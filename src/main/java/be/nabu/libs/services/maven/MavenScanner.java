@@ -18,16 +18,28 @@
 package be.nabu.libs.services.maven;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Inherited;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import javax.jws.WebService;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -46,65 +58,269 @@ import be.nabu.libs.types.api.DefinedType;
 import be.nabu.libs.types.api.DefinedTypeResolver;
 import be.nabu.libs.types.api.annotation.ComplexTypeDescriptor;
 import be.nabu.libs.types.java.BeanResolver;
-import be.nabu.utils.io.IOUtils;
 
 public class MavenScanner {
 	
+	/**
+	 * The annotations that make a class interesting, in their internal form
+	 */
+	private static final Set<String> ANNOTATIONS = getAnnotations(false, XmlRootElement.class, ComplexTypeDescriptor.class, WebService.class);
+	/**
+	 * The annotations that are picked up from super classes as well
+	 */
+	private static final Set<String> INHERITED_ANNOTATIONS = getAnnotations(true, XmlRootElement.class, ComplexTypeDescriptor.class, WebService.class);
+	
 	private Logger logger = LoggerFactory.getLogger(getClass());
+	/**
+	 * If enabled, the class files are checked for the relevant annotations before they are loaded, this avoids defining classes that are never exposed
+	 */
+	private boolean filterClasses = true;
+	/**
+	 * If enabled, a service manifest packaged in or next to the artifact is used instead of scanning its classes
+	 */
+	private boolean useManifest = true;
+	/**
+	 * How many artifacts are scanned at the same time, the type resolvers must be thread safe if this is more than 1
+	 */
+	private int parallelism = 1;
+	/**
+	 * If incremental, artifacts that have not been modified since the previous scan (by this scanner) are not scanned again, their previous children are reused
+	 * An artifact is only considered unmodified if none of the artifacts on its classpath have been modified (or replaced by another version) either
+	 */
+	private boolean incremental;
+	private Map<String, ScannedArtifact> scanned = new ConcurrentHashMap<String, ScannedArtifact>();
 	
-	public Map<String, be.nabu.libs.artifacts.api.Artifact> scan(DefinedTypeResolver definedTypeResolver, DependencyResolver dependencyResolver, DomainRepository repository) throws IOException {
-		Map<String, be.nabu.libs.artifacts.api.Artifact> artifacts = new HashMap<String, be.nabu.libs.artifacts.api.Artifact>();
+	public Map<String, be.nabu.libs.artifacts.api.Artifact> scan(final DefinedTypeResolver definedTypeResolver, final DependencyResolver dependencyResolver, final DomainRepository repository) throws IOException {
+		final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+		List<Artifact> internalArtifacts = new ArrayList<Artifact>();
 		for (Artifact artifact : repository.getInternalArtifacts()) {
-			MavenClassLoader loader = new MavenClassLoader(Thread.currentThread().getContextClassLoader(), repository, artifact, dependencyResolver);
 			if (artifact.getPackaging().equals("jar")) {
-				artifacts.putAll(scan(definedTypeResolver, loader, dependencyResolver, repository, artifact));
+				internalArtifacts.add(artifact);
+			}
+		}
+		List<Map<String, be.nabu.libs.artifacts.api.Artifact>> results = new ArrayList<Map<String, be.nabu.libs.artifacts.api.Artifact>>();
+		if (parallelism <= 1 || internalArtifacts.size() <= 1) {
+			for (Artifact artifact : internalArtifacts) {
+				results.add(scan(definedTypeResolver, dependencyResolver, repository, artifact, parent));
+			}
+		}
+		else {
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, internalArtifacts.size()), new ThreadFactory() {
+				private AtomicInteger counter = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "maven-scan-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			try {
+				List<Future<Map<String, be.nabu.libs.artifacts.api.Artifact>>> futures = new ArrayList<Future<Map<String, be.nabu.libs.artifacts.api.Artifact>>>();
+				for (final Artifact artifact : internalArtifacts) {
+					futures.add(executor.submit(new Callable<Map<String, be.nabu.libs.artifacts.api.Artifact>>() {
+						@Override
+						public Map<String, be.nabu.libs.artifacts.api.Artifact> call() throws Exception {
+							return scan(definedTypeResolver, dependencyResolver, repository, artifact, parent);
+						}
+					}));
+				}
+				for (Future<Map<String, be.nabu.libs.artifacts.api.Artifact>> future : futures) {
+					results.add(future.get());
+				}
+			}
+			catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				else if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+			finally {
+				executor.shutdownNow();
+			}
+		}
+		// merge in the order of the repository so the outcome is the same as a sequential scan
+		Map<String, be.nabu.libs.artifacts.api.Artifact> artifacts = new HashMap<String, be.nabu.libs.artifacts.api.Artifact>();
+		for (Map<String, be.nabu.libs.artifacts.api.Artifact> result : results) {
+			artifacts.putAll(result);
+		}
+		// forget about artifacts that no longer exist
+		if (incremental) {
+			Set<String> ids = new HashSet<String>();
+			for (Artifact artifact : internalArtifacts) {
+				ids.add(getId(artifact));
 			}
+			scanned.keySet().retainAll(ids);
 		}
 		return artifacts;
 	}
 	
-	public Map<Class<?>, List<Class<?>>> scanSPI(MavenClassLoader loader, Artifact artifact) throws IOException {
-		Map<Class<?>, List<Class<?>>> spi = new HashMap<Class<?>, List<Class<?>>>();
-		ZipInputStream zip = new ZipInputStream(artifact.getContent());
+	private Map<String, be.nabu.libs.artifacts.api.Artifact> scan(DefinedTypeResolver definedTypeResolver, DependencyResolver dependencyResolver, DomainRepository repository, Artifact artifact, ClassLoader parent) throws IOException {
+		String id = getId(artifact);
+		MavenClassLoader loader = new MavenClassLoader(parent, repository, artifact, dependencyResolver);
 		try {
-			ZipEntry entry = null;
-			while ((entry = zip.getNextEntry()) != null) {
-				String name = entry.getName();
-				if (name.startsWith("/")) {
-					name = name.substring(1);
-				}
-				if (name.startsWith("META-INF/services/")) {
-					String ifaceName = name.substring("META-INF/services/".length());
-					if (!ifaceName.trim().isEmpty()) {
-						try {
-							Class<?> iface = loader.loadClass(ifaceName);
-							List<Class<?>> implementations = new ArrayList<Class<?>>();
-							String content = new String(IOUtils.toBytes(IOUtils.wrap(zip)), "UTF-8");
-							for (String line : content.split("[\r\n]+")) {
-								try {
-									Class<?> implementation = loader.loadClass(line);
-									implementations.add(implementation);
-								}
-								catch (ClassNotFoundException e) {
-									logger.error("Could not locate implementation class '" + line + "' for interface: " + ifaceName);
-								}
-							}
-							spi.put(iface, implementations);
-						}
-						catch (ClassNotFoundException e) {
-							logger.error("Could not locate interface: " + ifaceName);
-						}
-					}
+			String fingerprint = incremental && artifact.getLastModified() != null ? getFingerprint(loader) : null;
+			if (fingerprint != null) {
+				ScannedArtifact previous = scanned.get(id);
+				if (previous != null && previous.fingerprint.equals(fingerprint)) {
+					logger.debug("Artifact " + artifact.getGroupId() + "/" + artifact.getArtifactId() + " and its dependencies have not changed since the last scan");
+					return previous.children;
 				}
 			}
+			Map<String, be.nabu.libs.artifacts.api.Artifact> children = scan(definedTypeResolver, loader, dependencyResolver, repository, artifact);
+			if (fingerprint != null) {
+				scanned.put(id, new ScannedArtifact(fingerprint, children));
+			}
+			return children;
 		}
 		finally {
-			zip.close();
+			// the classes remain usable, we merely allow the jars to be evicted from the shared cache
+			loader.close();
+		}
+	}
+	
+	/**
+	 * Identifies the exact versions of the artifacts on the classpath, this changes if any of them is modified
+	 * If the classpath can not be determined, there is no fingerprint and the artifact is always scanned
+	 */
+	private String getFingerprint(MavenClassLoader loader) {
+		try {
+			StringBuilder builder = new StringBuilder();
+			for (Artifact artifact : loader.getClasspath()) {
+				builder.append(JarCache.getKey(artifact)).append(";");
+			}
+			return builder.toString();
+		}
+		catch (Exception e) {
+			logger.debug("Could not determine the classpath of " + loader + ": " + e.getMessage());
+			return null;
+		}
+	}
+	
+	private static String getId(Artifact artifact) {
+		return artifact.getGroupId() + "/" + artifact.getArtifactId() + "/" + artifact.getVersion() + (artifact.isTest() ? "/test" : "");
+	}
+	
+	private static class ScannedArtifact {
+		private String fingerprint;
+		private Map<String, be.nabu.libs.artifacts.api.Artifact> children;
+		
+		public ScannedArtifact(String fingerprint, Map<String, be.nabu.libs.artifacts.api.Artifact> children) {
+			this.fingerprint = fingerprint;
+			this.children = children;
+		}
+	}
+	
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+		if (!incremental) {
+			scanned.clear();
+		}
+	}
+	
+	public Map<Class<?>, List<Class<?>>> scanSPI(MavenClassLoader loader, Artifact artifact) throws IOException {
+		Map<String, List<String>> declared = null;
+		if (useManifest) {
+			ServiceManifest manifest = ServiceManifest.load(loader, artifact);
+			// a manifest without spi lines does not tell us there are none, the services files are cheap to check
+			if (manifest != null && !manifest.getImplementations().isEmpty()) {
+				declared = manifest.getImplementations();
+			}
+		}
+		if (declared == null) {
+			declared = getDeclaredImplementations(loader.getContent(artifact));
+		}
+		Map<Class<?>, List<Class<?>>> spi = new HashMap<Class<?>, List<Class<?>>>();
+		for (Map.Entry<String, List<String>> entry : declared.entrySet()) {
+			String ifaceName = entry.getKey();
+			try {
+				Class<?> iface = loader.loadClass(ifaceName);
+				List<Class<?>> implementations = new ArrayList<Class<?>>();
+				for (String line : entry.getValue()) {
+					try {
+						Class<?> implementation = loader.loadClass(line);
+						implementations.add(implementation);
+					}
+					catch (ClassNotFoundException e) {
+						logger.error("Could not locate implementation class '" + line + "' for interface: " + ifaceName);
+					}
+				}
+				spi.put(iface, implementations);
+			}
+			catch (ClassNotFoundException e) {
+				logger.error("Could not locate interface: " + ifaceName);
+			}
 		}
 		return spi;
 	}
 	
+	/**
+	 * The implementations listed in the META-INF/services files of the jar
+	 */
+	private Map<String, List<String>> getDeclaredImplementations(JarContent jar) throws IOException {
+		Map<String, List<String>> declared = new LinkedHashMap<String, List<String>>();
+		for (String name : jar.getEntries()) {
+			if (name.startsWith("META-INF/services/")) {
+				String ifaceName = name.substring("META-INF/services/".length());
+				if (!ifaceName.trim().isEmpty()) {
+					List<String> implementations = ServiceManifest.parseServices(jar.read(name));
+					if (!implementations.isEmpty()) {
+						declared.put(ifaceName, implementations);
+					}
+				}
+			}
+		}
+		return declared;
+	}
+	
 	public Map<String, be.nabu.libs.artifacts.api.Artifact> scan(DefinedTypeResolver definedTypeResolver, MavenClassLoader loader, DependencyResolver dependencyResolver, DomainRepository repository, Artifact artifact) throws IOException {
+		DefinedTypeResolver combinedResolver = getCombinedResolver(definedTypeResolver, loader);
+		if (useManifest) {
+			ServiceManifest manifest = ServiceManifest.load(loader, artifact);
+			if (manifest != null) {
+				try {
+					return scan(combinedResolver, loader, artifact, manifest);
+				}
+				catch (ClassNotFoundException e) {
+					logger.warn("The service manifest of " + artifact.getGroupId() + "/" + artifact.getArtifactId() + " does not match its content, scanning the classes instead", e);
+				}
+				catch (NoSuchMethodException e) {
+					logger.warn("The service manifest of " + artifact.getGroupId() + "/" + artifact.getArtifactId() + " does not match its content, scanning the classes instead", e);
+				}
+			}
+		}
+		return scanClasses(combinedResolver, loader, artifact, null);
+	}
+	
+	/**
+	 * Scans the artifact and lists what it exposes, the result can be packaged in the jar (as {@link ServiceManifest#RESOURCE}) or written as a sidecar
+	 */
+	public ServiceManifest generateManifest(DefinedTypeResolver definedTypeResolver, MavenClassLoader loader, Artifact artifact) throws IOException {
+		ServiceManifest manifest = new ServiceManifest();
+		manifest.setLastModified(artifact.getLastModified() == null ? null : artifact.getLastModified().getTime());
+		scanClasses(getCombinedResolver(definedTypeResolver, loader), loader, artifact, manifest);
+		manifest.getImplementations().putAll(getDeclaredImplementations(loader.getContent(artifact)));
+		return manifest;
+	}
+	
+	private DefinedTypeResolver getCombinedResolver(DefinedTypeResolver definedTypeResolver, MavenClassLoader loader) {
 		// apart from the "general" type resolver used for the entire server
 		// we also need a type resolver that works specifically at the level of this maven artifact
 		// note that we _first_ use the general resolver, only then try the specific one
@@ -113,64 +329,184 @@ public class MavenScanner {
 		// and specifically for simple types, if the bean resolver if set first, it will resolve _any_ java object
 		BeanResolver domainResolver = new BeanResolver();
 		domainResolver.addFactory(new MavenDomainObjectFactory(loader));
-		DefinedTypeResolver combinedResolver = new MultipleDefinedTypeResolver(Arrays.asList(
+		return new MultipleDefinedTypeResolver(Arrays.asList(
 			new DefinedSimpleTypeResolver(SimpleTypeWrapperFactory.getInstance().getWrapper(), loader),
 			domainResolver,
 			definedTypeResolver
 		));
+	}
+	
+	/**
+	 * Only loads the classes listed in the manifest
+	 */
+	private Map<String, be.nabu.libs.artifacts.api.Artifact> scan(DefinedTypeResolver combinedResolver, MavenClassLoader loader, Artifact artifact, ServiceManifest manifest) throws ClassNotFoundException, NoSuchMethodException {
+		logger.info("Loading the service manifest of artifact " + artifact.getGroupId() + "/" + artifact.getArtifactId());
+		Map<String, be.nabu.libs.artifacts.api.Artifact> children = new HashMap<String, be.nabu.libs.artifacts.api.Artifact>();
+		for (String name : manifest.getTypes()) {
+			DefinedType type = BeanResolver.getInstance().resolve(loader.loadClass(name));
+			children.put(getRelativeId(artifact.getGroupId(), type), type);
+		}
+		for (Map.Entry<String, List<String>> entry : manifest.getServices().entrySet()) {
+			Class<?> clazz = loader.loadClass(entry.getKey());
+			Map<String, Method> methods = new HashMap<String, Method>();
+			for (Method method : clazz.getDeclaredMethods()) {
+				methods.put(ServiceManifest.getSignature(method), method);
+			}
+			for (String signature : entry.getValue()) {
+				Method method = methods.get(signature);
+				if (method == null) {
+					throw new NoSuchMethodException(entry.getKey() + "." + signature);
+				}
+				expose(combinedResolver, artifact, clazz, method, children);
+			}
+		}
+		return children;
+	}
+	
+	/**
+	 * Goes over all the classes in the artifact, if a manifest is passed in, everything that is exposed is added to it
+	 */
+	private Map<String, be.nabu.libs.artifacts.api.Artifact> scanClasses(DefinedTypeResolver combinedResolver, MavenClassLoader loader, Artifact artifact, ServiceManifest manifest) throws IOException {
 		logger.info("Scanning artifact " + artifact.getGroupId() + "/" + artifact.getArtifactId() + " for java classes to expose");
 		Map<String, be.nabu.libs.artifacts.api.Artifact> children = new HashMap<String, be.nabu.libs.artifacts.api.Artifact>();
-		ZipInputStream zip = new ZipInputStream(artifact.getContent());
-		try {
-			ZipEntry entry = null;
-			while ((entry = zip.getNextEntry()) != null) {
-				String name = entry.getName();
-				if (name.endsWith(".class")) {
-					if (name.startsWith("/")) {
-						name = name.substring(1);
+		JarContent jar = loader.getContent(artifact);
+		Map<String, ClassFile> classFiles = new HashMap<String, ClassFile>();
+		for (String name : jar.getEntries()) {
+			if (name.endsWith(".class")) {
+				// strip the extension
+				name = name.substring(0, name.length() - ".class".length());
+				name = name.replace('/', '.');
+				logger.debug("Scanning class: " + name);
+				// only scan things that are within the defined groupId
+				if (name.startsWith(artifact.getGroupId())) {
+					if (filterClasses && !isCandidate(name.replace('.', '/'), jar, loader, classFiles)) {
+						logger.trace("Skipping class without relevant annotations: " + name);
+						continue;
 					}
-					// strip the extension
-					name = name.substring(0, name.length() - ".class".length());
-					name = name.replace('/', '.');
-					logger.debug("Scanning class: " + name);
-					// only scan things that are within the defined groupId
-					if (name.startsWith(artifact.getGroupId())) {
-						try {
-							Class<?> clazz = loader.loadClass(name);
-							// if you have the root element annotation, add it
-							if (clazz.getAnnotation(XmlRootElement.class) != null || clazz.getAnnotation(ComplexTypeDescriptor.class) != null) {
-								DefinedType type = BeanResolver.getInstance().resolve(clazz);
-								children.put(getRelativeId(artifact.getGroupId(), type), type);
+					try {
+						Class<?> clazz = loader.loadClass(name);
+						// if you have the root element annotation, add it
+						if (clazz.getAnnotation(XmlRootElement.class) != null || clazz.getAnnotation(ComplexTypeDescriptor.class) != null) {
+							DefinedType type = BeanResolver.getInstance().resolve(clazz);
+							children.put(getRelativeId(artifact.getGroupId(), type), type);
+							if (manifest != null) {
+								manifest.addType(name);
 							}
-							else if (clazz.getAnnotation(WebService.class) != null) {
-								for (Method method : clazz.getDeclaredMethods()) {
-									if (Modifier.isPublic(method.getModifiers()) && !Modifier.isStatic(method.getModifiers())) {
-										if (clazz.isInterface()) {
-											MethodServiceInterface methodServiceInterface = MethodServiceInterface.wrap(combinedResolver, method);
-											children.put(getRelativeId(artifact.getGroupId(), methodServiceInterface), methodServiceInterface);
-										}
-										else {
-											MethodService methodService = new MethodService(combinedResolver, clazz, method);
-											children.put(getRelativeId(artifact.getGroupId(), methodService), methodService);
-										}
+						}
+						else if (clazz.getAnnotation(WebService.class) != null) {
+							for (Method method : clazz.getDeclaredMethods()) {
+								if (Modifier.isPublic(method.getModifiers()) && !Modifier.isStatic(method.getModifiers())) {
+									expose(combinedResolver, artifact, clazz, method, children);
+									if (manifest != null) {
+										manifest.addService(name, ServiceManifest.getSignature(method));
 									}
 								}
 							}
 						}
-						catch (ClassNotFoundException e) {
-							// this is an implementation error
-							throw new RuntimeException(e);
-						}
+					}
+					catch (ClassNotFoundException e) {
+						// this is an implementation error
+						throw new RuntimeException(e);
 					}
 				}
 			}
 		}
-		finally {
-			zip.close();
-		}
 		return children;
 	}
 	
+	private void expose(DefinedTypeResolver combinedResolver, Artifact artifact, Class<?> clazz, Method method, Map<String, be.nabu.libs.artifacts.api.Artifact> children) {
+		if (clazz.isInterface()) {
+			MethodServiceInterface methodServiceInterface = MethodServiceInterface.wrap(combinedResolver, method);
+			children.put(getRelativeId(artifact.getGroupId(), methodServiceInterface), methodServiceInterface);
+		}
+		else {
+			MethodService methodService = new MethodService(combinedResolver, clazz, method);
+			children.put(getRelativeId(artifact.getGroupId(), methodService), methodService);
+		}
+	}
+	
+	/**
+	 * Checks the class file for the annotations we are interested in, without loading the class
+	 * Annotations that are @Inherited are also checked on the super classes, if we can not read a class file, we assume it is a candidate
+	 */
+	private boolean isCandidate(String className, JarContent jar, ClassLoader loader, Map<String, ClassFile> classFiles) {
+		ClassFile classFile = getClassFile(className, jar, loader, classFiles);
+		if (classFile == null) {
+			return true;
+		}
+		if (!Collections.disjoint(classFile.getAnnotations(), ANNOTATIONS)) {
+			return true;
+		}
+		String superName = classFile.isInterface() || INHERITED_ANNOTATIONS.isEmpty() ? null : classFile.getSuperName();
+		while (superName != null && !superName.startsWith("java/")) {
+			ClassFile superClass = getClassFile(superName, jar, loader, classFiles);
+			if (superClass == null) {
+				return true;
+			}
+			else if (!Collections.disjoint(superClass.getAnnotations(), INHERITED_ANNOTATIONS)) {
+				return true;
+			}
+			superName = superClass.getSuperName();
+		}
+		return false;
+	}
+	
+	private ClassFile getClassFile(String className, JarContent jar, ClassLoader loader, Map<String, ClassFile> classFiles) {
+		if (classFiles.containsKey(className)) {
+			return classFiles.get(className);
+		}
+		ClassFile classFile = null;
+		try {
+			byte [] bytes = jar.read(className + ".class");
+			// super classes can live in a dependency
+			if (bytes == null) {
+				InputStream input = loader.getResourceAsStream(className + ".class");
+				if (input != null) {
+					try {
+						bytes = MavenClassLoader.toBytes(input);
+					}
+					finally {
+						input.close();
+					}
+				}
+			}
+			if (bytes != null) {
+				classFile = ClassFile.parse(bytes);
+			}
+		}
+		catch (Exception e) {
+			logger.debug("Could not parse class file: " + className, e);
+		}
+		classFiles.put(className, classFile);
+		return classFile;
+	}
+	
+	private static Set<String> getAnnotations(boolean inheritedOnly, Class<?>...annotations) {
+		Set<String> names = new HashSet<String>();
+		for (Class<?> annotation : annotations) {
+			if (!inheritedOnly || annotation.isAnnotationPresent(Inherited.class)) {
+				names.add(annotation.getName().replace('.', '/'));
+			}
+		}
+		return names;
+	}
+	
+	public boolean isUseManifest() {
+		return useManifest;
+	}
+
+	public void setUseManifest(boolean useManifest) {
+		this.useManifest = useManifest;
+	}
+
+	public boolean isFilterClasses() {
+		return filterClasses;
+	}
+
+	public void setFilterClasses(boolean filterClasses) {
+		this.filterClasses = filterClasses;
+	}
+
 	private String getRelativeId(String groupId, be.nabu.libs.artifacts.api.Artifact artifact) {
 		String relativeId = artifact.getId().replaceFirst(Pattern.quote(groupId), "");
 		if (relativeId.startsWith(".")) {
@@ -0,0 +1,190 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A partial download in a temporary directory that can be shared by several downloaders and processes
+ * Only the holder of the lock may resume, publish or remove the partial file, the lock is taken on a separate lock file next to it
+ * The validator (etag or last modified) of the response that started the partial file is stored next to it as well, a resume is only valid for that exact content
+ * Once the download is done, the partial file is removed together with its validator and lock file
+ * Someone who was waiting for the lock of a removed lock file would hold a lock nobody else can see, which is why a token is written in the lock file and checked after locking
+ */
+public class PartialDownload implements Closeable {
+	
+	public static final String EXTENSION = ".part", LOCK_EXTENSION = ".lock", VALIDATOR_EXTENSION = ".validator";
+	
+	/**
+	 * We lock a region beyond the token, some platforms do not allow reading a locked region
+	 */
+	private static final long LOCK_POSITION = Long.MAX_VALUE - 1;
+	
+	private File file, lockFile, validatorFile;
+	private RandomAccessFile access;
+	private FileLock lock;
+	
+	private PartialDownload(File file) {
+		this.file = file;
+		this.lockFile = new File(file.getPath() + LOCK_EXTENSION);
+		this.validatorFile = new File(file.getPath() + VALIDATOR_EXTENSION);
+	}
+	
+	/**
+	 * Waits until we hold the lock on the given partial file
+	 */
+	public static PartialDownload lock(File file) throws IOException {
+		while (true) {
+			PartialDownload partial = new PartialDownload(file);
+			if (partial.acquire(true)) {
+				return partial;
+			}
+			try {
+				Thread.sleep(100);
+			}
+			catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the partial download if nobody else holds its lock at this point, otherwise null
+	 */
+	public static PartialDownload tryLock(File file) throws IOException {
+		PartialDownload partial = new PartialDownload(file);
+		return partial.acquire(false) ? partial : null;
+	}
+	
+	private boolean acquire(boolean wait) throws IOException {
+		if (!file.getParentFile().exists() && !file.getParentFile().mkdirs() && !file.getParentFile().isDirectory()) {
+			throw new IOException("Can not create temporary directory: " + file.getParentFile());
+		}
+		try {
+			access = new RandomAccessFile(lockFile, "rw");
+		}
+		// the directory can be cleaned up concurrently
+		catch (FileNotFoundException e) {
+			if (!wait) {
+				return false;
+			}
+			throw e;
+		}
+		try {
+			try {
+				lock = wait ? access.getChannel().lock(LOCK_POSITION, 1, false) : access.getChannel().tryLock(LOCK_POSITION, 1, false);
+			}
+			// the lock is held by another download in this virtual machine
+			catch (OverlappingFileLockException e) {
+				lock = null;
+			}
+			if (lock != null) {
+				byte [] token = UUID.randomUUID().toString().getBytes("ASCII");
+				access.setLength(0);
+				access.write(token);
+				access.getFD().sync();
+				// the previous holder may have removed the file, in which case the path now points to another file (or to nothing)
+				try {
+					if (Arrays.equals(token, Files.readAllBytes(lockFile.toPath()))) {
+						return true;
+					}
+				}
+				catch (NoSuchFileException e) {
+					// removed
+				}
+			}
+		}
+		catch (IOException e) {
+			close();
+			throw e;
+		}
+		close();
+		return false;
+	}
+	
+	/**
+	 * The validator of the content in the partial file, null if it is unknown
+	 */
+	public String getValidator() throws IOException {
+		return validatorFile.isFile() ? new String(Files.readAllBytes(validatorFile.toPath()), "UTF-8") : null;
+	}
+	
+	public void setValidator(String validator) throws IOException {
+		if (validator == null) {
+			validatorFile.delete();
+		}
+		else {
+			Files.write(validatorFile.toPath(), validator.getBytes("UTF-8"));
+		}
+	}
+	
+	/**
+	 * Removes the partial content, the next transfer starts from the beginning
+	 */
+	public void reset() {
+		file.delete();
+		validatorFile.delete();
+	}
+	
+	/**
+	 * Removes the partial content and the lock file, this releases the lock
+	 */
+	public void remove() {
+		reset();
+		// only removed while we hold the lock, whoever is waiting for it will notice it is gone
+		lockFile.delete();
+		close();
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	@Override
+	public void close() {
+		try {
+			if (lock != null) {
+				lock.release();
+			}
+		}
+		catch (IOException e) {
+			// closing the file releases it as well
+		}
+		lock = null;
+		try {
+			if (access != null) {
+				access.close();
+			}
+		}
+		catch (IOException e) {
+			// nothing left to release
+		}
+		access = null;
+	}
+}
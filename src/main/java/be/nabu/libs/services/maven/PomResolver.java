@@ -0,0 +1,370 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.maven.api.Artifact;
+import be.nabu.libs.maven.api.Repository;
+import be.nabu.libs.maven.api.WritableRepository;
+import be.nabu.libs.services.maven.pom.Pom;
+import be.nabu.libs.services.maven.pom.PomArtifact;
+import be.nabu.libs.services.maven.pom.PomDependencies;
+import be.nabu.libs.services.maven.pom.PomDependency;
+import be.nabu.libs.services.maven.pom.PomDependencyManagement;
+import be.nabu.libs.services.maven.pom.PomExclusions;
+
+/**
+ * Calculates the effective pom: the parent poms are merged in, properties are interpolated and the dependency management (including imported boms) is applied
+ * Parent poms and boms are parsed only once and shared by all resolvers of the same repository, they are refreshed when the artifact is modified
+ * The shared poms of a repository are only kept as long as there are resolvers using it and only the most recently used ones are kept
+ * The parsed pom itself is never modified, the effective pom is a copy
+ */
+public class PomResolver {
+	
+	/**
+	 * Guards against cyclic or absurdly deep parent chains and recursive property definitions
+	 */
+	private static final int MAX_DEPTH = 20;
+	
+	/**
+	 * The maximum amount of parent poms and boms that are kept per repository
+	 */
+	private static final int MAX_SHARED = 1000;
+	
+	private static Map<Repository, WeakReference<Map<String, SharedPom>>> cache = new WeakHashMap<Repository, WeakReference<Map<String, SharedPom>>>();
+	
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private Repository repository;
+	/**
+	 * If set, missing parent poms and boms are downloaded
+	 */
+	private DependencyResolver dependencyResolver;
+	/**
+	 * The keys of the snapshot parents and boms this resolver has used, a new version of them can change the effective poms
+	 */
+	private Set<String> snapshots = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/**
+	 * The parent poms and boms shared with the other resolvers of this repository
+	 */
+	private Map<String, SharedPom> shared;
+	
+	public PomResolver(Repository repository) {
+		this(repository, null);
+	}
+	
+	public PomResolver(Repository repository, DependencyResolver dependencyResolver) {
+		this.repository = repository;
+		this.dependencyResolver = dependencyResolver;
+		this.shared = getCache(repository);
+	}
+	
+	public Pom resolve(Pom pom) throws IOException, ParseException {
+		return resolve(pom, new HashSet<String>());
+	}
+	
+	private Pom resolve(Pom pom, Set<String> importing) throws IOException, ParseException {
+		// the inheritance chain, starting with the pom itself
+		List<Pom> chain = new ArrayList<Pom>();
+		chain.add(pom);
+		Set<String> parents = new HashSet<String>();
+		boolean snapshots = false;
+		Pom current = pom;
+		while (current.getParent() != null && chain.size() < MAX_DEPTH) {
+			PomArtifact parent = current.getParent();
+			Pom parsed = getShared(parent.getGroupId(), parent.getArtifactId(), parent.getVersion());
+			if (parsed == null) {
+				logger.debug("Could not find parent pom " + parent.getGroupId() + "/" + parent.getArtifactId() + "/" + parent.getVersion() + " of " + pom.getGroupId() + "/" + pom.getArtifactId());
+				break;
+			}
+			else if (!parents.add(getKey(parent) + ":" + parent.getVersion())) {
+				logger.warn("Cyclic parent pom " + parent.getGroupId() + "/" + parent.getArtifactId() + "/" + parent.getVersion());
+				break;
+			}
+			chain.add(parsed);
+			snapshots |= parent.getVersion().endsWith("-SNAPSHOT");
+			current = parsed;
+		}
+		
+		// properties are inherited, the child overrides the parent
+		Map<String, String> properties = new HashMap<String, String>();
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			if (chain.get(i).getProperties() != null) {
+				properties.putAll(chain.get(i).getProperties());
+			}
+		}
+		// the project properties always refer to the pom itself, even when used in a parent
+		String groupId = pom.getGroupId() == null && pom.getParent() != null ? pom.getParent().getGroupId() : pom.getGroupId();
+		String version = pom.getVersion() == null && pom.getParent() != null ? pom.getParent().getVersion() : pom.getVersion();
+		for (String prefix : new String [] { "project.", "pom.", "" }) {
+			setProperty(properties, prefix + "groupId", groupId);
+			setProperty(properties, prefix + "artifactId", pom.getArtifactId());
+			setProperty(properties, prefix + "version", version);
+		}
+		if (pom.getParent() != null) {
+			for (String prefix : new String [] { "project.parent.", "parent." }) {
+				setProperty(properties, prefix + "groupId", pom.getParent().getGroupId());
+				setProperty(properties, prefix + "artifactId", pom.getParent().getArtifactId());
+				setProperty(properties, prefix + "version", pom.getParent().getVersion());
+			}
+		}
+		
+		Pom effective = new Pom();
+		effective.setGroupId(interpolate(groupId, properties));
+		effective.setArtifactId(interpolate(pom.getArtifactId(), properties));
+		effective.setVersion(interpolate(version, properties));
+		effective.setParent(pom.getParent());
+		effective.setExclusions(pom.getExclusions());
+		effective.setProperties(properties);
+		
+		// the closest declaration wins, explicitly declared versions win over imported ones
+		Map<String, PomDependency> managed = new LinkedHashMap<String, PomDependency>();
+		List<PomDependency> imports = new ArrayList<PomDependency>();
+		for (Pom link : chain) {
+			if (link.getDependencyManagement() != null && link.getDependencyManagement().getDependencies() != null) {
+				for (PomDependency dependency : link.getDependencyManagement().getDependencies().getDependencies()) {
+					PomDependency copy = copy(dependency, properties);
+					if ("import".equals(copy.getScope())) {
+						imports.add(copy);
+					}
+					else if (!managed.containsKey(getKey(copy))) {
+						managed.put(getKey(copy), copy);
+					}
+				}
+			}
+		}
+		for (PomDependency bom : imports) {
+			snapshots |= importManaged(bom, managed, importing);
+		}
+		effective.setInheritsSnapshots(snapshots);
+		if (!managed.isEmpty()) {
+			effective.setDependencyManagement(new PomDependencyManagement());
+			effective.getDependencyManagement().setDependencies(new PomDependencies());
+			effective.getDependencyManagement().getDependencies().getDependencies().addAll(managed.values());
+		}
+		
+		// dependencies are inherited as well, a redeclaration in the child wins
+		Set<String> declared = new HashSet<String>();
+		for (Pom link : chain) {
+			if (link.getDependencies() != null) {
+				if (effective.getDependencies() == null) {
+					effective.setDependencies(new PomDependencies());
+				}
+				for (PomDependency dependency : link.getDependencies().getDependencies()) {
+					PomDependency copy = copy(dependency, properties);
+					if (declared.add(getKey(copy))) {
+						PomDependency management = managed.get(getKey(copy));
+						if (management != null) {
+							if (copy.getVersion() == null) {
+								copy.setVersion(management.getVersion());
+							}
+							if (copy.getScope() == null) {
+								copy.setScope(management.getScope());
+							}
+							if (copy.getExclusions() == null) {
+								copy.setExclusions(management.getExclusions());
+							}
+						}
+						effective.getDependencies().getDependencies().add(copy);
+					}
+				}
+			}
+		}
+		return effective;
+	}
+	
+	/**
+	 * Returns true if the imported bom is (or inherits from) a snapshot
+	 */
+	private boolean importManaged(PomDependency bom, Map<String, PomDependency> managed, Set<String> importing) throws IOException, ParseException {
+		String key = getKey(bom) + ":" + bom.getVersion();
+		if (!importing.add(key)) {
+			logger.warn("Cyclic bom import " + key);
+			return false;
+		}
+		try {
+			Pom parsed = getShared(bom.getGroupId(), bom.getArtifactId(), bom.getVersion());
+			if (parsed == null) {
+				logger.warn("Could not find imported bom " + bom.getGroupId() + "/" + bom.getArtifactId() + "/" + bom.getVersion());
+				return false;
+			}
+			Pom effective = resolve(parsed, importing);
+			if (effective.getDependencyManagement() != null) {
+				for (PomDependency dependency : effective.getDependencyManagement().getDependencies().getDependencies()) {
+					if (!managed.containsKey(getKey(dependency))) {
+						managed.put(getKey(dependency), dependency);
+					}
+				}
+			}
+			return bom.getVersion().endsWith("-SNAPSHOT") || effective.isInheritsSnapshots();
+		}
+		finally {
+			importing.remove(key);
+		}
+	}
+	
+	/**
+	 * Returns the parsed pom of a parent or bom, shared between all resolvers
+	 */
+	private Pom getShared(String groupId, String artifactId, String version) throws IOException, ParseException {
+		if (groupId == null || artifactId == null || version == null || version.contains("${")) {
+			return null;
+		}
+		Artifact artifact = dependencyResolver != null && repository instanceof WritableRepository
+			? dependencyResolver.resolvePom((WritableRepository) repository, groupId, artifactId, version)
+			: repository.getArtifact(groupId, artifactId, version, false);
+		if (artifact == null) {
+			return null;
+		}
+		if (version.endsWith("-SNAPSHOT")) {
+			snapshots.add(IndexStore.getKey(artifact));
+		}
+		String key = groupId + "/" + artifactId + "/" + version;
+		long lastModified = artifact.getLastModified() == null ? 0 : artifact.getLastModified().getTime();
+		SharedPom cached = shared.get(key);
+		if (cached == null || cached.lastModified != lastModified) {
+			cached = new SharedPom(DependencyResolver.parsePom(artifact), lastModified);
+			shared.put(key, cached);
+		}
+		return cached.pom;
+	}
+	
+	public Set<String> getSnapshots() {
+		return snapshots;
+	}
+	
+	private static Map<String, SharedPom> getCache(Repository repository) {
+		synchronized(cache) {
+			WeakReference<Map<String, SharedPom>> reference = cache.get(repository);
+			Map<String, SharedPom> poms = reference == null ? null : reference.get();
+			if (poms == null) {
+				poms = Collections.synchronizedMap(new LinkedHashMap<String, SharedPom>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<String, SharedPom> eldest) {
+						return size() > MAX_SHARED;
+					}
+				});
+				cache.put(repository, new WeakReference<Map<String, SharedPom>>(poms));
+			}
+			return poms;
+		}
+	}
+	
+	/**
+	 * Drops the shared poms of all repositories, existing resolvers no longer share their poms with new ones
+	 */
+	public static void clear() {
+		synchronized(cache) {
+			for (WeakReference<Map<String, SharedPom>> reference : cache.values()) {
+				Map<String, SharedPom> poms = reference.get();
+				if (poms != null) {
+					poms.clear();
+				}
+			}
+			cache.clear();
+		}
+	}
+	
+	private static void setProperty(Map<String, String> properties, String name, String value) {
+		if (value != null) {
+			properties.put(name, value);
+		}
+	}
+	
+	private static String getKey(PomArtifact artifact) {
+		return artifact.getGroupId() + ":" + artifact.getArtifactId();
+	}
+	
+	private static PomDependency copy(PomDependency dependency, Map<String, String> properties) {
+		PomDependency copy = new PomDependency();
+		copy.setGroupId(interpolate(dependency.getGroupId(), properties));
+		copy.setArtifactId(interpolate(dependency.getArtifactId(), properties));
+		copy.setVersion(interpolate(dependency.getVersion(), properties));
+		copy.setScope(interpolate(dependency.getScope(), properties));
+		copy.setOptional(dependency.getOptional());
+		if (dependency.getExclusions() != null) {
+			copy.setExclusions(new PomExclusions());
+			for (PomDependency exclusion : dependency.getExclusions().getExclusions()) {
+				copy.getExclusions().getExclusions().add(copy(exclusion, properties));
+			}
+		}
+		return copy;
+	}
+	
+	/**
+	 * Replaces all the ${...} expressions we know of, unknown expressions are left as is
+	 */
+	static String interpolate(String value, Map<String, String> properties) {
+		for (int depth = 0; value != null && value.contains("${") && depth < MAX_DEPTH; depth++) {
+			StringBuilder builder = new StringBuilder();
+			int position = 0;
+			int start = value.indexOf("${");
+			boolean replaced = false;
+			while (start >= 0) {
+				int end = value.indexOf('}', start);
+				if (end < 0) {
+					break;
+				}
+				String replacement = properties.get(value.substring(start + 2, end));
+				builder.append(value, position, start);
+				if (replacement == null) {
+					builder.append(value, start, end + 1);
+				}
+				else {
+					builder.append(replacement);
+					replaced = true;
+				}
+				position = end + 1;
+				start = value.indexOf("${", position);
+			}
+			builder.append(value, position, value.length());
+			value = builder.toString();
+			if (!replaced) {
+				break;
+			}
+		}
+		return value;
+	}
+	
+	private static class SharedPom {
+		private Pom pom;
+		private long lastModified;
+		public SharedPom(Pom pom, long lastModified) {
+			this.pom = pom;
+			this.lastModified = lastModified;
+		}
+	}
+}
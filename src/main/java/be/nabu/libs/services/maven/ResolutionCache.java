@@ -0,0 +1,359 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the outcome of remote lookups so we don't hit the network for every resolve
+ * Snapshots are checked for updates according to the update policy, much like the maven updatePolicy: "always", "daily" (the default), "never" or "interval:X" (in minutes)
+ * Artifacts that could not be found on any endpoint are not looked up again for a while, the wait doubles with every failure up to a maximum
+ * The cache is shared by all resolvers by default and can optionally be persisted so it survives restarts, the resolvers scope the keys to their endpoints (and repository where relevant)
+ * Changes are not written immediately, the file is rewritten at most once per flush interval (and when the JVM shuts down) so resolving does not wait for the disk
+ */
+public class ResolutionCache {
+	
+	private static final int MAGIC = 0x4e414252;
+	private static final int FORMAT = 1;
+	
+	private static ResolutionCache instance = new ResolutionCache();
+	
+	public static ResolutionCache getInstance() {
+		return instance;
+	}
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private volatile String updatePolicy = "daily";
+	/**
+	 * How long (in ms) we wait before looking up a missing artifact again after the first failure
+	 */
+	private volatile long missingTimeout = 5 * 60 * 1000l;
+	/**
+	 * The maximum wait (in ms) for a missing artifact, no matter how often it failed
+	 */
+	private volatile long maxMissingTimeout = 24 * 60 * 60 * 1000l;
+	private volatile File file;
+	/**
+	 * How long (in ms) changes can remain unwritten
+	 */
+	private volatile long flushInterval = 5000;
+	private AtomicBoolean dirty = new AtomicBoolean(), flushScheduled = new AtomicBoolean(), shutdownHook = new AtomicBoolean();
+	private static ScheduledExecutorService flushExecutor;
+	
+	/**
+	 * Returns true if the snapshot should be checked for updates, the check is claimed immediately so concurrent resolves don't check it again
+	 */
+	public boolean claimUpdate(String key) {
+		Entry entry = getEntry(key);
+		long now = System.currentTimeMillis();
+		synchronized (entry) {
+			if (entry.checked > 0 && now - entry.checked < getUpdateInterval()) {
+				return false;
+			}
+			entry.checked = now;
+		}
+		changed();
+		return true;
+	}
+	
+	/**
+	 * Returns true if the artifact was recently not found and should not be looked up yet
+	 */
+	public boolean isMissing(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return false;
+		}
+		synchronized (entry) {
+			return entry.failures > 0 && System.currentTimeMillis() - entry.missing < getMissingTimeout(entry.failures);
+		}
+	}
+	
+	public void setMissing(String key) {
+		Entry entry = getEntry(key);
+		synchronized (entry) {
+			entry.missing = System.currentTimeMillis();
+			entry.failures++;
+			logger.debug("The artifact " + key + " is missing (" + entry.failures + " times), not checking again for " + getMissingTimeout(entry.failures) + "ms");
+		}
+		changed();
+	}
+	
+	public void setFound(String key) {
+		Entry entry = entries.get(key);
+		if (entry != null && entry.failures > 0) {
+			synchronized (entry) {
+				entry.failures = 0;
+				entry.missing = 0;
+			}
+			changed();
+		}
+	}
+	
+	public void clear() {
+		entries.clear();
+		changed();
+	}
+	
+	/**
+	 * Marks the cache as modified and schedules a write if none is pending
+	 */
+	private void changed() {
+		if (file == null) {
+			return;
+		}
+		dirty.set(true);
+		if (flushScheduled.compareAndSet(false, true)) {
+			getFlushExecutor().schedule(new Runnable() {
+				@Override
+				public void run() {
+					flushScheduled.set(false);
+					flush();
+				}
+			}, flushInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Writes the pending changes to the file (if any)
+	 */
+	public void flush() {
+		if (dirty.getAndSet(false)) {
+			save();
+		}
+	}
+	
+	private static synchronized ScheduledExecutorService getFlushExecutor() {
+		if (flushExecutor == null) {
+			flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "maven-resolution-cache");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return flushExecutor;
+	}
+	
+	private long getMissingTimeout(int failures) {
+		// double the timeout for every failure without overflowing
+		long timeout = missingTimeout << Math.min(failures - 1, 30);
+		return timeout < 0 || timeout > maxMissingTimeout ? maxMissingTimeout : timeout;
+	}
+	
+	private long getUpdateInterval() {
+		String policy = updatePolicy == null ? "daily" : updatePolicy;
+		if (policy.equals("always")) {
+			return 0;
+		}
+		else if (policy.equals("never")) {
+			return Long.MAX_VALUE;
+		}
+		else if (policy.startsWith("interval:")) {
+			return Long.parseLong(policy.substring("interval:".length()).trim()) * 60 * 1000;
+		}
+		else if (policy.equals("daily")) {
+			return 24 * 60 * 60 * 1000l;
+		}
+		throw new IllegalArgumentException("Unknown update policy: " + policy);
+	}
+	
+	private Entry getEntry(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entry = new Entry();
+			Entry existing = entries.putIfAbsent(key, entry);
+			if (existing != null) {
+				entry = existing;
+			}
+		}
+		return entry;
+	}
+	
+	private void load(File file) {
+		entries.clear();
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (input.readInt() != MAGIC || input.readInt() != FORMAT) {
+					return;
+				}
+				int amount = input.readInt();
+				for (int i = 0; i < amount; i++) {
+					String key = input.readUTF();
+					Entry entry = new Entry();
+					entry.checked = input.readLong();
+					entry.missing = input.readLong();
+					entry.failures = input.readInt();
+					entries.put(key, entry);
+				}
+			}
+			finally {
+				input.close();
+			}
+		}
+		catch (Exception e) {
+			logger.warn("Could not read resolution cache " + file + ", ignoring it", e);
+			entries.clear();
+		}
+	}
+	
+	private synchronized void save() {
+		File file = this.file;
+		if (file == null) {
+			return;
+		}
+		try {
+			if (file.getParentFile() != null && !file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+				throw new IOException("Could not create directory: " + file.getParentFile());
+			}
+			// write to a temporary file first so we never leave a partial cache
+			File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				output.writeInt(MAGIC);
+				output.writeInt(FORMAT);
+				// entries can be added while we are writing
+				Map<String, Entry> entries = new HashMap<String, Entry>();
+				long now = System.currentTimeMillis();
+				long interval = getUpdateInterval();
+				for (Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+					synchronized (entry.getValue()) {
+						// checks that are due anyway don't need to be remembered, this also drops the checks for repositories that no longer exist
+						if (entry.getValue().failures > 0 || now - entry.getValue().checked < interval) {
+							Entry copy = new Entry();
+							copy.checked = entry.getValue().checked;
+							copy.missing = entry.getValue().missing;
+							copy.failures = entry.getValue().failures;
+							entries.put(entry.getKey(), copy);
+						}
+					}
+				}
+				output.writeInt(entries.size());
+				for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+					output.writeUTF(entry.getKey());
+					output.writeLong(entry.getValue().checked);
+					output.writeLong(entry.getValue().missing);
+					output.writeInt(entry.getValue().failures);
+				}
+			}
+			finally {
+				output.close();
+			}
+			if (file.exists() && !file.delete()) {
+				throw new IOException("Could not replace resolution cache: " + file);
+			}
+			if (!temporary.renameTo(file)) {
+				throw new IOException("Could not rename resolution cache: " + temporary);
+			}
+		}
+		catch (IOException e) {
+			// the cache is merely an optimization
+			logger.warn("Could not write resolution cache " + file, e);
+		}
+	}
+
+	public String getUpdatePolicy() {
+		return updatePolicy;
+	}
+
+	public void setUpdatePolicy(String updatePolicy) {
+		this.updatePolicy = updatePolicy;
+		// validate it
+		getUpdateInterval();
+	}
+
+	public long getMissingTimeout() {
+		return missingTimeout;
+	}
+
+	public void setMissingTimeout(long missingTimeout) {
+		this.missingTimeout = missingTimeout;
+	}
+
+	public long getMaxMissingTimeout() {
+		return maxMissingTimeout;
+	}
+
+	public void setMaxMissingTimeout(long maxMissingTimeout) {
+		this.maxMissingTimeout = maxMissingTimeout;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Persists the cache in the given file, any existing content is loaded
+	 * Pending changes for a previous file are written first
+	 */
+	public synchronized void setFile(File file) {
+		flush();
+		this.file = file;
+		if (file != null) {
+			load(file);
+			// the changes that are pending when the JVM stops are still written
+			if (shutdownHook.compareAndSet(false, true)) {
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						flush();
+					}
+				}, "maven-resolution-cache-flush"));
+			}
+		}
+	}
+	
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+	
+	private static class Entry {
+		private long checked, missing;
+		private int failures;
+	}
+}
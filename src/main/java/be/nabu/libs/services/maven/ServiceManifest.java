@@ -0,0 +1,271 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.maven.api.Artifact;
+
+/**
+ * A precomputed list of what an artifact exposes: the types, the web service methods and the SPI implementations
+ * When available, the scanner loads only the classes listed here instead of going over every class in the jar
+ * The manifest can be packaged in the jar itself or be put next to it (for file based artifacts), a sidecar is only trusted if it was generated for the current version of the file
+ * The format is line based: "type [class]", "service [class] [method signature]" and "spi [interface] [implementation]"
+ */
+public class ServiceManifest {
+	
+	public static final String RESOURCE = "META-INF/nabu/services.manifest";
+	public static final String SIDECAR_EXTENSION = ".services";
+	private static final int VERSION = 1;
+	
+	private static Logger logger = LoggerFactory.getLogger(ServiceManifest.class);
+	
+	/**
+	 * The last modified of the artifact the manifest was generated for, only checked for sidecars
+	 */
+	private Long lastModified;
+	private List<String> types = new ArrayList<String>();
+	private Map<String, List<String>> services = new LinkedHashMap<String, List<String>>();
+	private Map<String, List<String>> implementations = new LinkedHashMap<String, List<String>>();
+	
+	/**
+	 * Returns the manifest packaged in the artifact or the sidecar next to it, or null if there is no (valid) manifest
+	 */
+	public static ServiceManifest load(MavenClassLoader loader, Artifact artifact) throws IOException {
+		byte[] bytes = loader.getContent(artifact).read(RESOURCE);
+		if (bytes != null) {
+			ServiceManifest manifest = parse(new ByteArrayInputStream(bytes));
+			if (manifest != null) {
+				return manifest;
+			}
+		}
+		return loadSidecar(artifact);
+	}
+	
+	/**
+	 * Returns the sidecar manifest of the artifact if there is one and it was generated for the current version of the file
+	 */
+	public static ServiceManifest loadSidecar(Artifact artifact) throws IOException {
+		File sidecar = getSidecar(artifact);
+		if (sidecar != null && sidecar.isFile()) {
+			InputStream input = new FileInputStream(sidecar);
+			try {
+				ServiceManifest manifest = parse(input);
+				Long artifactModified = artifact.getLastModified() == null ? null : artifact.getLastModified().getTime();
+				if (manifest != null && (manifest.lastModified == null || !manifest.lastModified.equals(artifactModified))) {
+					logger.warn("Ignoring outdated service manifest: " + sidecar);
+					return null;
+				}
+				return manifest;
+			}
+			finally {
+				input.close();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * The location of the sidecar manifest, this is only available for artifacts that are stored as a file
+	 */
+	public static File getSidecar(Artifact artifact) {
+		File file = FileArtifacts.getFile(artifact);
+		if (file != null) {
+			return new File(file.getParentFile(), file.getName() + SIDECAR_EXTENSION);
+		}
+		return null;
+	}
+	
+	/**
+	 * Parses a manifest, returns null if it was written in a format we do not understand or if it is malformed, the caller then scans the artifact itself
+	 */
+	public static ServiceManifest parse(InputStream input) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+		ServiceManifest manifest = new ServiceManifest();
+		boolean versioned = false;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String [] parts = line.split("\\s+");
+			if (parts[0].equals("version") && parts.length == 2) {
+				if (!parts[1].equals(Integer.toString(VERSION))) {
+					logger.warn("Unsupported service manifest version: " + parts[1]);
+					return null;
+				}
+				versioned = true;
+			}
+			else if (parts[0].equals("modified") && parts.length == 2 && parts[1].matches("[0-9]{1,18}")) {
+				manifest.lastModified = Long.parseLong(parts[1]);
+			}
+			else if (parts[0].equals("type") && parts.length == 2) {
+				manifest.addType(parts[1]);
+			}
+			else if (parts[0].equals("service") && parts.length == 3) {
+				manifest.addService(parts[1], parts[2]);
+			}
+			else if (parts[0].equals("spi") && parts.length == 3) {
+				manifest.addImplementation(parts[1], parts[2]);
+			}
+			else {
+				logger.warn("Ignoring malformed service manifest, invalid line: " + line);
+				return null;
+			}
+		}
+		return versioned ? manifest : null;
+	}
+	
+	public void write(OutputStream output) throws IOException {
+		Writer writer = new OutputStreamWriter(output, "UTF-8");
+		writer.write("# nabu service manifest\n");
+		writer.write("version " + VERSION + "\n");
+		if (lastModified != null) {
+			writer.write("modified " + lastModified + "\n");
+		}
+		for (String type : types) {
+			writer.write("type " + type + "\n");
+		}
+		for (Map.Entry<String, List<String>> entry : services.entrySet()) {
+			for (String signature : entry.getValue()) {
+				writer.write("service " + entry.getKey() + " " + signature + "\n");
+			}
+		}
+		for (Map.Entry<String, List<String>> entry : implementations.entrySet()) {
+			for (String implementation : entry.getValue()) {
+				writer.write("spi " + entry.getKey() + " " + implementation + "\n");
+			}
+		}
+		writer.flush();
+	}
+	
+	/**
+	 * Writes the manifest to a temporary file first and then moves it in place so a reader never sees a partial manifest
+	 */
+	public void write(File file) throws IOException {
+		File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+		OutputStream output = new FileOutputStream(temporary);
+		try {
+			write(output);
+		}
+		finally {
+			output.close();
+		}
+		if (file.exists() && !file.delete()) {
+			temporary.delete();
+			throw new IOException("Could not replace the service manifest: " + file);
+		}
+		if (!temporary.renameTo(file)) {
+			temporary.delete();
+			throw new IOException("Could not write the service manifest: " + file);
+		}
+	}
+	
+	/**
+	 * The method name followed by the parameter types, this identifies a method within its class
+	 */
+	public static String getSignature(Method method) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(method.getName()).append("(");
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (i > 0) {
+				builder.append(",");
+			}
+			builder.append(parameterTypes[i].getName());
+		}
+		builder.append(")");
+		return builder.toString();
+	}
+	
+	/**
+	 * Parses a META-INF/services file: one implementation per line, everything after a # is a comment
+	 */
+	static List<String> parseServices(byte [] content) throws IOException {
+		List<String> implementations = new ArrayList<String>();
+		for (String line : new String(content, "UTF-8").split("[\r\n]+")) {
+			int index = line.indexOf('#');
+			if (index >= 0) {
+				line = line.substring(0, index);
+			}
+			line = line.trim();
+			if (!line.isEmpty()) {
+				implementations.add(line);
+			}
+		}
+		return implementations;
+	}
+	
+	public void addType(String className) {
+		types.add(className);
+	}
+	
+	public void addService(String className, String signature) {
+		if (!services.containsKey(className)) {
+			services.put(className, new ArrayList<String>());
+		}
+		services.get(className).add(signature);
+	}
+	
+	public void addImplementation(String interfaceName, String implementationName) {
+		if (!implementations.containsKey(interfaceName)) {
+			implementations.put(interfaceName, new ArrayList<String>());
+		}
+		implementations.get(interfaceName).add(implementationName);
+	}
+
+	public Long getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(Long lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	public List<String> getTypes() {
+		return types;
+	}
+
+	public Map<String, List<String>> getServices() {
+		return services;
+	}
+
+	public Map<String, List<String>> getImplementations() {
+		return implementations;
+	}
+}
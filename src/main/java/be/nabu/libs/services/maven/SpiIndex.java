@@ -0,0 +1,275 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.maven.api.Artifact;
+import be.nabu.libs.maven.api.Repository;
+
+/**
+ * An index of all the SPI implementations (META-INF/services) in a repository, built in a single pass and shared by everyone using that repository
+ * The index is refreshed when it is older than the refresh interval, only artifacts that are new or have been modified since are read again
+ * For file based artifacts only the zip directory and the services entries are read, a valid sidecar service manifest is used instead of the jar if present
+ * The shared instance is only kept as long as someone (e.g. a classloader) references it, the index itself references the repository
+ */
+public class SpiIndex {
+	
+	private static final String SERVICES = "META-INF/services/";
+	
+	private static Map<Repository, WeakReference<SpiIndex>> indexes = new WeakHashMap<Repository, WeakReference<SpiIndex>>();
+	
+	public static SpiIndex getInstance(Repository repository) {
+		synchronized(indexes) {
+			WeakReference<SpiIndex> reference = indexes.get(repository);
+			SpiIndex index = reference == null ? null : reference.get();
+			if (index == null) {
+				index = new SpiIndex(repository);
+				indexes.put(repository, new WeakReference<SpiIndex>(index));
+			}
+			return index;
+		}
+	}
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private Repository repository;
+	/**
+	 * The minimum amount of time (in ms) between two checks of the repository for new or modified artifacts
+	 */
+	private long refreshInterval = 10000;
+	private volatile long lastRefresh;
+	/**
+	 * The indexed artifacts in the order of the repository (newest version first), only accessed while holding the lock
+	 */
+	private Map<String, IndexedArtifact> artifacts = new LinkedHashMap<String, IndexedArtifact>();
+	/**
+	 * The implementations per interface, this is replaced as a whole when the index is refreshed
+	 */
+	private volatile Map<String, List<Provider>> providers = Collections.emptyMap();
+	
+	public SpiIndex(Repository repository) {
+		this.repository = repository;
+	}
+	
+	/**
+	 * The implementations registered for the given interface, in the order of the repository
+	 */
+	public List<Provider> getProviders(String interfaceName) throws IOException {
+		if (isStale()) {
+			synchronized(this) {
+				if (isStale()) {
+					refresh();
+				}
+			}
+		}
+		List<Provider> list = providers.get(interfaceName);
+		return list == null ? Collections.<Provider>emptyList() : list;
+	}
+	
+	private boolean isStale() {
+		return lastRefresh == 0 || System.currentTimeMillis() - lastRefresh >= refreshInterval;
+	}
+	
+	/**
+	 * Checks the repository for new, modified and removed artifacts and updates the index accordingly
+	 */
+	public synchronized void refresh() throws IOException {
+		long started = System.currentTimeMillis();
+		Map<String, IndexedArtifact> current = new LinkedHashMap<String, IndexedArtifact>();
+		int read = 0;
+		for (String groupId : repository.getGroups()) {
+			for (String artifactId : repository.getArtifacts(groupId)) {
+				List<String> versions = new ArrayList<String>(repository.getVersions(groupId, artifactId));
+				Collections.reverse(versions);
+				for (String version : versions) {
+					Artifact artifact = repository.getArtifact(groupId, artifactId, version, false);
+					if (artifact != null && (artifact.getPackaging().equals("jar") || artifact.getPackaging().equals("bundle"))) {
+						String id = groupId + "/" + artifactId + "/" + version;
+						long lastModified = artifact.getLastModified() == null ? 0 : artifact.getLastModified().getTime();
+						IndexedArtifact indexed = artifacts.get(id);
+						if (indexed == null || indexed.lastModified != lastModified) {
+							logger.debug("Indexing SPI implementations of " + id);
+							indexed = new IndexedArtifact(groupId, artifactId, version, lastModified, readServices(artifact));
+							read++;
+						}
+						current.put(id, indexed);
+					}
+				}
+			}
+		}
+		Map<String, List<Provider>> providers = new HashMap<String, List<Provider>>();
+		for (IndexedArtifact indexed : current.values()) {
+			for (Map.Entry<String, List<String>> entry : indexed.services.entrySet()) {
+				List<Provider> list = providers.get(entry.getKey());
+				if (list == null) {
+					list = new ArrayList<Provider>();
+					providers.put(entry.getKey(), list);
+				}
+				for (String implementation : entry.getValue()) {
+					list.add(new Provider(implementation, indexed.groupId, indexed.artifactId, indexed.version));
+				}
+			}
+		}
+		for (Map.Entry<String, List<Provider>> entry : providers.entrySet()) {
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		this.artifacts = current;
+		this.providers = providers;
+		this.lastRefresh = System.currentTimeMillis();
+		logger.debug("Refreshed the SPI index in " + (lastRefresh - started) + "ms, read " + read + " of " + current.size() + " artifacts");
+	}
+	
+	private Map<String, List<String>> readServices(Artifact artifact) {
+		try {
+			ServiceManifest manifest = ServiceManifest.loadSidecar(artifact);
+			// like the scanner, a manifest without spi lines does not tell us there are none
+			if (manifest != null && !manifest.getImplementations().isEmpty()) {
+				return manifest.getImplementations();
+			}
+			Map<String, List<String>> services = new HashMap<String, List<String>>();
+			File file = FileArtifacts.getFile(artifact);
+			// the zip file only reads the central directory and the entries we ask for
+			if (file != null && file.isFile()) {
+				ZipFile zip = new ZipFile(file);
+				try {
+					Enumeration<? extends ZipEntry> entries = zip.entries();
+					while (entries.hasMoreElements()) {
+						ZipEntry entry = entries.nextElement();
+						String name = getServiceName(entry);
+						if (name != null) {
+							InputStream input = zip.getInputStream(entry);
+							try {
+								services.put(name, ServiceManifest.parseServices(MavenClassLoader.toBytes(input)));
+							}
+							finally {
+								input.close();
+							}
+						}
+					}
+				}
+				finally {
+					zip.close();
+				}
+			}
+			else {
+				ZipInputStream input = new ZipInputStream(artifact.getContent());
+				try {
+					ZipEntry entry = null;
+					while ((entry = input.getNextEntry()) != null) {
+						String name = getServiceName(entry);
+						if (name != null) {
+							services.put(name, ServiceManifest.parseServices(MavenClassLoader.toBytes(input)));
+						}
+					}
+				}
+				finally {
+					input.close();
+				}
+			}
+			return services;
+		}
+		catch (IOException e) {
+			// we remember the artifact as having no services, it is read again when it is modified
+			logger.warn("Could not read the SPI implementations of " + artifact.getGroupId() + "/" + artifact.getArtifactId() + "/" + artifact.getVersion(), e);
+			return Collections.emptyMap();
+		}
+	}
+	
+	private static String getServiceName(ZipEntry entry) {
+		String name = entry.getName().replaceAll("^[/]+", "");
+		if (!entry.isDirectory() && name.startsWith(SERVICES) && name.length() > SERVICES.length()) {
+			return name.substring(SERVICES.length());
+		}
+		return null;
+	}
+	
+	public long getRefreshInterval() {
+		return refreshInterval;
+	}
+
+	public void setRefreshInterval(long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	private static class IndexedArtifact {
+		private String groupId, artifactId, version;
+		private long lastModified;
+		private Map<String, List<String>> services;
+		
+		public IndexedArtifact(String groupId, String artifactId, String version, long lastModified, Map<String, List<String>> services) {
+			this.groupId = groupId;
+			this.artifactId = artifactId;
+			this.version = version;
+			this.lastModified = lastModified;
+			this.services = services;
+		}
+	}
+	
+	/**
+	 * An implementation class and the artifact it is registered in
+	 */
+	public static class Provider {
+		private String implementation, groupId, artifactId, version;
+
+		public Provider(String implementation, String groupId, String artifactId, String version) {
+			this.implementation = implementation;
+			this.groupId = groupId;
+			this.artifactId = artifactId;
+			this.version = version;
+		}
+
+		public String getImplementation() {
+			return implementation;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		public String getArtifactId() {
+			return artifactId;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+		
+		@Override
+		public String toString() {
+			return implementation + " (" + groupId + "/" + artifactId + "/" + version + ")";
+		}
+	}
+}
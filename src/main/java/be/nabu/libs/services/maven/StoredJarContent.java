@@ -0,0 +1,77 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * The entries are known (e.g. from a persisted index) but the actual content is only loaded when an entry is read
+ */
+public class StoredJarContent implements JarContent {
+
+	private Set<String> entries;
+	private Callable<JarContent> loader;
+	private volatile JarContent content;
+	
+	public StoredJarContent(Set<String> entries, Callable<JarContent> loader) {
+		this.entries = entries;
+		this.loader = loader;
+	}
+	
+	@Override
+	public boolean contains(String path) {
+		return entries.contains(path);
+	}
+
+	@Override
+	public byte[] read(String path) throws IOException {
+		return entries.contains(path) ? getContent().read(path) : null;
+	}
+
+	@Override
+	public Set<String> getEntries() {
+		return entries;
+	}
+
+	@Override
+	public long getSize() {
+		return content == null ? 0 : content.getSize();
+	}
+	
+	private JarContent getContent() throws IOException {
+		if (content == null) {
+			synchronized(this) {
+				if (content == null) {
+					try {
+						content = loader.call();
+					}
+					catch (IOException e) {
+						throw e;
+					}
+					catch (Exception e) {
+						throw new IOException(e);
+					}
+				}
+			}
+		}
+		return content;
+	}
+}
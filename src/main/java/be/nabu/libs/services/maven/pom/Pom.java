@@ -17,7 +17,10 @@
 
 package be.nabu.libs.services.maven.pom;
 
+import java.util.Map;
+
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 @XmlRootElement(name = "project")
 public class Pom extends PomArtifact {
@@ -25,6 +28,9 @@ public class Pom extends PomArtifact {
 	private PomArtifact parent;
 	private PomDependencies dependencies;
 	private PomExclusions exclusions;
+	private PomDependencyManagement dependencyManagement;
+	private Map<String, String> properties;
+	private boolean inheritsSnapshots;
 	
 	public PomDependencies getDependencies() {
 		return dependencies;
@@ -48,5 +54,31 @@ public class Pom extends PomArtifact {
 	public void setExclusions(PomExclusions exclusions) {
 		this.exclusions = exclusions;
 	}
+
+	public PomDependencyManagement getDependencyManagement() {
+		return dependencyManagement;
+	}
+	public void setDependencyManagement(PomDependencyManagement dependencyManagement) {
+		this.dependencyManagement = dependencyManagement;
+	}
+
+	@XmlTransient
+	public Map<String, String> getProperties() {
+		return properties;
+	}
+	public void setProperties(Map<String, String> properties) {
+		this.properties = properties;
+	}
+	
+	/**
+	 * Whether the (effective) pom was calculated with snapshot parents or boms, it can change without the artifact itself changing
+	 */
+	@XmlTransient
+	public boolean isInheritsSnapshots() {
+		return inheritsSnapshots;
+	}
+	public void setInheritsSnapshots(boolean inheritsSnapshots) {
+		this.inheritsSnapshots = inheritsSnapshots;
+	}
 	
 }
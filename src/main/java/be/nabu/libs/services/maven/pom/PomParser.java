@@ -0,0 +1,345 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven.pom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A small single pass pom parser that fills in the pom model directly
+ * It deliberately does not use any XML API that relies on SPI lookups (JAXB, DOM, StAX...) because it is used by the maven classloader to resolve dependencies
+ * Only the elements we map (including properties and the dependency management) are interpreted, everything else (including doctypes) is skipped, entities other than the predefined and numeric ones are not expanded
+ */
+public class PomParser {
+	
+	private static Pattern ENCODING = Pattern.compile("^<\\?xml[^>]*encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+	
+	private String xml;
+	private int position;
+	
+	private Pom pom;
+	/**
+	 * The element paths that map to an object we are filling in
+	 */
+	private Map<String, PomArtifact> targets = new HashMap<String, PomArtifact>();
+	private PomDependencies dependencies;
+	private PomDependency dependency;
+	
+	public static Pom parse(InputStream input) throws IOException, ParseException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte [] buffer = new byte[4096];
+		int read = 0;
+		while ((read = input.read(buffer)) != -1) {
+			output.write(buffer, 0, read);
+		}
+		return new PomParser(decode(output.toByteArray())).parse();
+	}
+	
+	private PomParser(String xml) {
+		this.xml = xml;
+	}
+	
+	private static String decode(byte [] bytes) throws IOException {
+		if (bytes.length >= 3 && (bytes[0] & 0xff) == 0xef && (bytes[1] & 0xff) == 0xbb && (bytes[2] & 0xff) == 0xbf) {
+			return new String(bytes, 3, bytes.length - 3, "UTF-8");
+		}
+		else if (bytes.length >= 2 && (((bytes[0] & 0xff) == 0xfe && (bytes[1] & 0xff) == 0xff) || ((bytes[0] & 0xff) == 0xff && (bytes[1] & 0xff) == 0xfe))) {
+			return new String(bytes, "UTF-16");
+		}
+		// the declaration itself is always ascii compatible for the encodings we support
+		Matcher matcher = ENCODING.matcher(new String(bytes, 0, Math.min(bytes.length, 256), "ISO-8859-1"));
+		String encoding = matcher.find() ? matcher.group(1) : "UTF-8";
+		if (!Charset.isSupported(encoding)) {
+			throw new IOException("Unsupported encoding: " + encoding);
+		}
+		return new String(bytes, encoding);
+	}
+	
+	private Pom parse() throws ParseException {
+		List<Integer> lengths = new ArrayList<Integer>();
+		StringBuilder path = new StringBuilder();
+		StringBuilder text = new StringBuilder();
+		while (position < xml.length()) {
+			int start = xml.indexOf('<', position);
+			if (start < 0) {
+				break;
+			}
+			if (!lengths.isEmpty()) {
+				text.append(unescape(xml.substring(position, start), position));
+			}
+			if (xml.startsWith("<!--", start)) {
+				position = skip(start, "-->");
+			}
+			else if (xml.startsWith("<![CDATA[", start)) {
+				int end = xml.indexOf("]]>", start);
+				if (end < 0) {
+					throw new ParseException("Unterminated CDATA section", start);
+				}
+				text.append(xml, start + "<![CDATA[".length(), end);
+				position = end + "]]>".length();
+			}
+			else if (xml.startsWith("<?", start)) {
+				position = skip(start, "?>");
+			}
+			else if (xml.startsWith("<!", start)) {
+				position = skipDeclaration(start);
+			}
+			else if (xml.startsWith("</", start)) {
+				int end = xml.indexOf('>', start);
+				if (end < 0) {
+					throw new ParseException("Unterminated end tag", start);
+				}
+				String name = getLocalName(xml.substring(start + 2, end).trim());
+				if (lengths.isEmpty() || !path.substring(lengths.get(lengths.size() - 1)).equals(name)) {
+					throw new ParseException("Unexpected end tag: " + name, start);
+				}
+				end(path.toString(), name, text.toString().trim());
+				text.setLength(0);
+				int length = lengths.remove(lengths.size() - 1);
+				path.setLength(length == 0 ? 0 : length - 1);
+				position = end + 1;
+			}
+			else {
+				int end = findTagEnd(start);
+				String tag = xml.substring(start + 1, end);
+				boolean empty = tag.endsWith("/");
+				int nameEnd = 0;
+				while (nameEnd < tag.length() && !Character.isWhitespace(tag.charAt(nameEnd)) && tag.charAt(nameEnd) != '/') {
+					nameEnd++;
+				}
+				String name = getLocalName(tag.substring(0, nameEnd));
+				if (lengths.isEmpty() && pom != null) {
+					throw new ParseException("Multiple root elements", start);
+				}
+				if (!lengths.isEmpty()) {
+					path.append('/');
+				}
+				lengths.add(path.length());
+				path.append(name);
+				start(path.toString(), start);
+				text.setLength(0);
+				if (empty) {
+					end(path.toString(), name, "");
+					int length = lengths.remove(lengths.size() - 1);
+					path.setLength(length == 0 ? 0 : length - 1);
+				}
+				position = end + 1;
+			}
+		}
+		if (!lengths.isEmpty()) {
+			throw new ParseException("Unterminated element: " + path, position);
+		}
+		if (pom == null) {
+			throw new ParseException("No project found", 0);
+		}
+		return pom;
+	}
+	
+	private void start(String path, int offset) throws ParseException {
+		if (pom == null) {
+			if (!path.equals("project")) {
+				throw new ParseException("Expecting a project as root element, not: " + path, offset);
+			}
+			pom = new Pom();
+			targets.put(path, pom);
+		}
+		else if (path.equals("project/parent")) {
+			pom.setParent(new PomArtifact());
+			targets.put(path, pom.getParent());
+		}
+		else if (path.equals("project/dependencies")) {
+			pom.setDependencies(new PomDependencies());
+			dependencies = pom.getDependencies();
+		}
+		else if (path.equals("project/dependencyManagement")) {
+			pom.setDependencyManagement(new PomDependencyManagement());
+		}
+		else if (path.equals("project/dependencyManagement/dependencies")) {
+			pom.getDependencyManagement().setDependencies(new PomDependencies());
+			dependencies = pom.getDependencyManagement().getDependencies();
+		}
+		else if (path.equals("project/dependencies/dependency") || path.equals("project/dependencyManagement/dependencies/dependency")) {
+			dependency = new PomDependency();
+			dependencies.getDependencies().add(dependency);
+			targets.put(path, dependency);
+		}
+		else if (path.equals("project/dependencies/dependency/exclusions") || path.equals("project/dependencyManagement/dependencies/dependency/exclusions")) {
+			dependency.setExclusions(new PomExclusions());
+		}
+		else if (path.equals("project/dependencies/dependency/exclusions/exclusion") || path.equals("project/dependencyManagement/dependencies/dependency/exclusions/exclusion")) {
+			PomDependency exclusion = new PomDependency();
+			dependency.getExclusions().getExclusions().add(exclusion);
+			targets.put(path, exclusion);
+		}
+		else if (path.equals("project/properties")) {
+			pom.setProperties(new LinkedHashMap<String, String>());
+		}
+		else if (path.equals("project/exclusions")) {
+			pom.setExclusions(new PomExclusions());
+		}
+		else if (path.equals("project/exclusions/exclusion")) {
+			PomDependency exclusion = new PomDependency();
+			pom.getExclusions().getExclusions().add(exclusion);
+			targets.put(path, exclusion);
+		}
+	}
+	
+	private void end(String path, String name, String text) {
+		if (path.equals("project/properties/" + name)) {
+			pom.getProperties().put(name, text);
+			return;
+		}
+		PomArtifact target = targets.get(path.substring(0, Math.max(0, path.length() - name.length() - 1)));
+		if (target == null) {
+			return;
+		}
+		if (name.equals("groupId")) {
+			target.setGroupId(text);
+		}
+		else if (name.equals("artifactId")) {
+			target.setArtifactId(text);
+		}
+		else if (name.equals("version")) {
+			target.setVersion(text);
+		}
+		else if (name.equals("scope") && target instanceof PomDependency) {
+			((PomDependency) target).setScope(text);
+		}
+		else if (name.equals("optional") && target instanceof PomDependency) {
+			((PomDependency) target).setOptional(text.equals("true") || text.equals("1"));
+		}
+	}
+	
+	private int skip(int start, String terminator) throws ParseException {
+		int end = xml.indexOf(terminator, start);
+		if (end < 0) {
+			throw new ParseException("Expecting " + terminator, start);
+		}
+		return end + terminator.length();
+	}
+	
+	/**
+	 * Skips a declaration like a doctype, including a possible internal subset
+	 */
+	private int skipDeclaration(int start) throws ParseException {
+		int depth = 0;
+		for (int i = start + 2; i < xml.length(); i++) {
+			char character = xml.charAt(i);
+			if (character == '[') {
+				depth++;
+			}
+			else if (character == ']') {
+				depth--;
+			}
+			else if (character == '>' && depth <= 0) {
+				return i + 1;
+			}
+		}
+		throw new ParseException("Unterminated declaration", start);
+	}
+	
+	/**
+	 * Finds the end of a start tag, taking into account that attribute values can contain a '>'
+	 */
+	private int findTagEnd(int start) throws ParseException {
+		char quote = 0;
+		for (int i = start + 1; i < xml.length(); i++) {
+			char character = xml.charAt(i);
+			if (quote != 0) {
+				if (character == quote) {
+					quote = 0;
+				}
+			}
+			else if (character == '"' || character == '\'') {
+				quote = character;
+			}
+			else if (character == '>') {
+				return i;
+			}
+		}
+		throw new ParseException("Unterminated start tag", start);
+	}
+	
+	private static String getLocalName(String name) {
+		int index = name.indexOf(':');
+		return index < 0 ? name : name.substring(index + 1);
+	}
+	
+	/**
+	 * The offset is the position of the text in the document, it is used to report where a malformed entity reference is
+	 */
+	private static String unescape(String text, int offset) throws ParseException {
+		int index = text.indexOf('&');
+		if (index < 0) {
+			return text;
+		}
+		StringBuilder builder = new StringBuilder();
+		int position = 0;
+		while (index >= 0) {
+			builder.append(text, position, index);
+			int end = text.indexOf(';', index);
+			if (end < 0) {
+				throw new ParseException("Unterminated entity reference", offset + index);
+			}
+			String entity = text.substring(index + 1, end);
+			if (entity.equals("lt")) {
+				builder.append('<');
+			}
+			else if (entity.equals("gt")) {
+				builder.append('>');
+			}
+			else if (entity.equals("amp")) {
+				builder.append('&');
+			}
+			else if (entity.equals("quot")) {
+				builder.append('"');
+			}
+			else if (entity.equals("apos")) {
+				builder.append('\'');
+			}
+			else if (entity.startsWith("#")) {
+				try {
+					builder.appendCodePoint(entity.startsWith("#x") ? Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1)));
+				}
+				// not a number or not a valid code point
+				catch (IllegalArgumentException e) {
+					throw new ParseException("Invalid character reference: &" + entity + ";", offset + index);
+				}
+			}
+			else {
+				// we don't expand custom entities
+				builder.append('&').append(entity).append(';');
+			}
+			position = end + 1;
+			index = text.indexOf('&', position);
+		}
+		builder.append(text, position, text.length());
+		return builder.toString();
+	}
+}
@@ -15,115 +15,214 @@
 * along with this program. If not, see <https://www.gnu.org/licenses/>.
 */
 
+
 package be.nabu.utils.services;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.NoSuchElementException;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import be.nabu.libs.maven.api.Artifact;
 import be.nabu.libs.services.maven.MavenClassLoader;
+import be.nabu.libs.services.maven.SpiIndex;
 
 /**
  * Source code of the class in resources (renamed though)
+ * The providers are looked up and instantiated lazily while iterating, instances that were created are reused by later iterations
+ * Service loaders are kept per classloader, for maven classloaders the SPI index of the repository is used, other classloaders fall back to the default service loader
+ * A maven classloader keeps its own service loaders so they are discarded along with it, for other classloaders they are kept until they are released
  */
 public class ServiceLoader2<S> implements Iterable<S> {
 	
-	private static Map<Class<?>, ServiceLoader2<?>> serviceLoaders = new HashMap<Class<?>, ServiceLoader2<?>>();
+	private static ConcurrentMap<ClassLoader, ConcurrentMap<Class<?>, ServiceLoader2<?>>> serviceLoaders = new ConcurrentHashMap<ClassLoader, ConcurrentMap<Class<?>, ServiceLoader2<?>>>();
 	
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	
 	private Class<S> clazz;
-	private List<S> instances;
+	private ClassLoader loader;
+	/**
+	 * The instances that have been created so far, guarded by this
+	 */
+	private List<S> instances = new ArrayList<S>();
+	/**
+	 * The providers that have not been instantiated yet, these are created on first use
+	 */
+	private Iterator<SpiIndex.Provider> providers;
+	private Iterator<S> fallback;
+	private Set<String> implementations = new HashSet<String>();
 
-	private ServiceLoader2(Class<S> clazz) {
+	private ServiceLoader2(Class<S> clazz, ClassLoader loader) {
 		this.clazz = clazz;
+		this.loader = loader;
 		logger.info("Starting custom serviceloader for " + clazz);
 	}
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
+	/**
+	 * Returns all the implementations, this instantiates every provider
+	 */
 	public static <S> List<S> load(Class<S> clazz) {
-		if (!serviceLoaders.containsKey(clazz)) {
-			synchronized (serviceLoaders) {
-				if (!serviceLoaders.containsKey(clazz)) {
-					serviceLoaders.put(clazz, new ServiceLoader2(clazz));
-				}
-			}
+		List<S> instances = new ArrayList<S>();
+		for (S instance : of(clazz)) {
+			instances.add(instance);
 		}
-		return (List<S>) serviceLoaders.get(clazz).getInstances();
+		return instances;
 	}
-
+	
+	/**
+	 * The service loader for the classloader that loaded this class
+	 */
+	public static <S> ServiceLoader2<S> of(Class<S> clazz) {
+		return of(clazz, ServiceLoader2.class.getClassLoader());
+	}
+	
 	@SuppressWarnings("unchecked")
-	private List<S> getInstances() {
-		if (instances == null) {
-			synchronized(this) {
-				if (instances == null) {
-					logger.info("Finding SPI references for: " + clazz.getName() + " in classloader: " + getClass().getClassLoader());
-					instances = new ArrayList<S>();
-					MavenClassLoader loader = (MavenClassLoader) getClass().getClassLoader();
-					try {
-						for (String groupId : loader.getRepository().getGroups()) {
-							for (String artifactId : loader.getRepository().getArtifacts(groupId)) {
-								List<String> versions = new ArrayList<String>(loader.getRepository().getVersions(groupId, artifactId));
-								Collections.reverse(versions);
-								for (String version : versions) {
-									logger.debug("Checking " + groupId + "/" + artifactId + "/" + version);
-									Artifact artifact = loader.getRepository().getArtifact(groupId, artifactId, version, false);
-									if (artifact != null && (artifact.getPackaging().equals("jar") || artifact.getPackaging().equals("bundle"))) {
-										ZipInputStream input = new ZipInputStream(artifact.getContent());
-										try {
-											ZipEntry entry = null;
-											while ((entry = input.getNextEntry()) != null) {
-												String name = entry.getName().replaceAll("^[/]+", "");
-												if (name.equals("META-INF/services/" + clazz.getName())) {
-													byte [] content = MavenClassLoader.toBytes(input);
-													for (String implementation : new String(content).trim().replaceAll("\r", "").split("\n")) {
-														logger.debug("Found implementation: " + implementation);
-														try {
-															instances.add((S) loader.loadClass(implementation).newInstance());
-														}
-														catch (ClassNotFoundException e) {
-															// ignore
-														}
-														catch (InstantiationException e) {
-															// ignore
-														}
-														catch (IllegalAccessException e) {
-															// ignore
-														}
-													}
-												}
-											}
-										}
-										finally {
-											input.close();
-										}
-									}
-								}
-							}
-						}
-					}
-					catch (IOException e) {
-						throw new RuntimeException(e);
+	public static <S> ServiceLoader2<S> of(Class<S> clazz, ClassLoader loader) {
+		ConcurrentMap<Class<?>, ServiceLoader2<?>> loaders = loader instanceof MavenClassLoader ? ((MavenClassLoader) loader).getServiceLoaders() : serviceLoaders.get(loader);
+		if (loaders == null) {
+			loaders = new ConcurrentHashMap<Class<?>, ServiceLoader2<?>>();
+			ConcurrentMap<Class<?>, ServiceLoader2<?>> existing = serviceLoaders.putIfAbsent(loader, loaders);
+			if (existing != null) {
+				loaders = existing;
+			}
+		}
+		ServiceLoader2<?> serviceLoader = loaders.get(clazz);
+		if (serviceLoader == null) {
+			serviceLoader = new ServiceLoader2<S>(clazz, loader);
+			ServiceLoader2<?> existing = loaders.putIfAbsent(clazz, serviceLoader);
+			if (existing != null) {
+				serviceLoader = existing;
+			}
+		}
+		return (ServiceLoader2<S>) serviceLoader;
+	}
+	
+	/**
+	 * Forgets the service loaders (and the instances they created) for the given classloader, this should be done when it is discarded
+	 * This is not necessary for maven classloaders, their service loaders are discarded along with them
+	 */
+	public static void release(ClassLoader loader) {
+		if (loader instanceof MavenClassLoader) {
+			((MavenClassLoader) loader).getServiceLoaders().clear();
+		}
+		else {
+			serviceLoaders.remove(loader);
+		}
+	}
+	
+	/**
+	 * Returns the first implementation without instantiating the others, or null if there is none
+	 */
+	public S findFirst() {
+		return get(0);
+	}
+	
+	/**
+	 * Returns the implementation at the given position, instantiating providers until it is reached, or null if there are not that many
+	 */
+	private synchronized S get(int index) {
+		while (instances.size() <= index) {
+			S next = next();
+			if (next == null) {
+				return null;
+			}
+			instances.add(next);
+		}
+		return instances.get(index);
+	}
+	
+	private S next() {
+		if (loader instanceof MavenClassLoader) {
+			if (providers == null) {
+				logger.info("Finding SPI references for: " + clazz.getName() + " in classloader: " + loader);
+				try {
+					providers = ((MavenClassLoader) loader).getSpiIndex().getProviders(clazz.getName()).iterator();
+				}
+				catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			while (providers.hasNext()) {
+				SpiIndex.Provider provider = providers.next();
+				// the same implementation can be registered in multiple versions of an artifact, the newest one is listed first
+				if (implementations.add(provider.getImplementation())) {
+					logger.debug("Found implementation: " + provider);
+					S instance = newInstance(provider.getImplementation());
+					if (instance != null) {
+						return instance;
 					}
 				}
 			}
 		}
-		return instances;
+		else {
+			if (fallback == null) {
+				fallback = ServiceLoader.load(clazz, loader).iterator();
+			}
+			while (true) {
+				try {
+					return fallback.hasNext() ? fallback.next() : null;
+				}
+				catch (ServiceConfigurationError e) {
+					logger.warn("Could not load an implementation of " + clazz.getName(), e);
+				}
+			}
+		}
+		return null;
+	}
+	
+	private S newInstance(String implementation) {
+		try {
+			Class<?> implementationClass = loader.loadClass(implementation);
+			if (!clazz.isAssignableFrom(implementationClass)) {
+				logger.warn("The implementation " + implementation + " is not a " + clazz.getName());
+				return null;
+			}
+			return clazz.cast(implementationClass.newInstance());
+		}
+		catch (ClassNotFoundException e) {
+			// ignore
+		}
+		catch (InstantiationException e) {
+			// ignore
+		}
+		catch (IllegalAccessException e) {
+			// ignore
+		}
+		return null;
 	}
 	
 	@Override
 	public Iterator<S> iterator() {
-		return getInstances().iterator();
+		return new Iterator<S>() {
+			private int index;
+			private S next;
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					next = get(index);
+				}
+				return next != null;
+			}
+			@Override
+			public S next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				S current = next;
+				next = null;
+				index++;
+				return current;
+			}
+		};
 	}
 	
 }
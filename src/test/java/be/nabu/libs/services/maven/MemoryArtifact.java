@@ -0,0 +1,178 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import be.nabu.libs.maven.api.Artifact;
+
+/**
+ * An artifact that is kept in memory, the tests can change its last modified and check how many times its content was read
+ */
+public class MemoryArtifact implements Artifact {
+
+	private String groupId, artifactId, version, packaging;
+	private byte [] pom, content;
+	private volatile Date lastModified = new Date(0);
+	private boolean test;
+	private AtomicInteger reads = new AtomicInteger();
+	
+	public MemoryArtifact(String groupId, String artifactId, String version, String packaging, byte [] pom, byte [] content) {
+		this.groupId = groupId;
+		this.artifactId = artifactId;
+		this.version = version;
+		this.packaging = packaging;
+		this.pom = pom;
+		this.content = content;
+	}
+	
+	/**
+	 * A jar with the given entries and a pom that declares the given dependencies (as xml)
+	 */
+	public static MemoryArtifact jar(String groupId, String artifactId, String version, String dependencies, Map<String, String> entries) {
+		try {
+			return new MemoryArtifact(groupId, artifactId, version, "jar", project(groupId, artifactId, version, dependencies).getBytes("UTF-8"), zip(entries));
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * A jar with a single entry "[artifactId]/[artifactId].txt" that contains "[artifactId]/[version]"
+	 */
+	public static MemoryArtifact jar(String groupId, String artifactId, String version, String dependencies) {
+		return jar(groupId, artifactId, version, dependencies, entries(artifactId + "/" + artifactId + ".txt", artifactId + "/" + version));
+	}
+	
+	public static MemoryArtifact pom(String groupId, String artifactId, String version, String pom) {
+		try {
+			return new MemoryArtifact(groupId, artifactId, version, "pom", pom.getBytes("UTF-8"), null);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * The xml of a pom that declares the given dependencies (as xml)
+	 */
+	public static String project(String groupId, String artifactId, String version, String dependencies) {
+		return "<project><groupId>" + groupId + "</groupId><artifactId>" + artifactId + "</artifactId><version>" + version + "</version><dependencies>" + dependencies + "</dependencies></project>";
+	}
+	
+	public static String dependency(String groupId, String artifactId, String version, String extra) {
+		return "<dependency><groupId>" + groupId + "</groupId><artifactId>" + artifactId + "</artifactId><version>" + version + "</version>" + extra + "</dependency>";
+	}
+	
+	public static Map<String, String> entries(String...namesAndContents) {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		for (int i = 0; i < namesAndContents.length; i += 2) {
+			entries.put(namesAndContents[i], namesAndContents[i + 1]);
+		}
+		return entries;
+	}
+	
+	public static byte [] zip(Map<String, String> entries) {
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			ZipOutputStream zip = new ZipOutputStream(output);
+			for (Map.Entry<String, String> entry : entries.entrySet()) {
+				zip.putNextEntry(new ZipEntry(entry.getKey()));
+				zip.write(entry.getValue().getBytes("UTF-8"));
+			}
+			zip.close();
+			return output.toByteArray();
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public String getArtifactId() {
+		return artifactId;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		reads.incrementAndGet();
+		return content == null ? null : new ByteArrayInputStream(content);
+	}
+
+	@Override
+	public String getGroupId() {
+		return groupId;
+	}
+
+	@Override
+	public Date getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(Date lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	@Override
+	public String getPackaging() {
+		return packaging;
+	}
+
+	@Override
+	public InputStream getPom() throws IOException {
+		return pom == null ? null : new ByteArrayInputStream(pom);
+	}
+
+	@Override
+	public String getVersion() {
+		return version;
+	}
+
+	@Override
+	public boolean isTest() {
+		return test;
+	}
+
+	public void setTest(boolean test) {
+		this.test = test;
+	}
+	
+	public byte [] getBytes() {
+		return content;
+	}
+	
+	public int getReads() {
+		return reads.get();
+	}
+	
+	@Override
+	public String toString() {
+		return groupId + "/" + artifactId + "/" + version;
+	}
+}
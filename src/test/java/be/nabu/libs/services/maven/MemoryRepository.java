@@ -0,0 +1,145 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import be.nabu.libs.maven.api.Artifact;
+import be.nabu.libs.maven.api.DomainRepository;
+import be.nabu.libs.maven.api.WritableRepository;
+
+/**
+ * A repository that is kept in memory, artifacts created in it (e.g. by a download) are kept as {@link MemoryArtifact}s
+ * The repository itself is a proxy so the tests only depend on the methods of the api that they actually use
+ */
+public class MemoryRepository {
+	
+	private Map<String, Artifact> artifacts = new ConcurrentHashMap<String, Artifact>();
+	private List<Artifact> internal = new CopyOnWriteArrayList<Artifact>();
+	private DomainRepository repository = (DomainRepository) Proxy.newProxyInstance(MemoryRepository.class.getClassLoader(), new Class<?>[] { DomainRepository.class, WritableRepository.class }, new InvocationHandler() {
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("getArtifact")) {
+				return artifacts.get(getKey((String) args[0], (String) args[1], (String) args[2], args.length > 3 && (Boolean) args[3]));
+			}
+			else if (method.getName().equals("getGroups")) {
+				TreeSet<String> groups = new TreeSet<String>();
+				for (Artifact artifact : artifacts.values()) {
+					groups.add(artifact.getGroupId());
+				}
+				return groups;
+			}
+			else if (method.getName().equals("getArtifacts")) {
+				TreeSet<String> names = new TreeSet<String>();
+				for (Artifact artifact : artifacts.values()) {
+					if (artifact.getGroupId().equals(args[0])) {
+						names.add(artifact.getArtifactId());
+					}
+				}
+				return names;
+			}
+			else if (method.getName().equals("getVersions")) {
+				TreeSet<String> versions = new TreeSet<String>();
+				for (Artifact artifact : artifacts.values()) {
+					if (artifact.getGroupId().equals(args[0]) && artifact.getArtifactId().equals(args[1])) {
+						versions.add(artifact.getVersion());
+					}
+				}
+				return versions;
+			}
+			else if (method.getName().equals("create")) {
+				InputStream input = (InputStream) args[4];
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				byte [] buffer = new byte[4096];
+				int read = 0;
+				while ((read = input.read(buffer)) != -1) {
+					output.write(buffer, 0, read);
+				}
+				MemoryArtifact artifact = new MemoryArtifact((String) args[0], (String) args[1], (String) args[2], (String) args[3], null, output.toByteArray());
+				artifact.setTest((Boolean) args[5]);
+				add(artifact);
+				return artifact;
+			}
+			else if (method.getName().equals("getInternalArtifacts")) {
+				return new ArrayList<Artifact>(internal);
+			}
+			else if (method.getName().equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			else if (method.getName().equals("equals")) {
+				return proxy == args[0];
+			}
+			else if (method.getName().equals("toString")) {
+				return "memory repository " + artifacts.keySet();
+			}
+			return null;
+		}
+	});
+	
+	public <T extends Artifact> T add(T artifact) {
+		artifacts.put(getKey(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(), artifact.isTest()), artifact);
+		return artifact;
+	}
+	
+	/**
+	 * Adds an artifact that is also listed as one of the internal artifacts of the domain repository
+	 */
+	public <T extends Artifact> T addInternal(T artifact) {
+		internal.add(add(artifact));
+		return artifact;
+	}
+	
+	public void remove(String groupId, String artifactId, String version) {
+		internal.remove(artifacts.remove(getKey(groupId, artifactId, version, false)));
+	}
+	
+	public Artifact get(String groupId, String artifactId, String version) {
+		return artifacts.get(getKey(groupId, artifactId, version, false));
+	}
+	
+	/**
+	 * The content of the artifact if it was created in (or added as a memory artifact to) this repository
+	 */
+	public byte [] getBytes(String groupId, String artifactId, String version) {
+		Artifact artifact = get(groupId, artifactId, version);
+		return artifact instanceof MemoryArtifact ? ((MemoryArtifact) artifact).getBytes() : null;
+	}
+	
+	public boolean isEmpty() {
+		return artifacts.isEmpty();
+	}
+	
+	public DomainRepository getRepository() {
+		return repository;
+	}
+	
+	private static String getKey(String groupId, String artifactId, String version, boolean test) {
+		return groupId + "/" + artifactId + "/" + version + (test ? "/test" : "");
+	}
+}
@@ -0,0 +1,452 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import be.nabu.libs.maven.api.Artifact;
+import junit.framework.TestCase;
+
+public class TestArtifactDownloader extends TestCase {
+	
+	private static final String PATH = "/repository/be/nabu/test/1.0/test-1.0.jar";
+	
+	public void testHedging() throws IOException {
+		HttpServer slow = start(files(PATH, "slow".getBytes()), 5000, null);
+		HttpServer fast = start(files(PATH, "fast".getBytes()), 0, null);
+		try {
+			MemoryRepository created = new MemoryRepository();
+			ArtifactDownloader downloader = newDownloader(getEndpoint(slow), getEndpoint(fast));
+			downloader.setHedgeDelay(100);
+			long started = System.currentTimeMillis();
+			assertNotNull(downloader.download(created.getRepository(), "be.nabu", "test", "1.0", "jar"));
+			assertTrue(System.currentTimeMillis() - started < 4000);
+			assertEquals("fast", new String(created.getBytes("be.nabu", "test", "1.0")));
+		}
+		finally {
+			slow.stop(0);
+			fast.stop(0);
+		}
+	}
+	
+	public void testFailover() throws IOException {
+		HttpServer missing = start(files("/other", "other".getBytes()), 0, null);
+		HttpServer available = start(files(PATH, "available".getBytes()), 0, null);
+		try {
+			MemoryRepository created = new MemoryRepository();
+			// the first endpoint does not exist at all
+			ArtifactDownloader downloader = newDownloader(URI.create("http://localhost:1/repository"), getEndpoint(missing), getEndpoint(available));
+			downloader.setConnectTimeout(1000);
+			assertNotNull(downloader.download(created.getRepository(), "be.nabu", "test", "1.0", "jar"));
+			assertEquals("available", new String(created.getBytes("be.nabu", "test", "1.0")));
+			assertNull(downloader.download(created.getRepository(), "be.nabu", "missing", "1.0", "jar"));
+		}
+		finally {
+			missing.stop(0);
+			available.stop(0);
+		}
+	}
+	
+	public void testResume() throws IOException, NoSuchAlgorithmException {
+		byte [] content = new byte[100000];
+		new Random(1).nextBytes(content);
+		Map<String, byte[]> files = files(PATH, content);
+		files.put(PATH + ".sha1", (toHex(MessageDigest.getInstance("SHA-1").digest(content)) + "  test-1.0.jar").getBytes());
+		List<String> ranges = new ArrayList<String>();
+		HttpServer server = start(files, 0, ranges);
+		try {
+			MemoryRepository created = new MemoryRepository();
+			ArtifactDownloader downloader = newDownloader(getEndpoint(server));
+			assertNotNull(downloader.download(created.getRepository(), "be.nabu", "test", "1.0", "jar"));
+			assertTrue(Arrays.equals(content, created.getBytes("be.nabu", "test", "1.0")));
+			// the first transfer is cut off halfway, the second one resumes it
+			assertEquals(Arrays.asList(null, "bytes=" + (content.length / 2) + "-"), ranges);
+			// once published, nothing of the partial download is left behind
+			File partial = new File(downloader.getTemporaryDirectory(), PATH.substring("/repository/".length()) + PartialDownload.EXTENSION);
+			assertFalse(partial.exists());
+			assertFalse(new File(partial.getPath() + PartialDownload.LOCK_EXTENSION).exists());
+			assertFalse(new File(partial.getPath() + PartialDownload.VALIDATOR_EXTENSION).exists());
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+	
+	public void testResumeChangedFile() throws IOException {
+		byte [] original = new byte[100000];
+		new Random(1).nextBytes(original);
+		Map<String, byte[]> files = files(PATH, original);
+		List<String> ranges = new ArrayList<String>();
+		HttpServer server = start(files, 0, ranges);
+		try {
+			MemoryRepository created = new MemoryRepository();
+			ArtifactDownloader downloader = newDownloader(getEndpoint(server));
+			downloader.setRetries(0);
+			try {
+				downloader.download(created.getRepository(), "be.nabu", "test", "1.0", "jar");
+				fail("The transfer should be cut off");
+			}
+			catch (IOException e) {
+				// expected
+			}
+			// the file is redeployed before the partial download is resumed
+			byte [] redeployed = new byte[100000];
+			new Random(2).nextBytes(redeployed);
+			files.put(PATH, redeployed);
+			assertNotNull(downloader.download(created.getRepository(), "be.nabu", "test", "1.0", "jar"));
+			// the range is requested but the server sends the new file in full instead of appending it to the old part
+			assertEquals(Arrays.asList(null, "bytes=" + (original.length / 2) + "-"), ranges);
+			assertTrue(Arrays.equals(redeployed, created.getBytes("be.nabu", "test", "1.0")));
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+	
+	public void testResumeWithoutChecksum() throws IOException {
+		byte [] content = new byte[100000];
+		new Random(1).nextBytes(content);
+		List<String> ranges = new ArrayList<String>();
+		HttpServer server = start(files(PATH, content), 0, ranges);
+		try {
+			MemoryRepository created = new MemoryRepository();
+			ArtifactDownloader downloader = newDownloader(getEndpoint(server));
+			assertNotNull(downloader.download(created.getRepository(), "be.nabu", "test", "1.0", "jar"));
+			// the partial content can not be verified so it is downloaded again in full
+			assertEquals(Arrays.asList(null, "bytes=" + (content.length / 2) + "-", null), ranges);
+			assertTrue(Arrays.equals(content, created.getBytes("be.nabu", "test", "1.0")));
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+	
+	public void testTemporaryDirectory() throws IOException, InterruptedException {
+		// the default directory is stable for the same endpoints
+		URI endpoint = URI.create("http://localhost:1/repository");
+		assertEquals(new ArtifactDownloader(endpoint).getTemporaryDirectory(), new ArtifactDownloader(endpoint).getTemporaryDirectory());
+		assertFalse(new ArtifactDownloader(endpoint).getTemporaryDirectory().equals(new ArtifactDownloader(URI.create("http://localhost:2/repository")).getTemporaryDirectory()));
+		
+		// abandoned partial downloads are removed when the directory is first used
+		HttpServer server = start(files(PATH, "content".getBytes()), 0, null);
+		try {
+			ArtifactDownloader downloader = newDownloader(getEndpoint(server));
+			File abandoned = new File(downloader.getTemporaryDirectory(), "be/nabu/other/1.0/other-1.0.jar" + PartialDownload.EXTENSION);
+			abandoned.getParentFile().mkdirs();
+			File abandonedLock = new File(abandoned.getPath() + PartialDownload.LOCK_EXTENSION);
+			assertTrue(abandoned.createNewFile());
+			assertTrue(abandonedLock.createNewFile());
+			long old = System.currentTimeMillis() - 2 * downloader.getMaxPartialAge();
+			abandoned.setLastModified(old);
+			abandonedLock.setLastModified(old);
+			assertNotNull(downloader.download(new MemoryRepository().getRepository(), "be.nabu", "test", "1.0", "jar"));
+			for (int i = 0; i < 50 && abandonedLock.exists(); i++) {
+				Thread.sleep(100);
+			}
+			assertFalse(abandoned.exists());
+			assertFalse(abandonedLock.exists());
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+	
+	public void testLockedPartialFile() throws IOException, InterruptedException {
+		HttpServer server = start(files(PATH, "content".getBytes()), 0, null);
+		try {
+			final MemoryRepository created = new MemoryRepository();
+			final ArtifactDownloader downloader = newDownloader(getEndpoint(server));
+			// another process (or downloader) that uses the same temporary directory is working on the partial file
+			File lockFile = new File(downloader.getTemporaryDirectory(), PATH.substring("/repository/".length()) + ".part.lock");
+			lockFile.getParentFile().mkdirs();
+			RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+			try {
+				FileLock lock = file.getChannel().lock();
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							downloader.download(created.getRepository(), "be.nabu", "test", "1.0", "jar");
+						}
+						catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}
+				});
+				thread.start();
+				thread.join(500);
+				assertTrue(created.isEmpty());
+				lock.release();
+				thread.join(5000);
+				assertEquals("content", new String(created.getBytes("be.nabu", "test", "1.0")));
+			}
+			finally {
+				file.close();
+			}
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+	
+	public void testChecksumMismatch() throws IOException {
+		Map<String, byte[]> files = files(PATH, "content".getBytes());
+		files.put(PATH + ".sha256", "0000".getBytes());
+		HttpServer server = start(files, 0, null);
+		try {
+			MemoryRepository created = new MemoryRepository();
+			ArtifactDownloader downloader = newDownloader(getEndpoint(server));
+			downloader.setRetries(1);
+			try {
+				downloader.download(created.getRepository(), "be.nabu", "test", "1.0", "jar");
+				fail("The checksum should not match");
+			}
+			catch (IOException e) {
+				// expected
+			}
+			assertTrue(created.isEmpty());
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+	
+	public void testSnapshotRefresh() throws IOException {
+		String directory = "/repository/be/nabu/test/1.0-SNAPSHOT/";
+		Map<String, byte[]> files = files(directory + "maven-metadata.xml", ("<metadata><groupId>be.nabu</groupId><artifactId>test</artifactId><version>1.0-SNAPSHOT</version><versioning>"
+			+ "<snapshot><timestamp>20240101.120000</timestamp><buildNumber>3</buildNumber></snapshot><lastUpdated>20240101120000</lastUpdated>"
+			+ "<snapshotVersions><snapshotVersion><extension>jar</extension><value>1.0-20240101.120000-3</value></snapshotVersion></snapshotVersions>"
+			+ "</versioning></metadata>").getBytes());
+		files.put(directory + "test-1.0-20240101.120000-3.jar", "timestamped".getBytes());
+		// deployed at 2024-01-01 12:00:00 UTC
+		Date deployed = new Date(1704110400000l);
+		List<String> requests = new ArrayList<String>();
+		HttpServer server = start(files, 0, null, deployed, requests);
+		try {
+			MemoryRepository created = new MemoryRepository();
+			ArtifactDownloader downloader = newDownloader(getEndpoint(server));
+			// our copy is more recent than the deployment
+			Artifact existing = newArtifact(new Date(deployed.getTime() + 1000));
+			assertSame(existing, downloader.download(created.getRepository(), "be.nabu", "test", "1.0-SNAPSHOT", "jar", existing));
+			assertTrue(created.isEmpty());
+			// our copy is older than the deployment, the timestamped jar is downloaded
+			requests.clear();
+			assertNotSame(existing, downloader.download(created.getRepository(), "be.nabu", "test", "1.0-SNAPSHOT", "jar", newArtifact(new Date(deployed.getTime() - 1000))));
+			assertEquals("timestamped", new String(created.getBytes("be.nabu", "test", "1.0-SNAPSHOT")));
+			assertTrue(requests.contains(directory + "test-1.0-20240101.120000-3.jar"));
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+	
+	public void testSnapshotEndpoint() throws IOException {
+		String directory = "/repository/be/nabu/test/1.0-SNAPSHOT/";
+		// the slow endpoint already has a newer build, but the fast one answers the metadata request
+		Map<String, byte[]> newer = files(directory + "maven-metadata.xml", getSnapshotMetadata(3).getBytes());
+		newer.put(directory + "test-1.0-20240101.120000-3.jar", "newer".getBytes());
+		newer.put(directory + "test-1.0-20240101.120000-2.jar", "slow".getBytes());
+		Map<String, byte[]> older = files(directory + "maven-metadata.xml", getSnapshotMetadata(2).getBytes());
+		older.put(directory + "test-1.0-20240101.120000-2.jar", "fast".getBytes());
+		List<String> slowRequests = new CopyOnWriteArrayList<String>();
+		HttpServer slow = start(newer, 1000, null, null, slowRequests);
+		HttpServer fast = start(older, 0, null);
+		try {
+			MemoryRepository created = new MemoryRepository();
+			ArtifactDownloader downloader = newDownloader(getEndpoint(slow), getEndpoint(fast));
+			downloader.setHedgeDelay(100);
+			assertNotNull(downloader.download(created.getRepository(), "be.nabu", "test", "1.0-SNAPSHOT", "jar"));
+			assertEquals("fast", new String(created.getBytes("be.nabu", "test", "1.0-SNAPSHOT")));
+			// the timestamped file is only requested from the endpoint that published the metadata
+			assertFalse(slowRequests.contains(directory + "test-1.0-20240101.120000-2.jar"));
+		}
+		finally {
+			slow.stop(0);
+			fast.stop(0);
+		}
+	}
+	
+	private static String getSnapshotMetadata(int buildNumber) {
+		return "<metadata><groupId>be.nabu</groupId><artifactId>test</artifactId><version>1.0-SNAPSHOT</version><versioning>"
+			+ "<snapshot><timestamp>20240101.120000</timestamp><buildNumber>" + buildNumber + "</buildNumber></snapshot><lastUpdated>20240101120000</lastUpdated>"
+			+ "<snapshotVersions><snapshotVersion><extension>jar</extension><value>1.0-20240101.120000-" + buildNumber + "</value></snapshotVersion></snapshotVersions>"
+			+ "</versioning></metadata>";
+	}
+	
+	public void testNotModified() throws IOException {
+		Date deployed = new Date(1704110400000l);
+		List<String> requests = new ArrayList<String>();
+		HttpServer server = start(files(PATH, "content".getBytes()), 0, null, deployed, requests);
+		try {
+			MemoryRepository created = new MemoryRepository();
+			ArtifactDownloader downloader = newDownloader(getEndpoint(server));
+			// without metadata, the jar itself is requested conditionally
+			Artifact existing = newArtifact(new Date(deployed.getTime() + 1000));
+			assertSame(existing, downloader.download(created.getRepository(), "be.nabu", "test", "1.0", "jar", existing));
+			assertTrue(created.isEmpty());
+			assertTrue(requests.contains(PATH));
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+	
+	private static Artifact newArtifact(Date lastModified) {
+		MemoryArtifact artifact = new MemoryArtifact("be.nabu", "test", "1.0", "jar", null, null);
+		artifact.setLastModified(lastModified);
+		return artifact;
+	}
+	
+	private static ArtifactDownloader newDownloader(URI...endpoints) throws IOException {
+		ArtifactDownloader downloader = new ArtifactDownloader(endpoints);
+		File directory = File.createTempFile("downloads", "");
+		directory.delete();
+		downloader.setTemporaryDirectory(directory);
+		return downloader;
+	}
+	
+	private static Map<String, byte[]> files(String path, byte [] content) {
+		Map<String, byte[]> files = new HashMap<String, byte[]>();
+		files.put(path, content);
+		return files;
+	}
+	
+	private static String toHex(byte [] bytes) {
+		StringBuilder builder = new StringBuilder();
+		for (byte single : bytes) {
+			builder.append(String.format("%02x", single & 0xff));
+		}
+		return builder.toString();
+	}
+	
+	private static URI getEndpoint(HttpServer server) {
+		return URI.create("http://localhost:" + server.getAddress().getPort() + "/repository");
+	}
+	
+	/**
+	 * If a list of ranges is passed in, the range headers of the requests for jars are recorded and the first transfer is cut off halfway
+	 */
+	private static HttpServer start(Map<String, byte[]> files, long delay, List<String> ranges) throws IOException {
+		return start(files, delay, ranges, null, null);
+	}
+	
+	/**
+	 * If a last modified is given, conditional requests are answered accordingly, if a list of requests is given, all requested paths are recorded
+	 */
+	private static HttpServer start(final Map<String, byte[]> files, final long delay, final List<String> ranges, final Date lastModified, final List<String> requests) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				if (requests != null) {
+					requests.add(path);
+				}
+				try {
+					Thread.sleep(delay);
+				}
+				catch (InterruptedException e) {
+					// continue
+				}
+				byte [] content = files.get(path);
+				if (content == null) {
+					exchange.sendResponseHeaders(404, -1);
+					exchange.close();
+					return;
+				}
+				String modifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+				if (lastModified != null && modifiedSince != null) {
+					SimpleDateFormat formatter = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+					formatter.setTimeZone(TimeZone.getTimeZone("GMT"));
+					try {
+						if (!lastModified.after(formatter.parse(modifiedSince))) {
+							exchange.sendResponseHeaders(304, -1);
+							exchange.close();
+							return;
+						}
+					}
+					catch (ParseException e) {
+						throw new IOException(e);
+					}
+				}
+				String etag = "\"" + Arrays.hashCode(content) + "\"";
+				exchange.getResponseHeaders().add("ETag", etag);
+				String range = exchange.getRequestHeaders().getFirst("Range");
+				int offset = range == null ? 0 : Integer.parseInt(range.replaceAll("bytes=([0-9]+)-", "$1"));
+				// the file has changed since the part we have
+				String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+				if (ifRange != null && !ifRange.equals(etag)) {
+					offset = 0;
+				}
+				boolean truncate = false;
+				if (ranges != null && path.endsWith(".jar")) {
+					ranges.add(range);
+					truncate = ranges.size() == 1;
+				}
+				if (offset > 0) {
+					exchange.getResponseHeaders().add("Content-Range", "bytes " + offset + "-" + (content.length - 1) + "/" + content.length);
+				}
+				exchange.sendResponseHeaders(offset > 0 ? 206 : 200, content.length - offset);
+				OutputStream output = exchange.getResponseBody();
+				try {
+					output.write(content, offset, truncate ? content.length / 2 : content.length - offset);
+					output.flush();
+				}
+				finally {
+					if (truncate) {
+						// drop the connection without finishing the response
+						exchange.close();
+					}
+					else {
+						output.close();
+					}
+				}
+			}
+		});
+		// slow requests should not hold up the others
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		return server;
+	}
+}
@@ -0,0 +1,71 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import junit.framework.TestCase;
+
+public class TestClassFile extends TestCase {
+	
+	@XmlRootElement(name = "annotated")
+	@Deprecated
+	public static class Annotated implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private long value = 1l;
+		private double other = 2.0;
+		private String text = "text";
+		public long getValue() {
+			return value + (long) other + text.length();
+		}
+	}
+	
+	public static class Extension extends Annotated {
+		private static final long serialVersionUID = 1L;
+	}
+	
+	public void testParse() throws IOException {
+		ClassFile annotated = parse(Annotated.class);
+		assertEquals("be/nabu/libs/services/maven/TestClassFile$Annotated", annotated.getName());
+		assertEquals("java/lang/Object", annotated.getSuperName());
+		assertFalse(annotated.isInterface());
+		assertTrue(annotated.getAnnotations().contains("javax/xml/bind/annotation/XmlRootElement"));
+		assertTrue(annotated.getAnnotations().contains("java/lang/Deprecated"));
+		
+		ClassFile extension = parse(Extension.class);
+		assertEquals("be/nabu/libs/services/maven/TestClassFile$Annotated", extension.getSuperName());
+		assertTrue(extension.getAnnotations().isEmpty());
+		
+		assertTrue(parse(Serializable.class).isInterface());
+	}
+	
+	private static ClassFile parse(Class<?> clazz) throws IOException {
+		InputStream input = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class");
+		try {
+			return ClassFile.parse(MavenClassLoader.toBytes(input));
+		}
+		finally {
+			input.close();
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import be.nabu.libs.maven.api.Artifact;
+import be.nabu.libs.maven.api.WritableRepository;
+import be.nabu.libs.services.maven.pom.Pom;
+import be.nabu.libs.services.maven.pom.PomDependency;
+import junit.framework.TestCase;
+
+public class TestDependencyGraph extends TestCase {
+	
+	private MemoryRepository memory = new MemoryRepository();
+	private WritableRepository repository = memory.getRepository();
+	
+	private DependencyGraph.PomProvider poms = new DependencyGraph.PomProvider() {
+		@Override
+		public Pom getPom(Artifact artifact) throws IOException, ParseException {
+			return DependencyResolver.parsePom(artifact);
+		}
+	};
+	
+	public void testMediation() throws IOException, ParseException {
+		DependencyResolver resolver = new DependencyResolver();
+		resolver.setParallelism(1);
+		resolver.setUpdateSnapshots(false);
+		add("root", "1.0", dependency("a", "1.0", "") + dependency("b", "1.0", "") + dependency("t", "1.0", "<scope>test</scope>"));
+		add("a", "1.0", dependency("x", "1.0", "") + dependency("t", "1.0", ""));
+		add("b", "1.0", dependency("x", "2.0", "") + dependency("y", "1.0", "<exclusions><exclusion><groupId>be.nabu</groupId><artifactId>z</artifactId></exclusion></exclusions>"));
+		add("x", "1.0", "");
+		add("x", "2.0", dependency("z", "1.0", ""));
+		add("y", "1.0", dependency("z", "1.0", ""));
+		add("t", "1.0", "");
+		add("z", "1.0", "");
+		
+		DependencyGraph graph = DependencyGraph.build(memory.get("be.nabu", "root", "1.0"), repository, resolver, poms);
+		// x is declared on the same depth twice, the first declaration wins, z is excluded on the only path that is left
+		// t is a test dependency of the root so it is not part of the runtime classpath even though a depends on it
+		assertEquals(Arrays.asList("root/1.0", "a/1.0", "b/1.0", "x/1.0", "y/1.0"), toString(graph.getMediatedArtifacts(new HashSet<String>())));
+		// provided dependencies are left out with their dependencies
+		assertEquals(Arrays.asList("root/1.0", "a/1.0", "x/1.0"), toString(graph.getMediatedArtifacts(new HashSet<String>(Arrays.asList("be.nabu/b")))));
+		
+		// subgraphs without snapshots are shared between graphs
+		add("other", "1.0", dependency("b", "1.0", ""));
+		DependencyGraph other = DependencyGraph.build(memory.get("be.nabu", "other", "1.0"), repository, resolver, poms);
+		assertSame(graph.getRoot().getDependencies().get(1).getTarget(), other.getRoot().getDependencies().get(0).getTarget());
+		assertTrue(other.getRoot().isShared());
+		
+		add("snapshot", "1.0-SNAPSHOT", dependency("b", "1.0", ""));
+		add("user", "1.0", dependency("snapshot", "1.0-SNAPSHOT", ""));
+		assertFalse(DependencyGraph.build(memory.get("be.nabu", "user", "1.0"), repository, resolver, poms).getRoot().isShared());
+	}
+	
+	public void testIgnored() throws IOException, ParseException {
+		DependencyResolver ignoring = new DependencyResolver();
+		ignoring.setParallelism(1);
+		ignoring.setUpdateSnapshots(false);
+		ignoring.setArtifactsToIgnore(Arrays.asList("be.nabu:gone"));
+		DependencyResolver resolver = new DependencyResolver();
+		resolver.setParallelism(1);
+		resolver.setUpdateSnapshots(false);
+		add("lib", "1.0", dependency("gone", "1.0", ""));
+		add("first", "1.0", dependency("lib", "1.0", ""));
+		add("second", "1.0", dependency("lib", "1.0", ""));
+		
+		DependencyGraph graph = DependencyGraph.build(memory.get("be.nabu", "first", "1.0"), repository, ignoring, poms);
+		assertTrue(graph.getRoot().isShared());
+		assertEquals(Arrays.asList("first/1.0", "lib/1.0"), toString(graph.getMediatedArtifacts(new HashSet<String>())));
+		
+		// the shared node of lib can not be used by a resolver that does not ignore the missing dependency
+		DependencyGraph other = DependencyGraph.build(memory.get("be.nabu", "second", "1.0"), repository, resolver, poms);
+		assertNotSame(graph.getRoot().getDependencies().get(0).getTarget(), other.getRoot().getDependencies().get(0).getTarget());
+		assertFalse(other.getRoot().isShared());
+		List<DependencyGraph.Edge> missing = new ArrayList<DependencyGraph.Edge>();
+		assertEquals(Arrays.asList("second/1.0", "lib/1.0"), toString(other.getMediatedArtifacts(new HashSet<String>(), missing)));
+		assertEquals(1, missing.size());
+		assertEquals("be.nabu/gone", missing.get(0).getKey());
+		assertEquals("lib", missing.get(0).getOwner().getArtifactId());
+	}
+	
+	public void testExcludedNotResolved() throws IOException, ParseException {
+		final List<String> resolved = new ArrayList<String>();
+		DependencyResolver resolver = new DependencyResolver() {
+			@Override
+			public Artifact resolve(WritableRepository repository, PomDependency dependency) throws IOException {
+				resolved.add(dependency.getArtifactId() + "/" + dependency.getVersion());
+				return super.resolve(repository, dependency);
+			}
+		};
+		resolver.setParallelism(1);
+		resolver.setUpdateSnapshots(false);
+		resolver.setCache(new ResolutionCache());
+		add("excluding", "1.0", dependency("wrapper", "1.0", "<exclusions><exclusion><groupId>be.nabu</groupId><artifactId>heavy</artifactId></exclusion></exclusions>"));
+		add("wrapper", "1.0", dependency("lib", "1.0", ""));
+		add("lib", "1.0", dependency("heavy", "1.0", ""));
+		add("heavy", "1.0", "");
+		
+		// the excluded dependency is never resolved
+		DependencyGraph graph = DependencyGraph.build(memory.get("be.nabu", "excluding", "1.0"), repository, resolver, poms);
+		assertEquals(Arrays.asList("excluding/1.0", "wrapper/1.0", "lib/1.0"), toString(graph.getMediatedArtifacts(new HashSet<String>())));
+		assertEquals(Arrays.asList("wrapper/1.0", "lib/1.0"), resolved);
+		// so the subgraph that lacks it is not shared, the root that excludes it is
+		assertFalse(graph.getRoot().getDependencies().get(0).getTarget().isShared());
+		assertTrue(graph.getRoot().isShared());
+		
+		resolved.clear();
+		add("plain", "1.0", dependency("lib", "1.0", ""));
+		DependencyGraph plain = DependencyGraph.build(memory.get("be.nabu", "plain", "1.0"), repository, resolver, poms);
+		assertEquals(Arrays.asList("plain/1.0", "lib/1.0", "heavy/1.0"), toString(plain.getMediatedArtifacts(new HashSet<String>())));
+		assertEquals(Arrays.asList("lib/1.0", "heavy/1.0"), resolved);
+		assertTrue(plain.getRoot().isShared());
+		
+		resolved.clear();
+		add("holder", "1.0", dependency("excluding", "1.0", ""));
+		DependencyGraph holder = DependencyGraph.build(memory.get("be.nabu", "holder", "1.0"), repository, resolver, poms);
+		assertEquals(Arrays.asList("holder/1.0", "excluding/1.0", "wrapper/1.0", "lib/1.0"), toString(holder.getMediatedArtifacts(new HashSet<String>())));
+		assertSame(graph.getRoot(), holder.getRoot().getDependencies().get(0).getTarget());
+		assertEquals(Arrays.asList("excluding/1.0"), resolved);
+	}
+	
+	public void testParallelBuild() throws IOException, ParseException {
+		final List<String> resolved = Collections.synchronizedList(new ArrayList<String>());
+		DependencyResolver resolver = new DependencyResolver() {
+			@Override
+			public Artifact resolve(WritableRepository repository, PomDependency dependency) throws IOException {
+				resolved.add(dependency.getArtifactId());
+				return super.resolve(repository, dependency);
+			}
+		};
+		resolver.setParallelism(1);
+		resolver.setUpdateSnapshots(false);
+		resolver.setCache(new ResolutionCache());
+		add("parallel", "1.0", dependency("a", "1.0", "") + dependency("b", "1.0", "<exclusions><exclusion><groupId>be.nabu</groupId><artifactId>z</artifactId></exclusion></exclusions>"));
+		add("a", "1.0", dependency("x", "1.0", ""));
+		add("b", "1.0", dependency("y", "1.0", ""));
+		add("x", "1.0", "");
+		add("y", "1.0", dependency("z", "1.0", ""));
+		add("z", "1.0", "");
+		
+		final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		DependencyGraph.PomProvider poms = new DependencyGraph.PomProvider() {
+			@Override
+			public Pom getPom(Artifact artifact) throws IOException, ParseException {
+				threads.add(Thread.currentThread().getName());
+				return DependencyResolver.parsePom(artifact);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			DependencyGraph graph = DependencyGraph.build(memory.get("be.nabu", "parallel", "1.0"), repository, resolver, poms, executor);
+			assertEquals(Arrays.asList("parallel/1.0", "a/1.0", "b/1.0", "x/1.0", "y/1.0"), toString(graph.getMediatedArtifacts(new HashSet<String>())));
+			assertTrue(threads.size() > 1);
+			// the excluded dependency is not resolved on the executor either
+			assertFalse(resolved.contains("z"));
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	public void testClasspath() throws IOException, ParseException {
+		DependencyResolver resolver = new DependencyResolver();
+		resolver.setParallelism(1);
+		resolver.setUpdateSnapshots(false);
+		add("app", "1.0", dependency("c", "1.0", "") + dependency("x", "2.0", ""));
+		add("c", "1.0", dependency("x", "1.0", ""));
+		add("x", "1.0", "");
+		add("x", "2.0", "");
+		MavenClassLoader loader = new MavenClassLoader(getClass().getClassLoader(), repository, memory.get("be.nabu", "app", "1.0"), resolver);
+		// the nearest declaration wins, the older version of x is never checked
+		assertEquals(Arrays.asList("app/1.0", "c/1.0", "x/2.0"), toString(loader.getClasspath()));
+		assertEquals(1, loader.findFiles("x/x.txt", false).size());
+		assertEquals("x/2.0", new String(loader.readFile(loader.findFiles("x/x.txt", true).iterator().next()), "UTF-8"));
+	}
+	
+	public void testStoredClasspath() throws IOException, ParseException {
+		final List<String> resolved = new ArrayList<String>();
+		DependencyResolver resolver = new DependencyResolver() {
+			@Override
+			public Artifact resolve(WritableRepository repository, PomDependency dependency) throws IOException {
+				resolved.add(dependency.getArtifactId() + "/" + dependency.getVersion());
+				return super.resolve(repository, dependency);
+			}
+		};
+		resolver.setParallelism(1);
+		resolver.setCache(new ResolutionCache());
+		add("stored", "1.0", dependency("c", "1.0", "") + dependency("s", "1.0-SNAPSHOT", ""));
+		add("c", "1.0", "");
+		add("s", "1.0-SNAPSHOT", "");
+		File directory = File.createTempFile("indexes", "");
+		directory.delete();
+		MavenClassLoader loader = new MavenClassLoader(getClass().getClassLoader(), repository, memory.get("be.nabu", "stored", "1.0"), resolver);
+		loader.setIndexStore(new IndexStore(directory));
+		assertEquals(Arrays.asList("stored/1.0", "c/1.0", "s/1.0-SNAPSHOT"), toString(loader.getClasspath()));
+		
+		// the stored classpath is used but the snapshot on it is still checked for updates
+		resolved.clear();
+		loader = new MavenClassLoader(getClass().getClassLoader(), repository, memory.get("be.nabu", "stored", "1.0"), resolver);
+		loader.setIndexStore(new IndexStore(directory));
+		assertEquals(Arrays.asList("stored/1.0", "c/1.0", "s/1.0-SNAPSHOT"), toString(loader.getClasspath()));
+		assertEquals(Arrays.asList("s/1.0-SNAPSHOT"), resolved);
+	}
+	
+	public void testStoredClasspathInvalidated() throws IOException, ParseException {
+		DependencyResolver resolver = new DependencyResolver();
+		resolver.setParallelism(1);
+		resolver.setCache(new ResolutionCache());
+		String child = "<project><parent><groupId>be.nabu</groupId><artifactId>parent</artifactId><version>1.0-SNAPSHOT</version></parent><artifactId>child</artifactId></project>";
+		memory.add(new MemoryArtifact("be.nabu", "child", "1.0", "jar", child.getBytes("UTF-8"), MemoryArtifact.zip(MemoryArtifact.entries("child/child.txt", "child"))));
+		memory.add(MemoryArtifact.pom("be.nabu", "parent", "1.0-SNAPSHOT", MemoryArtifact.project("be.nabu", "parent", "1.0-SNAPSHOT", dependency("c", "1.0", ""))));
+		add("c", "1.0", "");
+		add("d", "1.0", "");
+		File directory = File.createTempFile("indexes", "");
+		directory.delete();
+		MavenClassLoader loader = new MavenClassLoader(getClass().getClassLoader(), repository, memory.get("be.nabu", "child", "1.0"), resolver);
+		loader.setIndexStore(new IndexStore(directory));
+		assertEquals(Arrays.asList("child/1.0", "c/1.0"), toString(loader.getClasspath()));
+		
+		// the snapshot parent is redeployed with other dependencies
+		MemoryArtifact parent = memory.add(MemoryArtifact.pom("be.nabu", "parent", "1.0-SNAPSHOT", MemoryArtifact.project("be.nabu", "parent", "1.0-SNAPSHOT", dependency("d", "1.0", ""))));
+		parent.setLastModified(new Date(1000));
+		loader = new MavenClassLoader(getClass().getClassLoader(), repository, memory.get("be.nabu", "child", "1.0"), resolver);
+		loader.setIndexStore(new IndexStore(directory));
+		assertEquals(Arrays.asList("child/1.0", "d/1.0"), toString(loader.getClasspath()));
+		
+		// a resolver that ignores other artifacts does not use the stored classpath either
+		DependencyResolver ignoring = new DependencyResolver();
+		ignoring.setParallelism(1);
+		ignoring.setCache(new ResolutionCache());
+		ignoring.setArtifactsToIgnore(Arrays.asList("be.nabu:d"));
+		loader = new MavenClassLoader(getClass().getClassLoader(), repository, memory.get("be.nabu", "child", "1.0"), ignoring);
+		loader.setIndexStore(new IndexStore(directory));
+		assertEquals(Arrays.asList("child/1.0"), toString(loader.getClasspath()));
+	}
+	
+	public void testMissing() throws IOException, ParseException {
+		DependencyResolver resolver = new DependencyResolver();
+		resolver.setParallelism(1);
+		resolver.setUpdateSnapshots(false);
+		add("broken", "1.0", dependency("c", "1.0", "") + dependency("gone", "1.0", "") + dependency("d", "1.0", ""));
+		add("c", "1.0", "");
+		add("d", "1.0", "");
+		MavenClassLoader loader = new MavenClassLoader(getClass().getClassLoader(), repository, memory.get("be.nabu", "broken", "1.0"), resolver);
+		// the dependency that can not be resolved does not prevent us from using the others
+		assertEquals(Arrays.asList("broken/1.0", "c/1.0", "d/1.0"), toString(loader.getClasspath()));
+		assertEquals(1, loader.findFiles("d/d.txt", true).size());
+		assertEquals(1, loader.findFiles("broken/broken.txt", true).size());
+		// but it is reported if it could have contained a file we are looking for
+		try {
+			loader.findFiles("gone/gone.txt", true);
+			fail("The missing dependency should be reported");
+		}
+		catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("be.nabu/gone/1.0"));
+		}
+	}
+	
+	private static List<String> toString(List<Artifact> artifacts) {
+		List<String> names = new ArrayList<String>();
+		for (Artifact artifact : artifacts) {
+			names.add(artifact.getArtifactId() + "/" + artifact.getVersion());
+		}
+		return names;
+	}
+	
+	private static String dependency(String artifactId, String version, String extra) {
+		return MemoryArtifact.dependency("be.nabu", artifactId, version, extra);
+	}
+	
+	private void add(String artifactId, String version, String dependencies) {
+		memory.add(MemoryArtifact.jar("be.nabu", artifactId, version, dependencies));
+	}
+}
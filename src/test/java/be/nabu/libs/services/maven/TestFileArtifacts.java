@@ -0,0 +1,147 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.services.maven;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import be.nabu.libs.maven.api.Artifact;
+import junit.framework.TestCase;
+
+public class TestFileArtifacts extends TestCase {
+	
+	public void testResourceArtifact() throws IOException {
+		File file = File.createTempFile("artifact", ".jar");
+		try {
+			ZipOutputStream output = new ZipOutputStream(new FileOutputStream(file));
+			try {
+				output.putNextEntry(new ZipEntry("be/nabu/Test.class"));
+				output.write(new byte[] { 1, 2, 3 });
+			}
+			finally {
+				output.close();
+			}
+			// shaped like the artifacts of a file system repository: it does not know about FileArtifact, it is backed by a resource
+			Artifact artifact = new ResourceArtifact(new Resource(file.toURI()));
+			assertNull(FileArtifacts.getFile(artifact));
+			
+			FileArtifacts.FileAdapter adapter = new FileArtifacts.FileAdapter() {
+				@Override
+				public File getFile(Artifact artifact) {
+					if (artifact instanceof ResourceArtifact) {
+						URI uri = ((ResourceArtifact) artifact).getResource().getUri();
+						return "file".equals(uri.getScheme()) ? new File(uri) : null;
+					}
+					return null;
+				}
+				@Override
+				public boolean isReplacedAtomically() {
+					return false;
+				}
+			};
+			FileArtifacts.register(adapter);
+			try {
+				assertEquals(file, FileArtifacts.getFile(artifact));
+				assertEquals(new File(file.getParentFile(), file.getName() + ".services"), ServiceManifest.getSidecar(artifact));
+				assertTrue(IndexStore.getKey(artifact).endsWith("#" + file.length()));
+				// the adapter does not guarantee that the file is never rewritten
+				assertFalse(FileArtifacts.isMappable(artifact));
+				
+				// the content is read from the file, not from the stream
+				MavenClassLoader loader = new MavenClassLoader(getClass().getClassLoader(), null, artifact, new DependencyResolver());
+				try {
+					assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, loader.getContent(artifact).read("be/nabu/Test.class")));
+				}
+				finally {
+					loader.close();
+				}
+				
+				// remote resources are not files
+				assertNull(FileArtifacts.getFile(new ResourceArtifact(new Resource(URI.create("http://example.com/test.jar")))));
+			}
+			finally {
+				FileArtifacts.unregister(adapter);
+			}
+		}
+		finally {
+			file.delete();
+		}
+	}
+	
+	public static class Resource {
+		private URI uri;
+		
+		public Resource(URI uri) {
+			this.uri = uri;
+		}
+		
+		public URI getUri() {
+			return uri;
+		}
+	}
+	
+	public static class ResourceArtifact implements Artifact {
+		private Resource resource;
+
+		public ResourceArtifact(Resource resource) {
+			this.resource = resource;
+		}
+		public Resource getResource() {
+			return resource;
+		}
+		@Override
+		public String getArtifactId() {
+			return "test";
+		}
+		@Override
+		public InputStream getContent() throws IOException {
+			throw new IOException("The content should be mapped from the file");
+		}
+		@Override
+		public String getGroupId() {
+			return "be.nabu";
+		}
+		@Override
+		public Date getLastModified() {
+			return new Date(0);
+		}
+		@Override
+		public String getPackaging() {
+			return "jar";
+		}
+		@Override
+		public InputStream getPom() throws IOException {
+			return null;
+		}
+		@Override
+		public String getVersion() {
+			return "1.0";
+		}
+		@Override
+		public boolean isTest() {
+			return false;
+		}
+	}
+}
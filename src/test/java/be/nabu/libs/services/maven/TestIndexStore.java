@@ -0,0 +1,93 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import be.nabu.libs.maven.api.Artifact;
+import be.nabu.libs.services.maven.pom.Pom;
+import be.nabu.libs.services.maven.pom.PomDependencies;
+import be.nabu.libs.services.maven.pom.PomDependency;
+import junit.framework.TestCase;
+
+public class TestIndexStore extends TestCase {
+	
+	public void testRoundTrip() throws IOException {
+		File directory = File.createTempFile("index", "");
+		directory.delete();
+		try {
+			Artifact artifact = newArtifact(1000);
+			IndexStore store = new IndexStore(directory);
+			store.setEntries(artifact, new HashSet<String>(Arrays.asList("be/nabu/Test.class", "META-INF/MANIFEST.MF")));
+			Pom pom = new Pom();
+			pom.setGroupId("be.nabu");
+			pom.setArtifactId("test");
+			pom.setVersion("1.0");
+			PomDependency dependency = new PomDependency();
+			dependency.setGroupId("be.nabu");
+			dependency.setArtifactId("dependency");
+			dependency.setVersion("2.0");
+			dependency.setOptional(true);
+			pom.setDependencies(new PomDependencies());
+			pom.getDependencies().getDependencies().add(dependency);
+			store.setPom(artifact, pom);
+			store.setClasspath(artifact, Arrays.asList("be.nabu/provided"), Arrays.asList("be.nabu:ignored"), Arrays.asList(IndexStore.getKey(artifact)), Arrays.asList("be.nabu/parent/1.0-SNAPSHOT@1000"));
+			
+			// a new store has to read it from disk
+			IndexStore reloaded = new IndexStore(directory);
+			assertEquals(new HashSet<String>(Arrays.asList("be/nabu/Test.class", "META-INF/MANIFEST.MF")), reloaded.getEntries(artifact));
+			Pom reloadedPom = reloaded.getPom(artifact);
+			assertEquals("test", reloadedPom.getArtifactId());
+			assertEquals(dependency, reloadedPom.getDependencies().getDependencies().get(0));
+			assertTrue(reloadedPom.getDependencies().getDependencies().get(0).getOptional());
+			List<String> classpath = reloaded.getClasspath(artifact, Arrays.asList("be.nabu/provided"), Arrays.asList("be.nabu:ignored"));
+			assertEquals(Arrays.asList(IndexStore.getKey(artifact)), classpath);
+			assertEquals(Arrays.asList("be.nabu/parent/1.0-SNAPSHOT@1000"), reloaded.getClasspathPoms(artifact));
+			// different provided or ignored artifacts lead to a different classpath
+			assertNull(reloaded.getClasspath(artifact, Arrays.asList("be.nabu/other"), Arrays.asList("be.nabu:ignored")));
+			assertNull(reloaded.getClasspath(artifact, Arrays.asList("be.nabu/provided"), Arrays.<String>asList()));
+			
+			// a modified artifact invalidates the stored information
+			assertNull(new IndexStore(directory).getEntries(newArtifact(2000)));
+		}
+		finally {
+			delete(directory);
+		}
+	}
+	
+	private static void delete(File file) {
+		if (file.isDirectory()) {
+			for (File child : file.listFiles()) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+	
+	private static Artifact newArtifact(long lastModified) {
+		MemoryArtifact artifact = new MemoryArtifact("be.nabu", "test", "1.0", "jar", null, null);
+		artifact.setLastModified(new Date(lastModified));
+		return artifact;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+public class TestJarContent extends TestCase {
+	
+	public void testIndexed() throws IOException {
+		byte[] jar = createJar();
+		InflatedJarContent inflated = new InflatedJarContent(new ByteArrayInputStream(jar));
+		IndexedJarContent indexed = new IndexedJarContent(ByteBuffer.wrap(jar));
+		assertEquals(inflated.getEntries(), indexed.getEntries());
+		for (String entry : inflated.getEntries()) {
+			assertTrue(entry, Arrays.equals(inflated.read(entry), indexed.read(entry)));
+		}
+		assertTrue(indexed.contains("be/nabu/Test.class"));
+		assertFalse(indexed.contains("be/nabu/Missing.class"));
+		assertNull(indexed.read("be/nabu/Missing.class"));
+	}
+	
+	public void testMapped() throws IOException {
+		File file = File.createTempFile("test", ".jar");
+		try {
+			byte[] jar = createJar();
+			FileOutputStream output = new FileOutputStream(file);
+			try {
+				output.write(jar);
+			}
+			finally {
+				output.close();
+			}
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				IndexedJarContent mapped = new IndexedJarContent(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+				InflatedJarContent inflated = new InflatedJarContent(new ByteArrayInputStream(jar));
+				assertEquals(inflated.getEntries(), mapped.getEntries());
+				assertTrue(Arrays.equals(inflated.read("be/nabu/Test.class"), mapped.read("be/nabu/Test.class")));
+				// the mapped content does not live on the heap
+				assertEquals(0, mapped.getSize());
+			}
+			finally {
+				channel.close();
+			}
+		}
+		finally {
+			file.delete();
+		}
+	}
+	
+	public void testCorrupt() throws IOException {
+		byte[] jar = createJar();
+		// a compressed size that points beyond the end of the archive is rejected when indexing
+		ByteBuffer corrupt = ByteBuffer.wrap(Arrays.copyOf(jar, jar.length)).order(ByteOrder.LITTLE_ENDIAN);
+		corrupt.putInt(findHeader(corrupt, 0x02014b50, 46, "be/nabu/Test.class") + 20, Integer.MAX_VALUE);
+		try {
+			new IndexedJarContent(corrupt);
+			fail("Expected the corrupt central directory to be rejected");
+		}
+		catch (ZipException e) {
+			// expected
+		}
+		// a local header with an extra length that points beyond the end of the archive is rejected when reading
+		corrupt = ByteBuffer.wrap(Arrays.copyOf(jar, jar.length)).order(ByteOrder.LITTLE_ENDIAN);
+		corrupt.putShort(findHeader(corrupt, 0x04034b50, 30, "be/nabu/Test.class") + 28, (short) 0xffff);
+		IndexedJarContent indexed = new IndexedJarContent(corrupt);
+		try {
+			indexed.read("be/nabu/Test.class");
+			fail("Expected the corrupt local header to be rejected");
+		}
+		catch (ZipException e) {
+			// expected
+		}
+		assertTrue(Arrays.equals("stored content".getBytes("UTF-8"), indexed.read("be/nabu/stored.txt")));
+	}
+	
+	private static int findHeader(ByteBuffer buffer, int signature, int size, String name) throws IOException {
+		byte[] bytes = name.getBytes("UTF-8");
+		for (int position = 0; position + size + bytes.length <= buffer.limit(); position++) {
+			if (buffer.getInt(position) == signature) {
+				byte[] found = new byte[bytes.length];
+				for (int i = 0; i < found.length; i++) {
+					found[i] = buffer.get(position + size + i);
+				}
+				if (Arrays.equals(bytes, found)) {
+					return position;
+				}
+			}
+		}
+		throw new IllegalArgumentException("Could not find the header for: " + name);
+	}
+	
+	public static byte[] createJar() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(output);
+		zip.putNextEntry(new ZipEntry("META-INF/"));
+		zip.closeEntry();
+		zip.putNextEntry(new ZipEntry("META-INF/services/be.nabu.Api"));
+		zip.write("be.nabu.Test\n".getBytes("UTF-8"));
+		zip.closeEntry();
+		zip.putNextEntry(new ZipEntry("be/nabu/Test.class"));
+		byte[] content = new byte[8192];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i % 31);
+		}
+		zip.write(content);
+		zip.closeEntry();
+		ZipEntry stored = new ZipEntry("be/nabu/stored.txt");
+		byte[] text = "stored content".getBytes("UTF-8");
+		stored.setMethod(ZipEntry.STORED);
+		stored.setSize(text.length);
+		CRC32 crc = new CRC32();
+		crc.update(text);
+		stored.setCrc(crc.getValue());
+		zip.putNextEntry(stored);
+		zip.write(text);
+		zip.closeEntry();
+		zip.close();
+		return output.toByteArray();
+	}
+}
@@ -0,0 +1,59 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+public class TestJmxMavenMetrics extends TestCase {
+	
+	public void testAttributes() throws Exception {
+		JmxMavenMetrics metrics = JmxMavenMetrics.getInstance();
+		metrics.reset();
+		metrics.increment("test.counter", 2);
+		metrics.increment("test.counter", 3);
+		for (int i = 1; i <= 100; i++) {
+			metrics.record("test.timer", i * 1000000l);
+		}
+		metrics.gauge("test.gauge", new Callable<Long>() {
+			@Override
+			public Long call() {
+				return 42l;
+			}
+		});
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(JmxMavenMetrics.OBJECT_NAME);
+		assertEquals(5l, server.getAttribute(name, "test.counter"));
+		assertEquals(42l, server.getAttribute(name, "test.gauge"));
+		assertEquals(100l, server.getAttribute(name, "test.timer.count"));
+		assertEquals(100d, (Double) server.getAttribute(name, "test.timer.maxMs"), 0.001);
+		// the percentiles are bucketed per power of two, they are an upper bound of at most twice the value
+		double median = (Double) server.getAttribute(name, "test.timer.p50Ms");
+		assertTrue(median >= 50 && median <= 100);
+		
+		server.invoke(name, "reset", null, null);
+		assertEquals(0, metrics.getCounter("test.counter"));
+		assertEquals(0, metrics.getCount("test.timer"));
+	}
+}
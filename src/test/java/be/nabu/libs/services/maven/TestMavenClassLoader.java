@@ -0,0 +1,100 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.services.maven;
+
+import java.io.IOException;
+import java.util.Map;
+
+import be.nabu.libs.maven.api.Artifact;
+import be.nabu.libs.maven.api.WritableRepository;
+import be.nabu.utils.services.ServiceLoader2;
+import junit.framework.TestCase;
+
+public class TestMavenClassLoader extends TestCase {
+	
+	private static final int FILES = 50;
+	
+	private WritableRepository repository = new MemoryRepository().getRepository();
+	
+	public void testEviction() throws IOException {
+		DependencyResolver resolver = new DependencyResolver();
+		resolver.setUpdateSnapshots(false);
+		MavenClassLoader loader = new MavenClassLoader(getClass().getClassLoader(), repository, newArtifact(), resolver);
+		try {
+			loader.setMaxFilesFound(10);
+			loader.findFiles("be/nabu/hot.txt", true);
+			for (int i = 0; i < FILES; i++) {
+				String key = loader.findFiles("be/nabu/file" + i + ".txt", true).iterator().next();
+				assertEquals("file" + i, new String(loader.readFile(key), "UTF-8"));
+				// a name that keeps being requested survives the evictions of the names that are requested only once
+				loader.findFiles("be/nabu/hot.txt", true);
+				assertEquals(i + 1, loader.getFileCacheHits());
+			}
+			assertTrue(loader.getFilesFoundSize() <= 10);
+			// providing a dependency changes the classpath so the files found so far are no longer valid
+			loader.addProvided("be.nabu", "provided");
+			assertEquals(0, loader.getFilesFoundSize());
+		}
+		finally {
+			loader.close();
+		}
+	}
+	
+	public void testClose() throws IOException {
+		JarCache cache = new JarCache(Long.MAX_VALUE);
+		Artifact artifact = newArtifact();
+		MavenClassLoader loader = new MavenClassLoader(getClass().getClassLoader(), repository, artifact, new DependencyResolver());
+		loader.setCache(cache);
+		loader.getContent(artifact);
+		// while the loader is open, clearing the cache does not forget about the artifact
+		cache.clear();
+		assertEquals(1, cache.getEntryCount());
+		// once released, the entry is only kept for its content
+		loader.getContent(artifact);
+		loader.close();
+		assertEquals(1, cache.getEntryCount());
+		cache.clear();
+		assertEquals(0, cache.getEntryCount());
+		
+		// a closed loader can still read but it does not keep a reference that nothing would release
+		loader.getContent(artifact);
+		assertEquals(1, cache.getEntryCount());
+		cache.clear();
+		assertEquals(0, cache.getEntryCount());
+	}
+	
+	public void testRelease() {
+		MavenClassLoader loader = new MavenClassLoader(getClass().getClassLoader(), repository, newArtifact(), new DependencyResolver());
+		ServiceLoader2<Runnable> serviceLoader = ServiceLoader2.of(Runnable.class, loader);
+		assertSame(serviceLoader, ServiceLoader2.of(Runnable.class, loader));
+		// a closed classloader can still be used, the providers that were created are not created again
+		loader.close();
+		assertSame(serviceLoader, ServiceLoader2.of(Runnable.class, loader));
+		// only an explicit release drops them
+		ServiceLoader2.release(loader);
+		assertNotSame(serviceLoader, ServiceLoader2.of(Runnable.class, loader));
+	}
+	
+	private static Artifact newArtifact() {
+		Map<String, String> entries = MemoryArtifact.entries("be/nabu/hot.txt", "hot");
+		for (int i = 0; i < FILES; i++) {
+			entries.put("be/nabu/file" + i + ".txt", "file" + i);
+		}
+		return MemoryArtifact.jar("be.nabu", "loader", "1.0", "", entries);
+	}
+}
@@ -0,0 +1,108 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.services.maven;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.maven.api.Artifact;
+import be.nabu.libs.maven.api.DomainRepository;
+import be.nabu.libs.types.java.BeanResolver;
+import junit.framework.TestCase;
+
+public class TestMavenScanner extends TestCase {
+	
+	private MemoryRepository memory = new MemoryRepository();
+	private DomainRepository repository = memory.getRepository();
+	
+	public void testIncrementalScan() throws IOException {
+		MemoryArtifact a = memory.addInternal(newArtifact("a", "1.0", MemoryArtifact.dependency("be.nabu.scanner", "lib", "1.0-SNAPSHOT", "")));
+		MemoryArtifact b = memory.addInternal(newArtifact("b", "1.0", ""));
+		MemoryArtifact lib = memory.add(newArtifact("lib", "1.0-SNAPSHOT", ""));
+		DependencyResolver resolver = new DependencyResolver();
+		resolver.setParallelism(1);
+		resolver.setUpdateSnapshots(false);
+		MavenScanner scanner = new MavenScanner();
+		scanner.setParallelism(2);
+		scanner.setIncremental(true);
+		
+		scanner.scan(BeanResolver.getInstance(), resolver, repository);
+		assertEquals(1, a.getReads());
+		assertEquals(1, b.getReads());
+		
+		// nothing changed, nothing is scanned again (the shared cache is cleared so a scan would have to read the artifact)
+		JarCache.getInstance().clear();
+		scanner.scan(BeanResolver.getInstance(), resolver, repository);
+		assertEquals(1, a.getReads());
+		assertEquals(1, b.getReads());
+		
+		// a snapshot dependency of a is redeployed, only a is scanned again
+		lib.setLastModified(new Date(2000));
+		JarCache.getInstance().clear();
+		scanner.scan(BeanResolver.getInstance(), resolver, repository);
+		assertEquals(2, a.getReads());
+		assertEquals(1, b.getReads());
+		
+		// a itself is modified
+		a.setLastModified(new Date(2000));
+		JarCache.getInstance().clear();
+		scanner.scan(BeanResolver.getInstance(), resolver, repository);
+		assertEquals(3, a.getReads());
+		assertEquals(1, b.getReads());
+	}
+	
+	public void testManifestWithoutSPI() throws IOException {
+		Map<String, String> entries = MemoryArtifact.entries(ServiceManifest.RESOURCE, "version 1\ntype java.lang.String\n", "META-INF/services/java.lang.Runnable", "java.lang.Thread\n");
+		Artifact artifact = memory.add(MemoryArtifact.jar("be.nabu.scanner", "spi", "1.0", "", entries));
+		DependencyResolver resolver = new DependencyResolver();
+		resolver.setParallelism(1);
+		resolver.setUpdateSnapshots(false);
+		MavenClassLoader loader = new MavenClassLoader(getClass().getClassLoader(), repository, artifact, resolver);
+		// the manifest does not list the implementations so the services files are used
+		Map<Class<?>, List<Class<?>>> spi = new MavenScanner().scanSPI(loader, artifact);
+		assertEquals(Arrays.<Class<?>>asList(Thread.class), spi.get(Runnable.class));
+	}
+	
+	public void testGeneratedManifest() throws IOException {
+		Map<String, String> entries = MemoryArtifact.entries("META-INF/services/java.lang.Runnable", "# the default implementation\n  java.lang.Thread  # not a daemon\n\n", "META-INF/services/java.lang.Comparable", "# nothing here\n");
+		Artifact artifact = memory.add(MemoryArtifact.jar("be.nabu.scanner", "commented", "1.0", "", entries));
+		DependencyResolver resolver = new DependencyResolver();
+		resolver.setParallelism(1);
+		resolver.setUpdateSnapshots(false);
+		MavenClassLoader loader = new MavenClassLoader(getClass().getClassLoader(), repository, artifact, resolver);
+		ServiceManifest manifest = new MavenScanner().generateManifest(BeanResolver.getInstance(), loader, artifact);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		manifest.write(output);
+		// the comments and whitespace of the services files do not end up in the manifest
+		ServiceManifest parsed = ServiceManifest.parse(new ByteArrayInputStream(output.toByteArray()));
+		assertNotNull(parsed);
+		assertEquals(Arrays.asList("java.lang.Thread"), parsed.getImplementations().get("java.lang.Runnable"));
+		assertFalse(parsed.getImplementations().containsKey("java.lang.Comparable"));
+	}
+	
+	private static MemoryArtifact newArtifact(String artifactId, String version, String dependencies) {
+		MemoryArtifact artifact = MemoryArtifact.jar("be.nabu.scanner", artifactId, version, dependencies, MemoryArtifact.entries("be/nabu/scanner/" + artifactId + ".txt", artifactId));
+		artifact.setLastModified(new Date(1000));
+		return artifact;
+	}
+}
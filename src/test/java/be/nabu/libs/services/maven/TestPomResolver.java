@@ -0,0 +1,99 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+import be.nabu.libs.services.maven.pom.Pom;
+import be.nabu.libs.services.maven.pom.PomDependency;
+import be.nabu.libs.services.maven.pom.PomParser;
+import junit.framework.TestCase;
+
+public class TestPomResolver extends TestCase {
+	
+	public void testEffectivePom() throws IOException, ParseException {
+		Map<String, String> poms = new HashMap<String, String>();
+		poms.put("be.nabu/parent/1.0", "<project><groupId>be.nabu</groupId><artifactId>parent</artifactId><version>1.0</version>"
+			+ "<properties><slf4j.version>1.7.${slf4j.minor}</slf4j.version><slf4j.minor>5</slf4j.minor></properties>"
+			+ "<dependencyManagement><dependencies>"
+			+ "<dependency><groupId>org.slf4j</groupId><artifactId>slf4j-api</artifactId><version>${slf4j.version}</version></dependency>"
+			+ "<dependency><groupId>be.nabu</groupId><artifactId>sibling</artifactId><version>${project.version}</version><scope>runtime</scope></dependency>"
+			+ "<dependency><groupId>be.nabu</groupId><artifactId>bom</artifactId><version>2.0</version><scope>import</scope></dependency>"
+			+ "</dependencies></dependencyManagement>"
+			+ "<dependencies><dependency><groupId>be.nabu</groupId><artifactId>inherited</artifactId><version>3.0</version></dependency></dependencies>"
+			+ "</project>");
+		poms.put("be.nabu/bom/2.0", "<project><groupId>be.nabu</groupId><artifactId>bom</artifactId><version>2.0</version>"
+			+ "<dependencyManagement><dependencies>"
+			+ "<dependency><groupId>org.slf4j</groupId><artifactId>slf4j-api</artifactId><version>0.1</version></dependency>"
+			+ "<dependency><groupId>be.nabu</groupId><artifactId>imported</artifactId><version>${project.version}</version></dependency>"
+			+ "</dependencies></dependencyManagement></project>");
+		MemoryRepository repository = new MemoryRepository();
+		for (Map.Entry<String, String> pom : poms.entrySet()) {
+			String [] parts = pom.getKey().split("/");
+			repository.add(MemoryArtifact.pom(parts[0], parts[1], parts[2], pom.getValue()));
+		}
+		String xml = "<project><parent><groupId>be.nabu</groupId><artifactId>parent</artifactId><version>1.0</version></parent>"
+			+ "<artifactId>child</artifactId>"
+			+ "<properties><slf4j.minor>6</slf4j.minor></properties>"
+			+ "<dependencies>"
+			+ "<dependency><groupId>org.slf4j</groupId><artifactId>slf4j-api</artifactId></dependency>"
+			+ "<dependency><groupId>${project.groupId}</groupId><artifactId>sibling</artifactId></dependency>"
+			+ "<dependency><groupId>be.nabu</groupId><artifactId>imported</artifactId></dependency>"
+			+ "<dependency><groupId>be.nabu</groupId><artifactId>unknown</artifactId><version>${unknown}</version></dependency>"
+			+ "</dependencies></project>";
+		Pom parsed = PomParser.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		Pom pom = new PomResolver(repository.getRepository()).resolve(parsed);
+		assertEquals("be.nabu", pom.getGroupId());
+		assertEquals("1.0", pom.getVersion());
+		assertEquals(5, pom.getDependencies().getDependencies().size());
+		// the child overrides the property used by the parent
+		assertDependency(pom.getDependencies().getDependencies().get(0), "org.slf4j", "1.7.6", null);
+		// project properties refer to the child, the scope is managed as well
+		assertDependency(pom.getDependencies().getDependencies().get(1), "be.nabu", "1.0", "runtime");
+		// imported boms are interpolated in their own context
+		assertDependency(pom.getDependencies().getDependencies().get(2), "be.nabu", "2.0", null);
+		assertDependency(pom.getDependencies().getDependencies().get(3), "be.nabu", "${unknown}", null);
+		assertDependency(pom.getDependencies().getDependencies().get(4), "be.nabu", "3.0", null);
+		// the parsed pom itself is not modified
+		assertNull(parsed.getDependencies().getDependencies().get(0).getVersion());
+	}
+	
+	public void testSharedPerRepository() throws IOException, ParseException {
+		Pom parsed = PomParser.parse(new ByteArrayInputStream(("<project><parent><groupId>be.nabu</groupId><artifactId>parent</artifactId><version>1.0</version></parent>"
+			+ "<artifactId>child</artifactId></project>").getBytes("UTF-8")));
+		// the same parent with a different content in another repository must not be mixed up
+		for (String value : new String[] { "first", "second" }) {
+			MemoryRepository repository = new MemoryRepository();
+			repository.add(MemoryArtifact.pom("be.nabu", "parent", "1.0", "<project><groupId>be.nabu</groupId><artifactId>parent</artifactId><version>1.0</version>"
+				+ "<properties><value>" + value + "</value></properties></project>"));
+			Pom pom = new PomResolver(repository.getRepository()).resolve(parsed);
+			assertEquals(value, pom.getProperties().get("value"));
+		}
+	}
+	
+	private static void assertDependency(PomDependency dependency, String groupId, String version, String scope) {
+		assertEquals(groupId, dependency.getGroupId());
+		assertEquals(version, dependency.getVersion());
+		assertEquals(scope, dependency.getScope());
+	}
+}
@@ -0,0 +1,132 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.nabu.libs.maven.api.Artifact;
+import be.nabu.libs.maven.api.WritableRepository;
+import be.nabu.libs.services.maven.pom.PomDependency;
+import junit.framework.TestCase;
+
+public class TestResolutionCache extends TestCase {
+	
+	public void testUpdatePolicy() {
+		ResolutionCache cache = new ResolutionCache();
+		assertTrue(cache.claimUpdate("be.nabu:test:1.0-SNAPSHOT"));
+		// daily by default
+		assertFalse(cache.claimUpdate("be.nabu:test:1.0-SNAPSHOT"));
+		cache.setUpdatePolicy("always");
+		assertTrue(cache.claimUpdate("be.nabu:test:1.0-SNAPSHOT"));
+		cache.setUpdatePolicy("never");
+		assertFalse(cache.claimUpdate("be.nabu:test:1.0-SNAPSHOT"));
+		assertTrue(cache.claimUpdate("be.nabu:other:1.0-SNAPSHOT"));
+	}
+	
+	public void testMissing() throws InterruptedException {
+		ResolutionCache cache = new ResolutionCache();
+		cache.setMissingTimeout(50);
+		assertFalse(cache.isMissing("be.nabu:test:1.0"));
+		cache.setMissing("be.nabu:test:1.0");
+		assertTrue(cache.isMissing("be.nabu:test:1.0"));
+		Thread.sleep(100);
+		assertFalse(cache.isMissing("be.nabu:test:1.0"));
+		// the second failure doubles the timeout
+		cache.setMissing("be.nabu:test:1.0");
+		Thread.sleep(70);
+		assertTrue(cache.isMissing("be.nabu:test:1.0"));
+		cache.setFound("be.nabu:test:1.0");
+		assertFalse(cache.isMissing("be.nabu:test:1.0"));
+	}
+	
+	public void testPersistence() throws IOException {
+		File file = File.createTempFile("resolution", ".cache");
+		file.delete();
+		try {
+			ResolutionCache cache = new ResolutionCache();
+			cache.setFile(file);
+			cache.setFlushInterval(Long.MAX_VALUE);
+			cache.setMissing("be.nabu:test:1.0");
+			cache.claimUpdate("be.nabu:test:1.0-SNAPSHOT");
+			// the changes are written in batches, not while resolving
+			assertFalse(file.exists());
+			cache.flush();
+			assertTrue(file.exists());
+			
+			ResolutionCache restored = new ResolutionCache();
+			restored.setFile(file);
+			assertTrue(restored.isMissing("be.nabu:test:1.0"));
+			assertFalse(restored.claimUpdate("be.nabu:test:1.0-SNAPSHOT"));
+		}
+		finally {
+			file.delete();
+		}
+	}
+	
+	public void testScopes() throws IOException {
+		ResolutionCache cache = new ResolutionCache();
+		List<String> downloads = new ArrayList<String>();
+		MemoryRepository first = new MemoryRepository(), second = new MemoryRepository();
+		first.add(MemoryArtifact.jar("be.nabu", "s", "1.0-SNAPSHOT", ""));
+		second.add(MemoryArtifact.jar("be.nabu", "s", "1.0-SNAPSHOT", ""));
+		DependencyResolver resolver = newResolver(cache, downloads, URI.create("http://localhost:1/repository"));
+		DependencyResolver other = newResolver(cache, downloads, URI.create("http://localhost:2/repository"));
+		
+		// the snapshot is checked once per repository
+		resolver.resolve(first.getRepository(), newDependency("s", "1.0-SNAPSHOT"));
+		resolver.resolve(first.getRepository(), newDependency("s", "1.0-SNAPSHOT"));
+		resolver.resolve(second.getRepository(), newDependency("s", "1.0-SNAPSHOT"));
+		assertEquals(2, downloads.size());
+		
+		// an artifact that is missing on some endpoints can still be found on others
+		downloads.clear();
+		assertNull(resolver.resolve(first.getRepository(), newDependency("gone", "1.0")));
+		assertNull(resolver.resolve(second.getRepository(), newDependency("gone", "1.0")));
+		assertNull(other.resolve(first.getRepository(), newDependency("gone", "1.0")));
+		assertEquals(2, downloads.size());
+	}
+	
+	private static DependencyResolver newResolver(ResolutionCache cache, final List<String> downloads, URI endpoint) {
+		DependencyResolver resolver = new DependencyResolver();
+		resolver.setParallelism(1);
+		resolver.setCache(cache);
+		resolver.setDownloader(new ArtifactDownloader(endpoint) {
+			@Override
+			public Artifact download(WritableRepository repository, String groupId, String artifactId, String version, String packaging, Artifact existing) throws IOException {
+				if (packaging.equals("jar")) {
+					downloads.add(artifactId);
+				}
+				return existing;
+			}
+		});
+		return resolver;
+	}
+	
+	private static PomDependency newDependency(String artifactId, String version) {
+		PomDependency dependency = new PomDependency();
+		dependency.setGroupId("be.nabu");
+		dependency.setArtifactId(artifactId);
+		dependency.setVersion(version);
+		return dependency;
+	}
+}
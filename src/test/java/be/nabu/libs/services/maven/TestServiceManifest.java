@@ -0,0 +1,58 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class TestServiceManifest extends TestCase {
+	
+	public void testRoundTrip() throws IOException, NoSuchMethodException {
+		ServiceManifest manifest = new ServiceManifest();
+		manifest.setLastModified(1234l);
+		manifest.addType("be.nabu.test.Type");
+		String signature = ServiceManifest.getSignature(String.class.getMethod("regionMatches", int.class, String.class, int.class, int.class));
+		assertEquals("regionMatches(int,java.lang.String,int,int)", signature);
+		manifest.addService("be.nabu.test.Service", signature);
+		manifest.addService("be.nabu.test.Service", "run()");
+		manifest.addImplementation("be.nabu.test.Interface", "be.nabu.test.Implementation");
+		
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		manifest.write(output);
+		ServiceManifest parsed = ServiceManifest.parse(new ByteArrayInputStream(output.toByteArray()));
+		assertEquals(Long.valueOf(1234), parsed.getLastModified());
+		assertEquals(Arrays.asList("be.nabu.test.Type"), parsed.getTypes());
+		assertEquals(Arrays.asList(signature, "run()"), parsed.getServices().get("be.nabu.test.Service"));
+		assertEquals(Arrays.asList("be.nabu.test.Implementation"), parsed.getImplementations().get("be.nabu.test.Interface"));
+	}
+	
+	public void testUnknownVersion() throws IOException {
+		assertNull(ServiceManifest.parse(new ByteArrayInputStream("version 2\ntype be.nabu.test.Type\n".getBytes("UTF-8"))));
+		assertNull(ServiceManifest.parse(new ByteArrayInputStream("type be.nabu.test.Type\n".getBytes("UTF-8"))));
+	}
+	
+	public void testMalformed() throws IOException {
+		assertNull(ServiceManifest.parse(new ByteArrayInputStream("version 1\ntype be.nabu.test.Type extra\n".getBytes("UTF-8"))));
+		assertNull(ServiceManifest.parse(new ByteArrayInputStream("version 1\nmodified yesterday\n".getBytes("UTF-8"))));
+	}
+}
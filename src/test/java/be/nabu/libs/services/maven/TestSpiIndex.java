@@ -0,0 +1,152 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import be.nabu.libs.maven.api.Artifact;
+import junit.framework.TestCase;
+
+public class TestSpiIndex extends TestCase {
+	
+	public void testIncrementalRefresh() throws IOException {
+		File directory = File.createTempFile("spi", "");
+		directory.delete();
+		directory.mkdirs();
+		MemoryRepository repository = new MemoryRepository();
+		try {
+			repository.add(newArtifact("1.0", writeJar(new File(directory, "a-1.0.jar"), "# comment\nbe.nabu.Old\n")));
+			SpiIndex index = new SpiIndex(repository.getRepository());
+			index.setRefreshInterval(Long.MAX_VALUE);
+			List<SpiIndex.Provider> providers = index.getProviders("be.nabu.Service");
+			assertEquals(1, providers.size());
+			assertEquals("be.nabu.Old", providers.get(0).getImplementation());
+			assertEquals("1.0", providers.get(0).getVersion());
+			assertTrue(index.getProviders("be.nabu.Other").isEmpty());
+			
+			// not picked up until the index is refreshed, the newest version comes first
+			repository.add(newArtifact("2.0", writeJar(new File(directory, "a-2.0.jar"), "be.nabu.New\n")));
+			assertEquals(1, index.getProviders("be.nabu.Service").size());
+			index.refresh();
+			providers = index.getProviders("be.nabu.Service");
+			assertEquals(2, providers.size());
+			assertEquals("be.nabu.New", providers.get(0).getImplementation());
+			assertEquals("be.nabu.Old", providers.get(1).getImplementation());
+			
+			repository.remove("be.nabu", "a", "1.0");
+			index.refresh();
+			assertEquals(1, index.getProviders("be.nabu.Service").size());
+		}
+		finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+	
+	public void testSidecarWithoutSPI() throws IOException {
+		File directory = File.createTempFile("spi", "");
+		directory.delete();
+		directory.mkdirs();
+		MemoryRepository repository = new MemoryRepository();
+		try {
+			File jar = writeJar(new File(directory, "a-1.0.jar"), "be.nabu.Old\n");
+			Artifact artifact = repository.add(newArtifact("1.0", jar));
+			ServiceManifest manifest = new ServiceManifest();
+			manifest.setLastModified(artifact.getLastModified().getTime());
+			manifest.addType("be.nabu.Old");
+			manifest.write(ServiceManifest.getSidecar(artifact));
+			// the sidecar only lists the types, the services file is still read
+			SpiIndex index = new SpiIndex(repository.getRepository());
+			List<SpiIndex.Provider> providers = index.getProviders("be.nabu.Service");
+			assertEquals(1, providers.size());
+			assertEquals("be.nabu.Old", providers.get(0).getImplementation());
+		}
+		finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+	
+	private static File writeJar(File file, String services) throws IOException {
+		ZipOutputStream output = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			output.putNextEntry(new ZipEntry("be/nabu/Old.class"));
+			output.write(new byte[] { 1, 2, 3 });
+			output.putNextEntry(new ZipEntry("META-INF/services/be.nabu.Service"));
+			output.write(services.getBytes("UTF-8"));
+		}
+		finally {
+			output.close();
+		}
+		return file;
+	}
+	
+	private static Artifact newArtifact(final String version, final File file) {
+		return new FileArtifact() {
+			@Override
+			public File getFile() {
+				return file;
+			}
+			@Override
+			public String getArtifactId() {
+				return "a";
+			}
+			@Override
+			public InputStream getContent() throws IOException {
+				return new FileInputStream(file);
+			}
+			@Override
+			public String getGroupId() {
+				return "be.nabu";
+			}
+			@Override
+			public Date getLastModified() {
+				return new Date(file.lastModified());
+			}
+			@Override
+			public String getPackaging() {
+				return "jar";
+			}
+			@Override
+			public InputStream getPom() throws IOException {
+				return null;
+			}
+			@Override
+			public String getVersion() {
+				return version;
+			}
+			@Override
+			public boolean isTest() {
+				return false;
+			}
+		};
+	}
+}
@@ -17,6 +17,7 @@
 
 package be.nabu.libs.services.maven.pom;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
@@ -43,6 +44,51 @@ public class TestParsePom extends TestCase {
 		assertEquals(4, pom.getDependencies().getDependencies().size());
 	}
 
+	public void testParseDetails() throws IOException, ParseException {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE project [ <!ENTITY test \"test\"> ]>\n"
+			+ "<m:project xmlns:m=\"http://maven.apache.org/POM/4.0.0\">\n"
+			+ "	<!-- <groupId>commented</groupId> -->\n"
+			+ "	<groupId><![CDATA[be.nabu]]></groupId>\n"
+			+ "	<artifactId>test&amp;co</artifactId>\n"
+			+ "	<version>\n 1.0 \n</version>\n"
+			+ "	<build><plugins><plugin><dependencies><dependency><groupId>plugin</groupId></dependency></dependencies></plugin></plugins></build>\n"
+			+ "	<dependencies>\n"
+			+ "		<dependency>\n"
+			+ "			<groupId>be.nabu</groupId><artifactId>dependency</artifactId><version>2.0</version>\n"
+			+ "			<optional>true</optional>\n"
+			+ "			<exclusions><exclusion><groupId>org.slf4j</groupId><artifactId>*</artifactId></exclusion></exclusions>\n"
+			+ "		</dependency>\n"
+			+ "		<dependency><groupId>be.nabu</groupId><artifactId>other</artifactId><scope>test</scope></dependency>\n"
+			+ "		<dependency/>\n"
+			+ "	</dependencies>\n"
+			+ "</m:project>";
+		Pom pom = PomParser.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		assertEquals("be.nabu", pom.getGroupId());
+		assertEquals("test&co", pom.getArtifactId());
+		assertEquals("1.0", pom.getVersion());
+		assertEquals(3, pom.getDependencies().getDependencies().size());
+		PomDependency dependency = pom.getDependencies().getDependencies().get(0);
+		assertTrue(dependency.getOptional());
+		assertEquals("org.slf4j", dependency.getExclusions().getExclusions().get(0).getGroupId());
+		assertEquals("*", dependency.getExclusions().getExclusions().get(0).getArtifactId());
+		assertEquals("test", pom.getDependencies().getDependencies().get(1).getScope());
+		assertNull(pom.getDependencies().getDependencies().get(1).getVersion());
+	}
+
+	public void testInvalidCharacterReference() throws IOException {
+		for (String reference : new String [] { "&#12a;", "&#x;", "&#x110000;" }) {
+			String xml = "<project><groupId>be.nabu</groupId><artifactId>test" + reference + "</artifactId></project>";
+			try {
+				PomParser.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+				fail("The character reference " + reference + " is not valid");
+			}
+			catch (ParseException e) {
+				assertEquals(xml.indexOf('&'), e.getErrorOffset());
+			}
+		}
+	}
+
 	private Pom parse(final String name) throws IOException, ParseException {
 		return DependencyResolver.parsePom(new Artifact() {
 			@Override